@@ -0,0 +1,103 @@
+package edu.nd.sirs.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.nd.sirs.index.Indexer;
+import edu.nd.sirs.websitesearch.SyntheticCrawlGenerator;
+
+/**
+ * Generates a synthetic crawl with SyntheticCrawlGenerator and indexes it
+ * into ./data, where the index readers expect it, so every benchmark runs
+ * against the same index. The crawl is only rebuilt when its parameters
+ * change.
+ *
+ * The size of the crawl can be set with the system properties
+ * sirs.fixture.docs and sirs.fixture.vocabulary.
+ *
+ * @author tweninge
+ *
+ */
+public final class BenchmarkFixture {
+
+	public static final int DOCS = Integer.getInteger("sirs.fixture.docs",
+			20000);
+	public static final int VOCABULARY = Integer.getInteger(
+			"sirs.fixture.vocabulary", 50000);
+
+	private static final String DATA = "./data";
+	private static final String CRAWL = DATA + "/crawl.zip";
+	private static final String DESCRIPTION = DATA + "/fixture.properties";
+	private static final long SEED = 42;
+
+	private BenchmarkFixture() {
+	}
+
+	/**
+	 * Builds the fixture index unless one with the same parameters exists
+	 */
+	public static synchronized void ensureIndex() throws IOException {
+		Properties wanted = new Properties();
+		wanted.setProperty("docs", Integer.toString(DOCS));
+		wanted.setProperty("vocabulary", Integer.toString(VOCABULARY));
+		wanted.setProperty("seed", Long.toString(SEED));
+		wanted.setProperty("generator", "zipf");
+
+		File description = new File(DESCRIPTION);
+		if (description.exists() && new File(DATA, "idx.bin").exists()) {
+			Properties existing = new Properties();
+			InputStream in = new FileInputStream(description);
+			existing.load(in);
+			in.close();
+			if (existing.equals(wanted)) {
+				return;
+			}
+		}
+
+		new File(DATA).mkdirs();
+		new SyntheticCrawlGenerator(DOCS, VOCABULARY, SEED).write(new File(
+				CRAWL));
+		Indexer.main(new String[] { CRAWL });
+
+		OutputStream out = new FileOutputStream(description);
+		wanted.store(out, "SIRS benchmark fixture");
+		out.close();
+	}
+
+	/**
+	 * @param rank
+	 *            word rank, 0 is the most frequent word
+	 * @return the fixture term of that rank
+	 */
+	public static String term(int rank) {
+		return SyntheticCrawlGenerator.word(rank);
+	}
+
+	/**
+	 * Draws a word rank, log-uniformly so frequent and rare terms are both
+	 * well represented
+	 */
+	public static int rank(Random r) {
+		return (int) Math.pow(VOCABULARY + 1, r.nextDouble()) - 1;
+	}
+
+	/**
+	 * Generates text of the given number of fixture words
+	 */
+	public static String text(Random r, int words) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(term(rank(r)));
+		}
+		return sb.toString();
+	}
+}
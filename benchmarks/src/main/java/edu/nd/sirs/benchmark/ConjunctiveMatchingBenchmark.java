@@ -0,0 +1,60 @@
+package edu.nd.sirs.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.query.ConjunctiveMatching;
+import edu.nd.sirs.query.Query;
+import edu.nd.sirs.query.ResultSet;
+
+/**
+ * Conjunctive Boolean evaluation, ranked and count only, on the same queries
+ * as MatchingBenchmark.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConjunctiveMatchingBenchmark {
+
+	private static final int SAMPLE = 256;
+
+	private ConjunctiveMatching matching;
+	private Query[] queries;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkFixture.ensureIndex();
+		matching = new ConjunctiveMatching();
+		queries = MatchingBenchmark.queries(SAMPLE);
+	}
+
+	@Benchmark
+	public ResultSet match() {
+		next = (next + 1) & (SAMPLE - 1);
+		return matching.match(queries[next]);
+	}
+
+	@Benchmark
+	public int count() {
+		next = (next + 1) & (SAMPLE - 1);
+		return matching.count(queries[next]);
+	}
+}
@@ -0,0 +1,80 @@
+package edu.nd.sirs.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.util.HeapSort;
+
+/**
+ * Partial descending sort of a result set, as ResultSet.sort() does it. Each
+ * invocation sorts a fresh copy of the same random scores; copy() measures
+ * the copying alone.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeapSortBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	@Param({ "200" })
+	public int topDocs;
+
+	private float[] scores;
+	private int[] docids;
+	private short[] occurrences;
+	private float[] workScores;
+	private int[] workDocids;
+	private short[] workOccurrences;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(1);
+		scores = new float[size];
+		docids = new int[size];
+		occurrences = new short[size];
+		for (int i = 0; i < size; i++) {
+			scores[i] = r.nextFloat();
+			docids[i] = i;
+			occurrences[i] = (short) r.nextInt(4);
+		}
+		workScores = new float[size];
+		workDocids = new int[size];
+		workOccurrences = new short[size];
+	}
+
+	@Benchmark
+	public float[] copy() {
+		System.arraycopy(scores, 0, workScores, 0, size);
+		System.arraycopy(docids, 0, workDocids, 0, size);
+		System.arraycopy(occurrences, 0, workOccurrences, 0, size);
+		return workScores;
+	}
+
+	@Benchmark
+	public float[] descendingHeapSort() {
+		copy();
+		HeapSort.descendingHeapSort(workScores, workDocids, workOccurrences,
+				Math.min(topDocs, size));
+		return workScores;
+	}
+}
@@ -0,0 +1,65 @@
+package edu.nd.sirs.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.index.Lexicon;
+
+/**
+ * Term lookups in the lexicon, for terms that exist and terms that do not.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexiconBenchmark {
+
+	private static final int SAMPLE = 1024;
+
+	private Lexicon lexicon;
+	private String[] known;
+	private String[] unknown;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkFixture.ensureIndex();
+		lexicon = Lexicon.getInstance();
+		Random r = new Random(1);
+		known = new String[SAMPLE];
+		unknown = new String[SAMPLE];
+		for (int i = 0; i < SAMPLE; i++) {
+			known[i] = BenchmarkFixture.term(BenchmarkFixture.rank(r));
+			unknown[i] = known[i] + "x";
+		}
+	}
+
+	@Benchmark
+	public int getTermId() {
+		next = (next + 1) & (SAMPLE - 1);
+		return lexicon.getTermId(known[next]);
+	}
+
+	@Benchmark
+	public int getTermIdMissing() {
+		next = (next + 1) & (SAMPLE - 1);
+		return lexicon.getTermId(unknown[next]);
+	}
+}
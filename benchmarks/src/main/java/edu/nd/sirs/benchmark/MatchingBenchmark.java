@@ -0,0 +1,96 @@
+package edu.nd.sirs.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.index.Lexicon;
+import edu.nd.sirs.query.Matching;
+import edu.nd.sirs.query.Query;
+import edu.nd.sirs.query.ResultSet;
+import edu.nd.sirs.retrievalmodel.BooleanRM;
+import edu.nd.sirs.retrievalmodel.BooleanScoreModifier;
+import edu.nd.sirs.retrievalmodel.CosineRM;
+import edu.nd.sirs.retrievalmodel.CosineScoreModifier;
+
+/**
+ * End to end query evaluation for the Boolean and cosine models with every
+ * Matching strategy. Queries have two or three fixture terms; the result
+ * cache is not used.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingBenchmark {
+
+	private static final int SAMPLE = 256;
+
+	@Param({ "Boolean", "Cosine" })
+	public String model;
+
+	@Param({ "TERM_AT_A_TIME", "DOCUMENT_AT_A_TIME", "WAND" })
+	public String strategy;
+
+	private int strategyId;
+	private Query[] queries;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkFixture.ensureIndex();
+		strategyId = Matching.class.getField(strategy).getInt(null);
+		queries = queries(SAMPLE);
+	}
+
+	/**
+	 * Queries of two or three terms that are all in the lexicon
+	 */
+	static Query[] queries(int n) {
+		Random r = new Random(1);
+		Query[] queries = new Query[n];
+		for (int i = 0; i < n; i++) {
+			int terms = 2 + r.nextInt(2);
+			StringBuffer sb = new StringBuffer();
+			while (terms > 0) {
+				String t = BenchmarkFixture.term(BenchmarkFixture.rank(r));
+				if (Lexicon.getInstance().getTermId(t) != -1) {
+					sb.append(t).append(' ');
+					terms--;
+				}
+			}
+			queries[i] = new Query(sb.toString().trim());
+		}
+		return queries;
+	}
+
+	@Benchmark
+	public ResultSet match() {
+		next = (next + 1) & (SAMPLE - 1);
+		Matching m;
+		if (model.equals("Boolean")) {
+			m = new Matching(new BooleanRM(), strategyId);
+			m.addScoreModifier(new BooleanScoreModifier());
+		} else {
+			m = new Matching(new CosineRM(), strategyId);
+			m.addScoreModifier(new CosineScoreModifier());
+		}
+		return m.match(queries[next]);
+	}
+}
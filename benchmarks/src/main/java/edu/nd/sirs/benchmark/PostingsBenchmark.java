@@ -0,0 +1,132 @@
+package edu.nd.sirs.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.index.InvertedIndex;
+import edu.nd.sirs.index.Lexicon;
+import edu.nd.sirs.index.PostingIterator;
+import edu.nd.sirs.index.PostingList;
+import edu.nd.sirs.util.MappedFile;
+
+/**
+ * Reading posting lists: looking them up in the inverted index, with and
+ * without the posting cache, and building a PostingList from the raw entry.
+ * Terms are drawn with the same skew as the fixture text, so long lists are
+ * asked for far more often than short ones.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostingsBenchmark {
+
+	private static final int SAMPLE = 1024;
+	private static final String IDX = "./data/idx.bin";
+	private static final String IDXTERMOFFSET = "./data/idx_term_offset.bin";
+
+	@Param({ "0", "67108864" })
+	public long postingCacheBytes;
+
+	private InvertedIndex index;
+	private Field[] fields;
+	private int[] termIds;
+	private ByteBuffer[] entries;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchmarkFixture.ensureIndex();
+		index = InvertedIndex.getInstance();
+		index.setPostingCacheSize(postingCacheBytes);
+		fields = Fields.getInstance().getFields().toArray(new Field[0]);
+
+		long[] offsets = readOffsets();
+		MappedFile idx = new MappedFile(new File(IDX));
+		Random r = new Random(1);
+		termIds = new int[SAMPLE];
+		entries = new ByteBuffer[SAMPLE];
+		for (int i = 0; i < SAMPLE; i++) {
+			int termId = -1;
+			while (termId < 0) {
+				termId = Lexicon.getInstance().getTermId(
+						BenchmarkFixture.term(BenchmarkFixture.rank(r)));
+			}
+			termIds[i] = termId;
+			entries[i] = idx.slice(offsets[termId],
+					(int) (offsets[termId + 1] - offsets[termId]));
+		}
+	}
+
+	private static long[] readOffsets() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(IDXTERMOFFSET)));
+		int terms = in.readInt();
+		long[] offsets = new long[terms + 1];
+		for (int t = 0; t < terms; t++) {
+			offsets[t] = in.readLong();
+		}
+		offsets[terms] = new File(IDX).length();
+		in.close();
+		return offsets;
+	}
+
+	@Benchmark
+	public PostingList getPostings() {
+		next = (next + 1) & (SAMPLE - 1);
+		return index.getPostings(termIds[next]);
+	}
+
+	@Benchmark
+	public void getPostingsAndIterate(Blackhole bh) {
+		next = (next + 1) & (SAMPLE - 1);
+		iterate(index.getPostings(termIds[next]), bh);
+	}
+
+	@Benchmark
+	public PostingList constructPostingList() {
+		next = (next + 1) & (SAMPLE - 1);
+		return new PostingList(entries[next].duplicate());
+	}
+
+	@Benchmark
+	public void constructAndIterate(Blackhole bh) {
+		next = (next + 1) & (SAMPLE - 1);
+		iterate(new PostingList(entries[next].duplicate()), bh);
+	}
+
+	private void iterate(PostingList pl, Blackhole bh) {
+		for (Field f : fields) {
+			PostingIterator it = pl.iterator(f);
+			while (it.nextDoc() != PostingIterator.NO_MORE_DOCS) {
+				bh.consume(it.freq());
+			}
+		}
+	}
+}
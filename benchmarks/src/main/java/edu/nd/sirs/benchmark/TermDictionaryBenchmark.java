@@ -0,0 +1,79 @@
+package edu.nd.sirs.benchmark;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.index.TermDictionary;
+
+/**
+ * Building the indexing vocabulary from a stream of Zipf distributed tokens,
+ * with the TermDictionary the indexer uses and with the TreeMap it used
+ * before. Each invocation adds the whole stream to an empty vocabulary.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermDictionaryBenchmark {
+
+	@Param({ "100000", "1000000" })
+	public int tokens;
+
+	private String[] stream;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(1);
+		stream = new String[tokens];
+		for (int i = 0; i < tokens; i++) {
+			// a new String per token, as the parser produces them
+			stream[i] = new String(BenchmarkFixture.term(BenchmarkFixture
+					.rank(r)));
+		}
+	}
+
+	@Benchmark
+	public int termDictionary() {
+		TermDictionary voc = new TermDictionary();
+		int sum = 0;
+		for (String t : stream) {
+			sum += voc.add(t);
+		}
+		return sum + voc.sortedTerms().length;
+	}
+
+	@Benchmark
+	public int treeMap() {
+		TreeMap<String, Integer> voc = new TreeMap<String, Integer>();
+		int sum = 0;
+		for (String t : stream) {
+			int termId;
+			if (!voc.containsKey(t)) {
+				termId = voc.size();
+				voc.put(t, termId);
+			} else {
+				termId = voc.get(t);
+			}
+			sum += termId;
+		}
+		return sum + voc.size();
+	}
+}
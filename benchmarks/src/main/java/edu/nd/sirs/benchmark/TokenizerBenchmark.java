@@ -0,0 +1,82 @@
+package edu.nd.sirs.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.nd.sirs.parser.CaseFoldingNormalizer;
+import edu.nd.sirs.parser.CaseFoldingTokenizer;
+import edu.nd.sirs.parser.TokenHandler;
+import edu.nd.sirs.parser.WhitespaceTextTokenizer;
+
+/**
+ * Tokenizing and case folding document text: the regular expression split
+ * followed by a normalizer pass, against the scanning tokenizer the parsers
+ * use, both building Strings and through the callback alone.
+ *
+ * @author tweninge
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	@Param({ "10", "500", "10000" })
+	public int words;
+
+	private WhitespaceTextTokenizer split;
+	private CaseFoldingNormalizer normalizer;
+	private CaseFoldingTokenizer scanner;
+	private TokenHandler counter;
+	private String text;
+	private int chars;
+
+	@Setup
+	public void setup() {
+		split = new WhitespaceTextTokenizer();
+		normalizer = new CaseFoldingNormalizer();
+		scanner = new CaseFoldingTokenizer();
+		counter = new TokenHandler() {
+			public void token(char[] term, int length, int offset) {
+				chars += length;
+			}
+		};
+		// punctuation around one of the frequent words
+		String w = BenchmarkFixture.term(1);
+		text = BenchmarkFixture.text(new Random(1), words).replace(
+				" " + w + " ", ", " + w + ". ");
+	}
+
+	@Benchmark
+	public List<String> splitAndNormalize() {
+		return normalizer.normalize(split.tokenize(text));
+	}
+
+	@Benchmark
+	public List<String> scanToStrings() {
+		return scanner.tokenize(text);
+	}
+
+	@Benchmark
+	public int scanToHandler() {
+		chars = 0;
+		scanner.tokenize(text, counter);
+		return chars;
+	}
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.zip.ZipEntry;
@@ -65,6 +64,10 @@ public abstract class Document {
 		return numTokens.get(f);
 	}
 
+	public Map<Field, Integer> getNumTokens() {
+		return numTokens;
+	}
+
 	public Map<String, Object> getResources(){
 		return resources;
 	}
@@ -133,9 +136,9 @@ public abstract class Document {
 	 *            document ID
 	 * @param file
 	 *            File to parse
-	 * @return Collection of Text Tokens
+	 * @return Text Tokens
 	 */
-	public abstract List<Token> parse(Integer docId, InputStream fileInputStream);
+	public abstract TokenBuffer parse(Integer docId, InputStream fileInputStream);
 
 	protected String readFile(InputStream fileInputStream) {
 		StringBuffer contentBuffer = new StringBuffer();
@@ -18,14 +18,14 @@ public class Fields {
 		weights = new HashMap<Field, Float>();
 	}
 
-	public static Fields getInstance() {
+	public static synchronized Fields getInstance() {
 		if (me == null) {
 			me = new Fields();
 		}
 		return me;
 	}
 
-	public boolean addField(String f) {
+	public synchronized boolean addField(String f) {
 		if (fields.containsKey(f)) {
 			return false;
 		} else {
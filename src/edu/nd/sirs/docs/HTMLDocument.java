@@ -1,8 +1,9 @@
 package edu.nd.sirs.docs;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InputStreamReader;
 import java.util.zip.ZipEntry;
 
 import org.jsoup.Jsoup;
@@ -11,8 +12,10 @@ import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.nd.sirs.parser.CaseFoldingNormalizer;
-import edu.nd.sirs.parser.WhitespaceTextTokenizer;
+import edu.nd.sirs.parser.CaseFoldingTokenizer;
+import edu.nd.sirs.parser.HTMLHandler;
+import edu.nd.sirs.parser.HTMLTextExtractor;
+import edu.nd.sirs.parser.TokenHandler;
 
 /**
  * Document with only text to parse
@@ -24,6 +27,16 @@ public class HTMLDocument extends Document {
 
 	private static Logger logger = LoggerFactory.getLogger(HTMLDocument.class);
 
+	/**
+	 * Extractors keep their buffers between pages, one per parser thread
+	 */
+	private static final ThreadLocal<HTMLTextExtractor> EXTRACTOR = new ThreadLocal<HTMLTextExtractor>() {
+		@Override
+		protected HTMLTextExtractor initialValue() {
+			return new HTMLTextExtractor();
+		}
+	};
+
 	/**
 	 * Constructor from indexer
 	 * 
@@ -48,63 +61,156 @@ public class HTMLDocument extends Document {
 		super(docId, line);
 	}
 	
-	@Override
-	public List<Token> parse(Integer docId, InputStream fileInputStream) {
-		logger.info("HTML Parsing invoked");
+	/**
+	 * Registers the fields produced by HTML parsing. Must be called before
+	 * documents are parsed concurrently so that parser threads only ever read
+	 * from Fields.
+	 */
+	public static void registerFields() {
 		Fields.getInstance().addField("body");
 		Fields.getInstance().addField("link");
 		Fields.getInstance().addField("title");
+	}
 
-		String html = this.readFile(fileInputStream);
-		List<Token> tokens = new ArrayList<Token>();
+	@Override
+	public TokenBuffer parse(Integer docId, InputStream fileInputStream) {
+		logger.info("HTML Parsing invoked");
+		registerFields();
 
-		WhitespaceTextTokenizer tokenizer = new WhitespaceTextTokenizer();
-		CaseFoldingNormalizer normalizer = new CaseFoldingNormalizer();
+		InputStream in = fileInputStream.markSupported() ? fileInputStream
+				: new BufferedInputStream(fileInputStream);
+		in.mark(Integer.MAX_VALUE);
+
+		TokenBuffer tokens = new TokenBuffer();
+		try {
+			if (extract(in, tokens)) {
+				return tokens;
+			}
+			logger.info("Malformed page " + name + ", parsing it with jsoup");
+			in.reset();
+		} catch (IOException e) {
+			logger.error("Cannot extract " + name + ", parsing it with jsoup",
+					e);
+			try {
+				in.reset();
+			} catch (IOException e1) {
+				logger.error("Cannot reset " + name, e1);
+			}
+		}
+		tokens.clear();
+		numTokens.clear();
+		resources.clear();
+		parseWithJsoup(this.readFile(in), tokens);
+		return tokens;
+	}
+
+	/**
+	 * Streams the page through an HTMLTextExtractor
+	 *
+	 * @param in
+	 *            page
+	 * @param tokens
+	 *            buffer the title and body tokens are added to
+	 * @return false if the page is malformed
+	 * @throws IOException
+	 */
+	private boolean extract(InputStream in, final TokenBuffer tokens)
+			throws IOException {
+		final Field title = Fields.getInstance().getFieldId("title");
+		final Field body = Fields.getInstance().getFieldId("body");
+		final Field link = Fields.getInstance().getFieldId("link");
+		final int[] counts = new int[2];
+
+		boolean wellFormed = EXTRACTOR.get().extract(
+				new InputStreamReader(in, "UTF-8"), new HTMLHandler() {
+					private TokenBuffer anchorToks;
+
+					public void title(String text) {
+						resources.put("title", text);
+					}
+
+					public void link(String url) {
+						anchorToks = new TokenBuffer();
+						resources.put("l" + url, anchorToks);
+					}
+
+					public void token(int part, char[] term, int length) {
+						if (part == TITLE) {
+							tokens.add(term, length, title);
+							counts[0]++;
+						} else if (part == BODY) {
+							tokens.add(term, length, body);
+							counts[1]++;
+						} else {
+							anchorToks.add(term, length, link);
+						}
+					}
+				});
+		numTokens.put(title, counts[0]);
+		numTokens.put(body, counts[1]);
+		return wellFormed;
+	}
+
+	/**
+	 * Parses the page into a jsoup DOM, for pages the extractor cannot
+	 * handle
+	 *
+	 * @param html
+	 *            page
+	 * @param tokens
+	 *            buffer the title and body tokens are added to
+	 */
+	private void parseWithJsoup(String html, TokenBuffer tokens) {
+		CaseFoldingTokenizer tokenizer = new CaseFoldingTokenizer();
 
 		org.jsoup.nodes.Document doc = Jsoup.parse(html);
 		Elements h = doc.getElementsByTag("head");
+		Field title = Fields.getInstance().getFieldId("title");
 		int numtitletokens = 0;
 		if (h.size() >= 1) {
 			Elements x = h.get(0).getElementsByTag("title");
 			if (x.size() >= 1) {
 				this.resources.put("title", x.get(0).text().replaceAll("\n", " "));
-				List<String> title = tokenizer.tokenize(x.get(0).text());
-				title = normalizer.normalize(title);
-				for (String s : title) {
-					tokens.add(new Token(s, Fields.getInstance().getFieldId(
-							"title")));
-					numtitletokens++;
-				}
+				numtitletokens = tokenize(tokenizer, x.get(0).text(), title,
+						tokens);
 			}
 		}
-		numTokens.put(Fields.getInstance().getFieldId("title"), numtitletokens);
+		numTokens.put(title, numtitletokens);
 
 		String text = doc.getElementsByTag("body").text();
 
-		List<String> content = tokenizer.tokenize(text);
-		content = normalizer.normalize(content);
-		int contenttoks = 0;
-		for (String s : content) {
-			tokens.add(new Token(s, Fields.getInstance().getFieldId("body")));
-			contenttoks++;
-		}
-		numTokens.put(Fields.getInstance().getFieldId("body"), contenttoks);
+		Field body = Fields.getInstance().getFieldId("body");
+		numTokens.put(body, tokenize(tokenizer, text, body, tokens));
 
+		Field link = Fields.getInstance().getFieldId("link");
 		Elements as = doc.getElementsByTag("a");
 		for (Element a : as) {
 			String url = a.absUrl("href");
-			List<Token> anchorToks = new ArrayList<Token>();
-			List<String> anchor = tokenizer.tokenize(a.text());
-			anchor = normalizer.normalize(anchor);
-			for (String s : anchor) {
-				anchorToks.add(new Token(s, Fields.getInstance().getFieldId(
-						"link")));
-			}
+			TokenBuffer anchorToks = new TokenBuffer();
+			tokenize(tokenizer, a.text(), link, anchorToks);
 			this.resources.put("l" + url, anchorToks);
 		}
-
-		return tokens;
 	}
 
-
+	/**
+	 * Tokenizes text into tokens of a field
+	 *
+	 * @param tokenizer
+	 *            tokenizer to use
+	 * @param text
+	 *            text to tokenize
+	 * @param field
+	 *            field of the tokens
+	 * @param tokens
+	 *            buffer the tokens are added to
+	 * @return number of tokens added
+	 */
+	private static int tokenize(CaseFoldingTokenizer tokenizer, String text,
+			final Field field, final TokenBuffer tokens) {
+		return tokenizer.tokenize(text, new TokenHandler() {
+			public void token(char[] term, int length, int offset) {
+				tokens.add(term, length, field);
+			}
+		});
+	}
 }
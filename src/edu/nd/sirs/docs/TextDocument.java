@@ -1,15 +1,13 @@
 package edu.nd.sirs.docs;
 
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.zip.ZipEntry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.nd.sirs.parser.ITokenizer;
-import edu.nd.sirs.parser.WhitespaceTextTokenizer;
+import edu.nd.sirs.parser.CaseFoldingTokenizer;
+import edu.nd.sirs.parser.TokenHandler;
 
 /**
  * Document with only text to parse
@@ -46,16 +44,18 @@ public class TextDocument extends Document {
 	}
 
 	@Override
-	public List<Token> parse(Integer docId, InputStream f) {
+	public TokenBuffer parse(Integer docId, InputStream f) {
 		Fields.getInstance().addField("body");
-		List<Token> tokens = new ArrayList<Token>();
-		ITokenizer tokenizer = new WhitespaceTextTokenizer();
-		List<String> toks = tokenizer.tokenize(this.readFile(f));
-		for(String t: toks){
-			tokens.add(new Token(t, Fields.getInstance().getFieldId("body")));
-		}
-		
-		numTokens.put(Fields.getInstance().getFieldId("body"), toks.size());
+		final TokenBuffer tokens = new TokenBuffer();
+		final Field body = Fields.getInstance().getFieldId("body");
+		int count = new CaseFoldingTokenizer().tokenize(this.readFile(f),
+				new TokenHandler() {
+					public void token(char[] term, int length, int offset) {
+						tokens.add(term, length, body);
+					}
+				});
+
+		numTokens.put(body, count);
 
 		return tokens;
 	}
@@ -0,0 +1,127 @@
+package edu.nd.sirs.docs;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a document, in text order, with the field of every token.
+ * The characters of all tokens are appended to one shared char array, so
+ * the buffer holds no object per token; a document is parsed into a buffer
+ * on a parser thread and the indexer reads the terms straight from it.
+ *
+ * @author tweninge
+ *
+ */
+public class TokenBuffer {
+
+	private char[] chars;
+	/**
+	 * start of every token in chars, with one extra entry marking the end of
+	 * the last token
+	 */
+	private int[] starts;
+	private Field[] fields;
+	private int size;
+
+	public TokenBuffer() {
+		chars = new char[256];
+		starts = new int[33];
+		fields = new Field[32];
+	}
+
+	/**
+	 * Appends a token
+	 *
+	 * @param term
+	 *            characters of the token, in term[0..length)
+	 * @param length
+	 *            number of characters
+	 * @param field
+	 *            field of the token
+	 */
+	public void add(char[] term, int length, Field field) {
+		int start = reserve(length);
+		System.arraycopy(term, 0, chars, start, length);
+		added(start + length, field);
+	}
+
+	/**
+	 * Appends a token
+	 *
+	 * @param term
+	 *            token
+	 * @param field
+	 *            field of the token
+	 */
+	public void add(String term, Field field) {
+		int start = reserve(term.length());
+		term.getChars(0, term.length(), chars, start);
+		added(start + term.length(), field);
+	}
+
+	private int reserve(int length) {
+		if (size == fields.length) {
+			starts = Arrays.copyOf(starts, fields.length * 2 + 1);
+			fields = Arrays.copyOf(fields, fields.length * 2);
+		}
+		int start = starts[size];
+		if (start + length > chars.length) {
+			chars = Arrays.copyOf(chars,
+					Math.max(chars.length * 2, start + length));
+		}
+		return start;
+	}
+
+	private void added(int end, Field field) {
+		fields[size] = field;
+		starts[++size] = end;
+	}
+
+	/**
+	 * Removes all tokens, keeping the memory for the next ones
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return number of tokens
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return characters of all tokens, token i starting at start(i). The
+	 *         array is replaced as the buffer grows.
+	 */
+	public char[] chars() {
+		return chars;
+	}
+
+	/**
+	 * @param i
+	 *            number of the token
+	 * @return first character of the token in chars()
+	 */
+	public int start(int i) {
+		return starts[i];
+	}
+
+	/**
+	 * @param i
+	 *            number of the token
+	 * @return number of characters of the token
+	 */
+	public int length(int i) {
+		return starts[i + 1] - starts[i];
+	}
+
+	/**
+	 * @param i
+	 *            number of the token
+	 * @return field of the token
+	 */
+	public Field field(int i) {
+		return fields[i];
+	}
+}
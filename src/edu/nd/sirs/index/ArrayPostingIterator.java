@@ -0,0 +1,126 @@
+package edu.nd.sirs.index;
+
+/**
+ * PostingIterator over postings that were already decoded into arrays, as
+ * kept by the posting cache. The arrays are shared and never modified, so
+ * any number of iterators can walk them at once. Blocks are the same
+ * BLOCK_SIZE runs of postings the index file uses.
+ *
+ * @author tweninge
+ *
+ */
+public class ArrayPostingIterator implements PostingIterator {
+
+	private final int[] docs;
+	private final int[] freqs;
+	private final int[] blockMaxFreq;
+	private final int maxFreq;
+
+	private int index;
+	private final Posting posting;
+
+	/**
+	 * Constructor
+	 *
+	 * @param docs
+	 *            document ids in increasing order
+	 * @param freqs
+	 *            frequencies
+	 * @param blockMaxFreq
+	 *            highest frequency of every block
+	 * @param maxFreq
+	 *            highest frequency
+	 */
+	public ArrayPostingIterator(int[] docs, int[] freqs, int[] blockMaxFreq,
+			int maxFreq) {
+		this.docs = docs;
+		this.freqs = freqs;
+		this.blockMaxFreq = blockMaxFreq;
+		this.maxFreq = maxFreq;
+		index = -1;
+		posting = new Posting(-1, 0);
+	}
+
+	public int docId() {
+		return posting.docid;
+	}
+
+	public int nextDoc() {
+		return moveTo(index + 1);
+	}
+
+	public int advance(int target) {
+		return moveTo(find(index + 1, target));
+	}
+
+	private int moveTo(int i) {
+		index = Math.min(i, docs.length);
+		if (index == docs.length) {
+			posting.docid = NO_MORE_DOCS;
+			return NO_MORE_DOCS;
+		}
+		posting.docid = docs[index];
+		posting.frequency = freqs[index];
+		return posting.docid;
+	}
+
+	/**
+	 * Gallops from from to the first posting whose docid is at least target
+	 *
+	 * @return posting index, or the number of postings if there is none
+	 */
+	private int find(int from, int target) {
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < docs.length && docs[high] < target) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, docs.length - 1);
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (docs[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public int index() {
+		return index;
+	}
+
+	public int freq() {
+		return posting.frequency;
+	}
+
+	public Posting posting() {
+		return posting;
+	}
+
+	public int size() {
+		return docs.length;
+	}
+
+	public int maxFreq() {
+		return maxFreq;
+	}
+
+	public int block(int target) {
+		int i = find(0, target);
+		return i < docs.length ? i / InvertedIndexWriter.BLOCK_SIZE : -1;
+	}
+
+	public int blockLastDoc(int block) {
+		return docs[Math.min(docs.length, (block + 1)
+				* InvertedIndexWriter.BLOCK_SIZE) - 1];
+	}
+
+	public int blockMaxFreq(int block) {
+		return blockMaxFreq[block];
+	}
+}
@@ -0,0 +1,164 @@
+package edu.nd.sirs.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PostingIterator over the variable-byte coded postings of one field of an
+ * inverted index entry. The skip table in front of the postings (see
+ * InvertedIndexWriter) gives the last docid and byte length of every block,
+ * which advance() uses to gallop to the block that can hold its target.
+ *
+ * @author tweninge
+ *
+ */
+public class BlockPostingIterator implements PostingIterator {
+
+	private final ByteBuffer data;
+	private final int count;
+	private final int[] blockLastDoc;
+	private final int[] blockStart;
+	private final int[] blockMaxFreq;
+	private int maxFreq;
+
+	private int index;
+	private int doc;
+	private final Posting posting;
+
+	/**
+	 * Constructor
+	 *
+	 * @param data
+	 *            field data positioned at the skip table
+	 * @param count
+	 *            number of postings
+	 */
+	public BlockPostingIterator(ByteBuffer data, int count) {
+		this.data = data;
+		this.count = count;
+
+		int blocks = (count + InvertedIndexWriter.BLOCK_SIZE - 1)
+				/ InvertedIndexWriter.BLOCK_SIZE;
+		blockLastDoc = new int[blocks];
+		blockStart = new int[blocks];
+		blockMaxFreq = new int[blocks];
+		int last = 0;
+		int length = 0;
+		for (int b = 0; b < blocks; b++) {
+			last += VByte.read(data);
+			blockLastDoc[b] = last;
+			blockStart[b] = length;
+			length += VByte.read(data);
+			blockMaxFreq[b] = VByte.read(data);
+			maxFreq = Math.max(maxFreq, blockMaxFreq[b]);
+		}
+		int postingsStart = data.position();
+		for (int b = 0; b < blocks; b++) {
+			blockStart[b] += postingsStart;
+		}
+
+		index = 0;
+		doc = -1;
+		posting = new Posting(-1, 0);
+	}
+
+	public int docId() {
+		return doc;
+	}
+
+	public int nextDoc() {
+		if (index >= count) {
+			doc = NO_MORE_DOCS;
+			posting.docid = doc;
+			return doc;
+		}
+		if (doc < 0) {
+			doc = 0;
+		}
+		doc += VByte.read(data);
+		posting.docid = doc;
+		posting.frequency = VByte.read(data);
+		index++;
+		return doc;
+	}
+
+	public int advance(int target) {
+		int block = index == 0 ? 0 : (index - 1)
+				/ InvertedIndexWriter.BLOCK_SIZE;
+		if (block < blockLastDoc.length && target > blockLastDoc[block]) {
+			int b = findBlock(block + 1, target);
+			if (b >= blockLastDoc.length) {
+				index = count;
+				return nextDoc();
+			}
+			// jump to the start of block b
+			data.position(blockStart[b]);
+			index = b * InvertedIndexWriter.BLOCK_SIZE;
+			doc = b == 0 ? 0 : blockLastDoc[b - 1];
+		}
+		while (nextDoc() < target) {
+		}
+		return doc;
+	}
+
+	/**
+	 * Finds the first block at or after from whose last docid is at least
+	 * target. Gallops forward from the block from in doubling steps and then
+	 * binary searches the last step, so short jumps, the common case when
+	 * lists are intersected, only look at a few blocks.
+	 *
+	 * @return block number, or the number of blocks if there is none
+	 */
+	private int findBlock(int from, int target) {
+		int low = from;
+		int high = from;
+		int step = 1;
+		while (high < blockLastDoc.length && blockLastDoc[high] < target) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, blockLastDoc.length - 1);
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (blockLastDoc[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public int index() {
+		return index - 1;
+	}
+
+	public int freq() {
+		return posting.frequency;
+	}
+
+	public Posting posting() {
+		return posting;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int maxFreq() {
+		return maxFreq;
+	}
+
+	public int block(int target) {
+		int b = findBlock(0, target);
+		return b < blockLastDoc.length ? b : -1;
+	}
+
+	public int blockLastDoc(int block) {
+		return blockLastDoc[block];
+	}
+
+	public int blockMaxFreq(int block) {
+		return blockMaxFreq[block];
+	}
+}
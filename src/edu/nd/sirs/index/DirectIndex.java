@@ -1,12 +1,14 @@
 package edu.nd.sirs.index;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -19,30 +21,44 @@ import edu.nd.sirs.docs.TextDocument;
  * Direct Index singleton class handles reading and writing to the direct
  * document index on disk
  * 
+ * With segments every segment has a direct index of its own; a document is
+ * read from the segment its id falls in, and the id in its line is shifted
+ * by the number of documents of the segments before it.
+ * 
  * @author tweninge
  *
  */
 public class DirectIndex {
 	private static Logger logger = LoggerFactory.getLogger(DirectIndex.class);
 
-	private static final String DOCIDX = "./data/doc_idx.txt";
-	private static final String DOCIDXOFFSET = "./data/doc_idx_offset.txt";
-
 	private static DirectIndex me = null;
 	private List<Long> offsets;
-	private RandomAccessFile idx;
+	private RandomAccessFile[] idx;
+	private int[] docBases;
 
 	/**
 	 * Singleton constructor, use getInstance()
 	 */
 	private DirectIndex() {
-		try {
-			idx = new RandomAccessFile(DOCIDX, "r");
-			loadOffsets();
-		} catch (IOException e) {
-			e.printStackTrace();
+		List<SegmentInfo> segments = Segments.read();
+		if (segments == null) {
+			segments = new ArrayList<SegmentInfo>();
+			segments.add(new SegmentInfo(SegmentInfo.BASE, 0));
+		}
+		idx = new RandomAccessFile[segments.size()];
+		docBases = new int[segments.size()];
+		offsets = new ArrayList<Long>();
+		for (int i = 0; i < segments.size(); i++) {
+			File dir = segments.get(i).getDirectory();
+			docBases[i] = offsets.size();
+			try {
+				idx[i] = new RandomAccessFile(new File(dir, Indexer.DOCIDX),
+						"r");
+				loadOffsets(new File(dir, Indexer.DOCIDXOFFSET));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
-
 	}
 
 	/**
@@ -50,10 +66,9 @@ public class DirectIndex {
 	 * 
 	 * @throws IOException
 	 */
-	private void loadOffsets() throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(DOCIDXOFFSET));
+	private void loadOffsets(File file) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
 		String line = br.readLine(); // number of terms
-		offsets = new ArrayList<Long>();
 
 		offsets.add(0l);
 		while ((line = br.readLine()) != null) {
@@ -67,7 +82,7 @@ public class DirectIndex {
 	 * 
 	 * @return InvertedIndex object
 	 */
-	public static DirectIndex getInstance() {
+	public static synchronized DirectIndex getInstance() {
 		if (me == null) {
 			me = new DirectIndex();
 		}
@@ -75,6 +90,13 @@ public class DirectIndex {
 		return me;
 	}
 	
+	/**
+	 * Drops the singleton, see InvertedIndex.reopen()
+	 */
+	static synchronized void reopen() {
+		me = null;
+	}
+
 	/**
 	 * @return number of documents in the index
 	 */
@@ -95,8 +117,23 @@ public class DirectIndex {
 	public Document getDoc(int docid, Class<? extends Document> d) {
 		try {
 			long offset = offsets.get(docid);
-			idx.seek(offset);
-			String line = idx.readLine();
+			int segment = Arrays.binarySearch(docBases, docid);
+			if (segment < 0) {
+				segment = -segment - 2;
+			}
+			// skip empty segments
+			while (segment + 1 < docBases.length
+					&& docBases[segment + 1] <= docid) {
+				segment++;
+			}
+			String line;
+			synchronized (idx[segment]) {
+				idx[segment].seek(offset);
+				line = idx[segment].readLine();
+			}
+			if (docBases[segment] > 0) {
+				line = docid + line.substring(line.indexOf('\t'));
+			}
 			Constructor<? extends Document> c = d
 					.getDeclaredConstructor(new Class[] { Integer.class,
 							String.class });
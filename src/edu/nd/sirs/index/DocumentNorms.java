@@ -0,0 +1,183 @@
+package edu.nd.sirs.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.util.MappedFile;
+
+/**
+ * Document norms singleton class holds the number of tokens and the tf-idf
+ * vector norm of every document in every field (see DocumentNormsWriter).
+ * The table is read into primitive arrays once, so a lookup is two array
+ * accesses instead of a trip through the direct index. With segments the
+ * tables of all segments are read into the same arrays, every segment's
+ * documents after those of the segments before it.
+ *
+ * @author tweninge
+ *
+ */
+public class DocumentNorms {
+	private static Logger logger = LoggerFactory.getLogger(DocumentNorms.class);
+
+	private static DocumentNorms me = null;
+	private int numDocs;
+	private int[][] tokens;
+	private float[][] norms;
+
+	/**
+	 * Singleton constructor, use getInstance()
+	 */
+	private DocumentNorms() {
+		List<SegmentInfo> segments = Segments.read();
+		if (segments == null) {
+			segments = new ArrayList<SegmentInfo>();
+			segments.add(new SegmentInfo(SegmentInfo.BASE, 0));
+		}
+		init(segments);
+	}
+
+	/**
+	 * Reads the table of an index or segment directory
+	 *
+	 * @param dir
+	 *            index directory
+	 */
+	DocumentNorms(File dir) {
+		tokens = new int[0][];
+		norms = new float[0][];
+		try {
+			load(new File(dir, Indexer.NORMS), 0, -1);
+		} catch (IOException e) {
+			logger.error("Cannot read document norms file", e);
+		}
+	}
+
+	private void init(List<SegmentInfo> segments) {
+		tokens = new int[0][];
+		norms = new float[0][];
+		int total = 0;
+		for (SegmentInfo s : segments) {
+			total += s.getNumDocs();
+		}
+		int base = 0;
+		for (SegmentInfo s : segments) {
+			try {
+				load(new File(s.getDirectory(), Indexer.NORMS), base,
+						segments.size() == 1 ? -1 : total);
+			} catch (IOException e) {
+				logger.error("Cannot read document norms file", e);
+			}
+			base += s.getNumDocs();
+		}
+	}
+
+	/**
+	 * Read the columns of every field into memory
+	 *
+	 * @param file
+	 *            norms file
+	 * @param base
+	 *            id of the first document of the file
+	 * @param total
+	 *            number of documents of all segments, -1 if the file holds
+	 *            every document
+	 * @throws IOException
+	 */
+	private void load(File file, int base, int total) throws IOException {
+		MappedFile mf = new MappedFile(file);
+		ByteBuffer header = mf.slice(0, 12);
+		if (header.getInt() != DocumentNormsWriter.MAGIC) {
+			throw new IOException(file + " is not a document norms file");
+		}
+		int fileDocs = header.getInt();
+		int numFields = header.getInt();
+		numDocs = total < 0 ? fileDocs : total;
+		long offset = 12;
+		int columnBytes = fileDocs * 4;
+		for (int i = 0; i < numFields; i++) {
+			int fid = mf.slice(offset, 4).getInt();
+			offset += 4;
+			if (fid >= tokens.length) {
+				int[][] t = new int[fid + 1][];
+				float[][] n = new float[fid + 1][];
+				System.arraycopy(tokens, 0, t, 0, tokens.length);
+				System.arraycopy(norms, 0, n, 0, norms.length);
+				tokens = t;
+				norms = n;
+			}
+			if (tokens[fid] == null) {
+				tokens[fid] = new int[numDocs];
+				norms[fid] = new float[numDocs];
+			}
+			int n = Math.min(fileDocs, numDocs - base);
+			mf.slice(offset, n * 4).asIntBuffer().get(tokens[fid], base, n);
+			offset += columnBytes;
+			mf.slice(offset, n * 4).asFloatBuffer().get(norms[fid], base, n);
+			offset += columnBytes;
+		}
+	}
+
+	/**
+	 * Singleton instance getter.
+	 *
+	 * @return DocumentNorms object
+	 */
+	public static synchronized DocumentNorms getInstance() {
+		if (me == null) {
+			me = new DocumentNorms();
+		}
+
+		return me;
+	}
+
+	/**
+	 * Drops the singleton, see InvertedIndex.reopen()
+	 */
+	static synchronized void reopen() {
+		me = null;
+	}
+
+	/**
+	 * @return number of documents in the table
+	 */
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * @param docid
+	 *            document id
+	 * @param f
+	 *            field
+	 * @return number of tokens of the document in field f
+	 */
+	public int getNumTokens(int docid, Field f) {
+		int fid = f.field;
+		if (fid >= tokens.length || tokens[fid] == null) {
+			return 0;
+		}
+		return tokens[fid][docid];
+	}
+
+	/**
+	 * @param docid
+	 *            document id
+	 * @param f
+	 *            field
+	 * @return Euclidean norm of the tf-idf vector of the document in field f
+	 */
+	public float getNorm(int docid, Field f) {
+		int fid = f.field;
+		if (fid >= norms.length || norms[fid] == null) {
+			return 0f;
+		}
+		return norms[fid][docid];
+	}
+}
@@ -0,0 +1,175 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+
+/**
+ * Collects the number of tokens and the tf-idf vector norm of every document
+ * in every field and writes them as one column per field:
+ *
+ * <pre>
+ * MAGIC numDocs numFields { fieldId tokens[numDocs] norms[numDocs] }*
+ * </pre>
+ *
+ * Token counts are ints and norms are floats. Token counts are set by the
+ * indexer as documents are parsed; the norms are accumulated from the
+ * postings as the inverted index is written, when the document frequency of
+ * every term is known. When the index is written by several threads each
+ * one adds its postings to a partial() writer, and the partial norms are
+ * added up at the end.
+ *
+ * @author tweninge
+ *
+ */
+public class DocumentNormsWriter {
+
+	public static final int MAGIC = 0x4e524d53;
+
+	private int[][] tokens;
+	private double[][] squares;
+	private int numDocs;
+
+	/**
+	 * Constructor
+	 */
+	public DocumentNormsWriter() {
+		tokens = new int[0][];
+		squares = new double[0][];
+		numDocs = 0;
+	}
+
+	/**
+	 * Sets the number of tokens of a document in a field
+	 *
+	 * @param docId
+	 *            document id
+	 * @param f
+	 *            field
+	 * @param numTokens
+	 *            number of tokens of the document in f
+	 */
+	public void setNumTokens(int docId, Field f, int numTokens) {
+		ensureCapacity(f.field, docId);
+		tokens[f.field][docId] = numTokens;
+		numDocs = Math.max(numDocs, docId + 1);
+	}
+
+	/**
+	 * @return number of documents seen so far
+	 */
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * Adds the postings of one term in one field to the norms of their
+	 * documents. The term weight is the same tf-idf weight CosineRM scores
+	 * with.
+	 *
+	 * @param field
+	 *            field id
+	 * @param docs
+	 *            document ids
+	 * @param freqs
+	 *            term frequencies
+	 * @param count
+	 *            number of postings in docs and freqs
+	 * @param df
+	 *            document frequency of the term
+	 */
+	public void addPostings(int field, int[] docs, int[] freqs, int count,
+			int df) {
+		float idf = (float) (Math.log((float) numDocs / (float) df) / Math
+				.log(2));
+		for (int i = 0; i < count; i++) {
+			ensureCapacity(field, docs[i]);
+			float w = ((float) freqs[i]) * idf;
+			squares[field][docs[i]] += (double) w * w;
+		}
+	}
+
+	/**
+	 * Creates an empty writer that computes term weights for the same
+	 * number of documents, so postings can be added to it on another thread
+	 * and its norms added back with addNorms()
+	 *
+	 * @return writer without token counts or norms
+	 */
+	public DocumentNormsWriter partial() {
+		DocumentNormsWriter p = new DocumentNormsWriter();
+		p.numDocs = numDocs;
+		return p;
+	}
+
+	/**
+	 * Adds the norms a partial writer accumulated to these norms
+	 *
+	 * @param partial
+	 *            writer created by partial()
+	 */
+	public void addNorms(DocumentNormsWriter partial) {
+		for (int f = 0; f < partial.squares.length; f++) {
+			double[] sq = partial.squares[f];
+			if (sq == null) {
+				continue;
+			}
+			ensureCapacity(f, sq.length - 1);
+			for (int d = 0; d < sq.length; d++) {
+				squares[f][d] += sq[d];
+			}
+		}
+	}
+
+	private void ensureCapacity(int field, int docId) {
+		if (field >= tokens.length) {
+			tokens = Arrays.copyOf(tokens, field + 1);
+			squares = Arrays.copyOf(squares, field + 1);
+		}
+		if (tokens[field] == null) {
+			tokens[field] = new int[Math.max(1024, docId + 1)];
+			squares[field] = new double[tokens[field].length];
+		} else if (docId >= tokens[field].length) {
+			int size = Math.max(docId + 1, tokens[field].length * 2);
+			tokens[field] = Arrays.copyOf(tokens[field], size);
+			squares[field] = Arrays.copyOf(squares[field], size);
+		}
+	}
+
+	/**
+	 * Writes the table
+	 *
+	 * @param file
+	 *            norms file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		Field[] fields = Fields.getInstance().getFields()
+				.toArray(new Field[0]);
+		Arrays.sort(fields);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(numDocs);
+		out.writeInt(fields.length);
+		for (Field f : fields) {
+			int fid = f.field;
+			ensureCapacity(fid, numDocs - 1);
+			out.writeInt(fid);
+			for (int d = 0; d < numDocs; d++) {
+				out.writeInt(tokens[fid][d]);
+			}
+			for (int d = 0; d < numDocs; d++) {
+				out.writeFloat((float) Math.sqrt(squares[fid][d]));
+			}
+		}
+		out.close();
+	}
+}
@@ -1,5 +1,7 @@
 package edu.nd.sirs.index;
 
+import java.util.Arrays;
+
 import edu.nd.sirs.docs.Field;
 
 /**
@@ -14,6 +16,8 @@ public class DocumentTerm implements Comparable<DocumentTerm> {
 	private int doc;
 	private int frequency;
 	private Field f;
+	// fieldId << 32 | position of every occurrence
+	private long[] positions;
 
 	/**
 	 * Constructor from Indexer
@@ -48,6 +52,37 @@ public class DocumentTerm implements Comparable<DocumentTerm> {
 		frequency++;
 	}
 
+	/**
+	 * Counts another occurrence of the term and keeps its position
+	 * 
+	 * @param field
+	 *            field the term occurs in
+	 * @param position
+	 *            position of the term in the field
+	 */
+	public void addPosition(Field field, int position) {
+		if (positions == null) {
+			positions = new long[4];
+		} else if (frequency == positions.length) {
+			positions = Arrays.copyOf(positions, frequency * 2);
+		}
+		positions[frequency++] = ((long) field.field << 32) | position;
+	}
+
+	/**
+	 * @return positions added with addPosition(), grouped by field the way
+	 *         InvertedIndexWriter.addPosting() takes them, or null if there
+	 *         are none
+	 */
+	public int[] getPositions() {
+		if (positions == null) {
+			return null;
+		}
+		long[] sorted = Arrays.copyOf(positions, frequency);
+		Arrays.sort(sorted);
+		return InvertedIndexWriter.groupPositions(sorted, frequency);
+	}
+
 	public Field getField() {
 		return f;
 	}
@@ -0,0 +1,384 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds crawl batches to the index without rebuilding it. Every batch is
+ * indexed by the Indexer into a new segment of its own, which is appended
+ * to the segment list and searched from the next InvertedIndex.reopen() on.
+ * The index built by a full run of the Indexer, if there is one, becomes
+ * the first segment.
+ *
+ * After a segment is added, segments picked by the merge policy are merged
+ * on a background thread. The merged segment replaces them in the segment
+ * list and their directories are deleted; readers opened before keep
+ * reading the files they mapped.
+ *
+ * Documents are deleted by marking them in the live documents of their
+ * segment (see LiveDocs); queries skip them at once and merges purge them.
+ * A document is updated by indexing its new version into a new segment,
+ * under a new docid, and deleting the old version.
+ *
+ * Anchor text of a batch only reaches documents of the same batch, since
+ * the other segments are immutable.
+ *
+ * @author tweninge
+ *
+ */
+public class IncrementalIndexer {
+	private static Logger logger = LoggerFactory
+			.getLogger(IncrementalIndexer.class);
+
+	private static IncrementalIndexer me = null;
+
+	private TieredMergePolicy policy;
+	private ExecutorService merger;
+
+	/**
+	 * Singleton constructor, use getInstance()
+	 */
+	private IncrementalIndexer() {
+		policy = new TieredMergePolicy();
+		merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "segment-merger");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Singleton instance getter.
+	 *
+	 * @return IncrementalIndexer object
+	 */
+	public static synchronized IncrementalIndexer getInstance() {
+		if (me == null) {
+			me = new IncrementalIndexer();
+		}
+		return me;
+	}
+
+	/**
+	 * Sets the policy that picks the segments to merge
+	 *
+	 * @param policy
+	 *            merge policy
+	 */
+	public void setMergePolicy(TieredMergePolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Indexes a crawl batch into a new segment, makes it searchable and
+	 * starts any merges it makes necessary
+	 *
+	 * @param crawlFile
+	 *            zip file of crawled pages
+	 * @param indexer
+	 *            indexer to build the segment with
+	 * @return the new segment
+	 * @throws IOException
+	 */
+	public SegmentInfo addSegment(File crawlFile, Indexer indexer)
+			throws IOException {
+		return addSegment(crawlFile, indexer, false);
+	}
+
+	/**
+	 * Indexes a crawl batch of new versions of documents into a new segment
+	 * and deletes the older versions, which are documents of the same name
+	 * in the segments before it. Documents not indexed before are added.
+	 *
+	 * @param crawlFile
+	 *            zip file of crawled pages
+	 * @param indexer
+	 *            indexer to build the segment with
+	 * @return the new segment
+	 * @throws IOException
+	 */
+	public SegmentInfo updateSegment(File crawlFile, Indexer indexer)
+			throws IOException {
+		return addSegment(crawlFile, indexer, true);
+	}
+
+	private SegmentInfo addSegment(File crawlFile, Indexer indexer,
+			boolean update) throws IOException {
+		String name = Segments.newSegmentName();
+		File dir = new File(Segments.SEGMENTSDIR, name);
+		logger.info("Indexing " + crawlFile + " into segment " + name);
+		indexer.setDataDirectory(dir);
+		indexer.indexDirectory(crawlFile);
+		Segments.delete(new File(dir, Indexer.RUNSPREFIX).getParentFile());
+		Segments.delete(new File(dir, Indexer.BLOCKSPREFIX).getParentFile());
+
+		SegmentInfo segment = new SegmentInfo(name,
+				Segments.countDocuments(dir));
+		int replaced = 0;
+		synchronized (Segments.class) {
+			List<SegmentInfo> segments = Segments.create();
+			List<SegmentInfo> older = new ArrayList<SegmentInfo>(segments);
+			segments.add(segment);
+			Segments.write(segments);
+			if (update) {
+				replaced = delete(older, readNames(dir));
+			}
+		}
+		InvertedIndex.reopen();
+		logger.info("Segment " + name + " added, "
+				+ segment.getNumDocs() + " documents, " + replaced
+				+ " replaced");
+		maybeMerge();
+		return segment;
+	}
+
+	/**
+	 * Deletes documents from every segment. They stop matching queries from
+	 * the next InvertedIndex.reopen() on, which this calls, and are purged
+	 * when their segments are merged.
+	 *
+	 * @param names
+	 *            names of the documents, as in the direct index
+	 * @return number of documents deleted
+	 * @throws IOException
+	 */
+	public int deleteDocuments(Collection<String> names) throws IOException {
+		Set<String> delete = new HashSet<String>();
+		for (String n : names) {
+			delete.add(normalize(n));
+		}
+		int deleted;
+		synchronized (Segments.class) {
+			deleted = delete(Segments.create(), delete);
+		}
+		InvertedIndex.reopen();
+		logger.info(deleted + " documents deleted");
+		maybeMerge();
+		return deleted;
+	}
+
+	/**
+	 * Marks the documents of the segments that have one of the names as
+	 * deleted. The caller holds the lock on Segments.
+	 *
+	 * @return number of documents deleted
+	 */
+	private static int delete(List<SegmentInfo> segments, Set<String> names)
+			throws IOException {
+		int deleted = 0;
+		for (SegmentInfo s : segments) {
+			File dir = s.getDirectory();
+			long[] live = LiveDocs.read(dir);
+			if (live == null) {
+				live = LiveDocs.allLive(s.getNumDocs());
+			}
+			int before = deleted;
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(new File(dir, Indexer.DOCIDX)),
+					"UTF-8"));
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] l = line.split("\t", 3);
+				int doc = Integer.parseInt(l[0]);
+				if (l.length > 1 && doc < s.getNumDocs()
+						&& names.contains(normalize(l[1]))
+						&& LiveDocs.get(live, doc)) {
+					LiveDocs.clear(live, doc);
+					deleted++;
+				}
+			}
+			br.close();
+			if (deleted > before) {
+				LiveDocs.write(dir, live, s.getNumDocs());
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return names of the documents of an index or segment directory
+	 */
+	private static Set<String> readNames(File dir) throws IOException {
+		Set<String> names = new HashSet<String>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(dir, Indexer.DOCIDX)), "UTF-8"));
+		String line;
+		while ((line = br.readLine()) != null) {
+			String[] l = line.split("\t", 3);
+			if (l.length > 1) {
+				names.add(normalize(l[1]));
+			}
+		}
+		br.close();
+		return names;
+	}
+
+	/**
+	 * Drops the trailing slash of a document name, as the Indexer does
+	 */
+	private static String normalize(String name) {
+		if (name.endsWith("%2F")) {
+			return name.substring(0, name.lastIndexOf("%2F"));
+		}
+		return name;
+	}
+
+	/**
+	 * Merges segments on the background thread for as long as the merge
+	 * policy finds segments to merge
+	 */
+	public void maybeMerge() {
+		merger.submit(new Runnable() {
+			public void run() {
+				while (mergeOnce()) {
+				}
+			}
+		});
+	}
+
+	/**
+	 * Performs the next merge the policy asks for
+	 *
+	 * @return true if segments were merged
+	 */
+	private boolean mergeOnce() {
+		List<SegmentInfo> current = Segments.read();
+		int[] range = policy.findMerge(current);
+		if (range == null) {
+			return false;
+		}
+		List<SegmentInfo> toMerge = new ArrayList<SegmentInfo>(
+				current.subList(range[0], range[1]));
+		List<long[]> live = new ArrayList<long[]>();
+		synchronized (Segments.class) {
+			for (SegmentInfo s : toMerge) {
+				live.add(LiveDocs.read(s.getDirectory()));
+			}
+		}
+		String name = Segments.newSegmentName();
+		SegmentInfo merged;
+		try {
+			merged = SegmentMerger.merge(toMerge, live, name);
+		} catch (IOException e) {
+			logger.error("Cannot merge segments " + toMerge, e);
+			Segments.delete(new File(Segments.SEGMENTSDIR, name));
+			return false;
+		}
+
+		try {
+			synchronized (Segments.class) {
+				// segments are only appended while merging, so the merged
+				// ones are still where they were
+				List<SegmentInfo> segments = Segments.read();
+				for (int i = 0; i < toMerge.size(); i++) {
+					segments.remove(range[0]);
+				}
+				segments.add(range[0], merged);
+				carryDeletions(toMerge, live, merged);
+				Segments.write(segments);
+			}
+		} catch (IOException e) {
+			logger.error("Cannot write segment list", e);
+			return false;
+		}
+		InvertedIndex.reopen();
+		for (SegmentInfo s : toMerge) {
+			Segments.delete(s.getDirectory());
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the documents deleted while segments were being merged as
+	 * deleted in the merged segment. The caller holds the lock on Segments.
+	 *
+	 * @param live
+	 *            live documents of the merged segments when the merge began
+	 */
+	private static void carryDeletions(List<SegmentInfo> toMerge,
+			List<long[]> live, SegmentInfo merged) throws IOException {
+		long[] mergedLive = null;
+		int next = 0;
+		for (int i = 0; i < toMerge.size(); i++) {
+			long[] before = live.get(i);
+			long[] now = LiveDocs.read(toMerge.get(i).getDirectory());
+			for (int d = 0; d < toMerge.get(i).getNumDocs(); d++) {
+				if (before != null && !LiveDocs.get(before, d)) {
+					continue;
+				}
+				if (now != null && !LiveDocs.get(now, d)) {
+					if (mergedLive == null) {
+						mergedLive = LiveDocs.allLive(merged.getNumDocs());
+					}
+					LiveDocs.clear(mergedLive, next);
+				}
+				next++;
+			}
+		}
+		if (mergedLive != null) {
+			LiveDocs.write(merged.getDirectory(), mergedLive,
+					merged.getNumDocs());
+		}
+	}
+
+	/**
+	 * Waits until the merges started so far are done
+	 */
+	public void waitForMerges() {
+		try {
+			merger.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error("Cannot merge segments", e.getCause());
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1
+				|| (args[0].equals("-update") || args[0].equals("-delete"))
+				&& args.length < 2) {
+			logger.error("Usage: IncrementalIndexer <crawlBatch.zip>\n"
+					+ "       IncrementalIndexer -update <crawlBatch.zip>\n"
+					+ "       IncrementalIndexer -delete <documentName>...");
+			return;
+		}
+		IncrementalIndexer idxr = IncrementalIndexer.getInstance();
+		try {
+			if (args[0].equals("-update")) {
+				idxr.updateSegment(new File(args[1]), new Indexer());
+			} else if (args[0].equals("-delete")) {
+				List<String> names = new ArrayList<String>();
+				for (int i = 1; i < args.length; i++) {
+					names.add(args[i]);
+				}
+				idxr.deleteDocuments(names);
+			} else {
+				idxr.addSegment(new File(args[0]), new Indexer());
+			}
+		} catch (IOException e) {
+			logger.error("Cannot change the index", e);
+		}
+		idxr.waitForMerges();
+	}
+}
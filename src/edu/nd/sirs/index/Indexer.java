@@ -1,18 +1,22 @@
 package edu.nd.sirs.index;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -20,6 +24,16 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -31,7 +45,7 @@ import edu.nd.sirs.docs.Document;
 import edu.nd.sirs.docs.Field;
 import edu.nd.sirs.docs.Fields;
 import edu.nd.sirs.docs.HTMLDocument;
-import edu.nd.sirs.docs.Token;
+import edu.nd.sirs.docs.TokenBuffer;
 
 /**
  * Creates direct and inverted indexes for the documents stored in the folder.
@@ -43,34 +57,178 @@ public class Indexer {
 
 	private static Logger logger = LoggerFactory.getLogger(Indexer.class);
 
-	private static final String DOCIDX = "./data/doc_idx.txt";
-	private static final String DOCIDXOFFSET = "./data/doc_idx_offset.txt";
-	private static final String LEXICON = "./data/lex.txt";
-	private static final String RUNSPREFIX = "./data/runs/run";
-	private static final String IDX = "./data/idx.txt";
-	private static final String IDXTERMOFFSET = "./data/idx_term_offset.txt";
-	private static final String ANCIDX = "./data/anc_idx.txt";
+	// index files, within the data directory
+	static final String DOCIDX = "doc_idx.txt";
+	static final String DOCIDXOFFSET = "doc_idx_offset.txt";
+	static final String LEXICON = "lex.bin";
+	static final String LEXICONBLOCKS = "lex_blocks.bin";
+	static final String RUNSPREFIX = "runs/run";
+	static final String BLOCKSPREFIX = "blocks/block";
+	static final String IDX = "idx.bin";
+	static final String IDXTERMOFFSET = "idx_term_offset.bin";
+	static final String ANCIDX = "anc_idx.txt";
+	static final String NORMS = "norms.bin";
+	static final String POS = "pos.bin";
+	static final String POSTERMOFFSET = "pos_term_offset.bin";
 
-	private static final Integer RUN_SIZE = 100000;
-	private static final Boolean COMPRESS = false;
+	private static final long RUN_BUFFER_BYTES = 32L << 20;
+	private static final int RUNS_IN_FLIGHT = 1;
+	private static final int MIN_MERGE_BUFFER_RECORDS = 256;
+	private static final int PARSER_THREADS = Runtime.getRuntime()
+			.availableProcessors();
+	private static final int QUEUED_DOCS_PER_THREAD = 4;
+
+	private static final ParsedDocument END_OF_CRAWL = new ParsedDocument(
+			null, null);
 
-	private int wordId;
 	private int docId;
-	private List<DocumentTerm> run;
+	private RunBuffer run;
+	private long runBufferBytes;
+	private int runsInFlight;
+	private BlockingQueue<RunBuffer> freeRuns;
+	private ExecutorService runWriter;
+	private List<Future<?>> pendingRuns;
+	private AtomicLong runWriteNanos;
+	private long runBlockedNanos;
+	private int mergeThreads;
+
+	/**
+	 * number of postings of every term, to balance the merge partitions
+	 */
+	private int[] termPostings;
 	private int runNumber;
+	private DocumentNormsWriter norms;
+
+	/**
+	 * single-pass in-memory indexing: blocks keyed by term string instead of
+	 * runs of termIds, ids are assigned while the blocks are merged
+	 */
+	private boolean spimi;
+	private SpimiBlock block;
+	private int blockNumber;
+
+	/**
+	 * store the positions of every posting
+	 */
+	private boolean positions;
 
-	private TreeMap<String, Integer> voc;
+	private TermDictionary voc;
 	private TreeMap<String, Integer> docs;
 
+	private int parserThreads;
+	private String dataDir;
+
 	/**
 	 * Indexer Constructor
 	 */
 	public Indexer() {
-		wordId = 0;
+		this(PARSER_THREADS);
+	}
+
+	/**
+	 * Indexer Constructor
+	 * 
+	 * @param parserThreads
+	 *            number of threads used to parse documents
+	 */
+	public Indexer(int parserThreads) {
+		this.parserThreads = Math.max(1, parserThreads);
 		docId = 0;
 		runNumber = 0;
-		voc = new TreeMap<String, Integer>();
+		runBufferBytes = RUN_BUFFER_BYTES;
+		runsInFlight = RUNS_IN_FLIGHT;
+		mergeThreads = this.parserThreads;
+		termPostings = new int[1024];
+		norms = new DocumentNormsWriter();
+		voc = new TermDictionary();
 		docs = new TreeMap<String, Integer>();
+		dataDir = Segments.DATA;
+	}
+
+	/**
+	 * Sets the directory the index is written to, the data directory by
+	 * default
+	 * 
+	 * @param dir
+	 *            index directory, must exist
+	 */
+	public void setDataDirectory(File dir) {
+		dataDir = dir.getPath() + File.separator;
+	}
+
+	/**
+	 * @param name
+	 *            index file name
+	 * @return path of the file within the index directory
+	 */
+	private String path(String name) {
+		return dataDir + name;
+	}
+
+	/**
+	 * Sets the memory the in-memory run may take before it is sorted and
+	 * written to disk, RUN_BUFFER_BYTES by default
+	 * 
+	 * @param bytes
+	 *            run budget in bytes
+	 */
+	public void setRunBufferSize(long bytes) {
+		runBufferBytes = bytes;
+	}
+
+	/**
+	 * Sets how many full runs may wait to be sorted and written while the
+	 * next one is filled, RUNS_IN_FLIGHT by default. Indexing blocks when
+	 * that many are in flight. The run budget is split evenly between them
+	 * and the run being filled.
+	 * 
+	 * @param runs
+	 *            runs in flight, at least 1
+	 */
+	public void setRunsInFlight(int runs) {
+		runsInFlight = Math.max(1, runs);
+	}
+
+	/**
+	 * Switches to single-pass in-memory indexing (SPIMI). Every block of
+	 * documents builds its own term dictionary and postings lists within the
+	 * run budget and is written to disk sorted by term. Term ids are only
+	 * assigned when the blocks are merged, so the global vocabulary is never
+	 * held in memory.
+	 * 
+	 * @param spimi
+	 *            true for SPIMI blocks, false for sorted runs of termIds
+	 */
+	public void setSpimi(boolean spimi) {
+		this.spimi = spimi;
+	}
+
+	/**
+	 * Stores the positions of the terms, which phrase and proximity queries
+	 * need, in a positions file next to the inverted index. Positions count
+	 * the tokens of every field of a document from 0; anchor texts pointing
+	 * at a document are numbered one after the other, a position apart.
+	 * 
+	 * The postings are the same as without positions: a term that occurs in
+	 * several fields of a document still gets a single posting, in the first
+	 * of them, and its positions are kept with the field they occur in.
+	 * 
+	 * @param positions
+	 *            true to store positions
+	 */
+	public void setPositions(boolean positions) {
+		this.positions = positions;
+	}
+
+	/**
+	 * Sets the number of threads, and index segments, the runs are merged
+	 * with. Defaults to the number of parser threads.
+	 * 
+	 * @param threads
+	 *            merge threads
+	 */
+	public void setMergeThreads(int threads) {
+		mergeThreads = Math.max(1, threads);
 	}
 
 	/**
@@ -79,71 +237,116 @@ public class Indexer {
 	 * @param filesToIndex
 	 *            files to index
 	 */
-	private void indexDirectory(File crawlFile) {
+	void indexDirectory(File crawlFile) {
 		docId = 0;
+		// positions of an earlier build
+		new File(path(POS)).delete();
+		new File(path(POSTERMOFFSET)).delete();
 
 		PrintWriter docWriter;
 		PrintWriter ancWriter;
 		PrintWriter docWriterOffset;
 		try {
-			docWriter = new PrintWriter(DOCIDX, "UTF-8");
-			docWriterOffset = new PrintWriter(DOCIDXOFFSET, "UTF-8");
+			docWriter = new PrintWriter(path(DOCIDX), "UTF-8");
+			docWriterOffset = new PrintWriter(path(DOCIDXOFFSET), "UTF-8");
 
-			ancWriter = new PrintWriter(ANCIDX, "UTF-8");
+			ancWriter = new PrintWriter(path(ANCIDX), "UTF-8");
 
 			// start the first run
-			logger.info("Starting the first indexer run.");
-			run = new ArrayList<DocumentTerm>();
+			if (spimi) {
+				logger.info("Starting the first indexer block.");
+				blockNumber = 0;
+				block = new SpimiBlock(runBufferBytes, positions);
+			} else {
+				logger.info("Starting the first indexer run.");
+				startRunWriter();
+			}
 			int written = 0;
-			
+
 			ZipFile zip = new ZipFile(crawlFile);
-			Enumeration<? extends ZipEntry> enties = zip.entries();
 
-			while (enties.hasMoreElements()) {
-				ZipEntry file = enties.nextElement();
-			
-				logger.info("Indexing document " + file.getName());				
-				Document doc = new HTMLDocument(docId, file);
-				List<Token> tokens = doc.parse(docId, zip.getInputStream(file));
-				
-				List<String> toRemove = new ArrayList<String>();
+			// fields must exist before the parser threads start
+			HTMLDocument.registerFields();
+			ExecutorService parsers = Executors
+					.newFixedThreadPool(parserThreads);
+			BlockingQueue<Future<ParsedDocument>> parsed = new ArrayBlockingQueue<Future<ParsedDocument>>(
+					parserThreads * QUEUED_DOCS_PER_THREAD);
+			Thread reader = new Thread(new ZipReader(zip, parsers, parsed),
+					"indexer-zip-reader");
+			reader.start();
 
-				StringBuffer sb = new StringBuffer();
-				sb.append(doc.getDocId());
-				for (Entry<String, Object> e : doc.getResources().entrySet()) {
-					if (e.getKey().startsWith("l")) {
-						sb.append("\t"
-								+ URLEncoder.encode(e.getKey().substring(1),
-										"UTF-8"));
-						for (Token t : (List<Token>) e.getValue()) {
-							if (t.getTokenString().trim().isEmpty()) {
-								continue;
+			try {
+				while (true) {
+					ParsedDocument pd;
+					try {
+						pd = parsed.take().get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while indexing", e);
+					} catch (ExecutionException e) {
+						throw new IOException("Cannot parse document",
+								e.getCause());
+					}
+					if (pd == END_OF_CRAWL) {
+						break;
+					}
+					Document doc = pd.doc;
+					TokenBuffer tokens = pd.tokens;
+					if (doc.getDocId() != docId) {
+						logger.error("Document ids out of order, expected "
+								+ docId + " but got " + doc.getDocId());
+					}
+
+					logger.info("Indexing document " + doc.getName());
+
+					List<String> toRemove = new ArrayList<String>();
+
+					StringBuffer sb = new StringBuffer();
+					sb.append(doc.getDocId());
+					for (Entry<String, Object> e : doc.getResources()
+							.entrySet()) {
+						if (e.getKey().startsWith("l")) {
+							sb.append("\t"
+									+ URLEncoder.encode(
+											e.getKey().substring(1), "UTF-8"));
+							TokenBuffer anchor = (TokenBuffer) e.getValue();
+							for (int t = 0; t < anchor.size(); t++) {
+								sb.append(':')
+										.append(anchor.chars(), anchor.start(t),
+												anchor.length(t)).append(',')
+										.append(anchor.field(t).field);
 							}
-							sb.append(":" + t.getTokenString() + ","
-									+ t.getField().field);
+							toRemove.add(e.getKey());
 						}
-						toRemove.add(e.getKey());
 					}
-				}
-				ancWriter.print(sb.toString() + "\n");
+					ancWriter.print(sb.toString() + "\n");
 
-				for (String r : toRemove) {
-					doc.getResources().remove(r);
-				}
+					for (String r : toRemove) {
+						doc.getResources().remove(r);
+					}
 
-				index(tokens);
-				String s = doc.getName();
-				if (s.endsWith("%2F")) {
-					s = s.substring(0, s.lastIndexOf("%2F"));
+					index(tokens);
+					String s = doc.getName();
+					if (s.endsWith("%2F")) {
+						s = s.substring(0, s.lastIndexOf("%2F"));
+					}
+					docs.put(s, docId);
+					docWriterOffset.write(written + "\n");
+					for (Entry<Field, Integer> e : doc.getNumTokens().entrySet()) {
+						norms.setNumTokens(docId, e.getKey(), e.getValue());
+					}
+
+					// Writing to Direct Index
+					String idxable = doc.writeToIndex();
+					docWriter.write(idxable);
+					written += StringUtils.getBytesUtf8(idxable).length;
+					docId++;
 				}
-				docs.put(s, docId);
-				docWriterOffset.write(written + "\n");
-
-				// Writing to Direct Index
-				String idxable = doc.writeToIndex();
-				docWriter.write(idxable);				
-				written += StringUtils.getBytesUtf8(idxable).length;
-				docId++;
+			} finally {
+				// nothing is left to parse on success; on failure this stops
+				// the reader and the parsers
+				parsers.shutdownNow();
+				reader.interrupt();
 			}
 			docWriter.close();
 			ancWriter.close();
@@ -153,7 +356,12 @@ public class Indexer {
 			indexIncomingAnchorText();
 
 			// If there is something yet in the last run, sort it and store
-			if (run.size() > 0) {
+			if (spimi) {
+				if (block.size() > 0) {
+					storeBlock();
+				}
+				block = null;
+			} else if (run.size() > 0) {
 				logger.info("Writing file run to disk.");
 				storeRun();
 			}
@@ -167,6 +375,14 @@ public class Indexer {
 			e1.printStackTrace();
 		}
 
+		if (spimi) {
+			// the lexicon is written while merging
+			mergeBlocks();
+			logger.info("Indexing complete.");
+			return;
+		}
+
+		waitForRuns();
 		try {
 			mergeRuns();
 		} catch (FileNotFoundException e) {
@@ -183,9 +399,12 @@ public class Indexer {
 	}
 
 	private void indexIncomingAnchorText() throws FileNotFoundException {
-		BufferedReader br = new BufferedReader(new FileReader(new File(ANCIDX)));
+		BufferedReader br = new BufferedReader(new FileReader(new File(
+				path(ANCIDX))));
 		String line = "";
 		Map<Integer, Integer> docIDlength = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> nextLinkPosition = new HashMap<Integer, Integer>();
+		TokenBuffer toks = new TokenBuffer();
 		try {
 			while ((line = br.readLine()) != null) {
 				String[] a = line.split("\t");
@@ -196,17 +415,21 @@ public class Indexer {
 					if (url.endsWith("%2F")) {
 						url = url.substring(0, url.lastIndexOf("%2F"));
 					}
-					List<Token> toks = new ArrayList<Token>();
+					toks.clear();
 					for (int j = 1; j < b.length; j++) {
 						String[] c = b[j].split(",");
 						String s = c[0];
 						if (s.isEmpty())
 							continue;
 						Field field = new Field(Integer.parseInt(c[1]));
-						toks.add(new Token(s, field));
+						toks.add(s, field);
 					}
 					if (docs.containsKey(url)) {
-						index(toks, docs.get(url));
+						Integer first = nextLinkPosition.get(docs.get(url));
+						first = first == null ? 0 : first;
+						index(toks, docs.get(url), first);
+						nextLinkPosition.put(docs.get(url),
+								first + toks.size() + 1);
 						if (!docIDlength.containsKey(docs.get(url))) {
 							docIDlength.put(docs.get(url), toks.size());
 						} else {
@@ -236,13 +459,14 @@ public class Indexer {
 
 		PrintWriter docWriter = null;
 		try {
-			docWriter = new PrintWriter(DOCIDX + "n", "UTF-8");
+			docWriter = new PrintWriter(path(DOCIDX) + "n", "UTF-8");
 		} catch (UnsupportedEncodingException e1) {
 			e1.printStackTrace();
 		}
 		PrintWriter docWriterOffset = null;
 		try {
-			docWriterOffset = new PrintWriter(DOCIDXOFFSET + "n", "UTF-8");
+			docWriterOffset = new PrintWriter(path(DOCIDXOFFSET) + "n",
+					"UTF-8");
 		} catch (UnsupportedEncodingException e1) {
 			e1.printStackTrace();
 		}
@@ -250,7 +474,7 @@ public class Indexer {
 		String line = "";
 		try {
 			BufferedReader br = new BufferedReader(new InputStreamReader(
-					new FileInputStream(DOCIDX), "UTF-8"));
+					new FileInputStream(path(DOCIDX)), "UTF-8"));
 
 			while ((line = br.readLine()) != null) {
 				String[] l = line.split("\t");
@@ -259,6 +483,9 @@ public class Indexer {
 				if (docIDlength.containsKey(dID)) {
 					len = len + "," + Fields.getInstance().getFieldId("link")
 							+ ":" + docIDlength.get(dID);
+					norms.setNumTokens(dID,
+							Fields.getInstance().getFieldId("link"),
+							docIDlength.get(dID));
 				}
 				StringBuffer sb = new StringBuffer();
 				sb.append(l[0]);
@@ -282,147 +509,292 @@ public class Indexer {
 		docWriter.close();
 		docWriterOffset.close();
 
-		File f = new File(DOCIDX);
+		File f = new File(path(DOCIDX));
 		f.delete();
-		new File(DOCIDXOFFSET).delete();
-		new File(DOCIDX + "n").renameTo(new File(DOCIDX));
-		new File(DOCIDXOFFSET + "n").renameTo(new File(DOCIDXOFFSET));
+		new File(path(DOCIDXOFFSET)).delete();
+		new File(path(DOCIDX) + "n").renameTo(new File(path(DOCIDX)));
+		new File(path(DOCIDXOFFSET) + "n").renameTo(new File(
+				path(DOCIDXOFFSET)));
 	}
 
 	private void outputLexicon() throws FileNotFoundException {
 		logger.info("Writing lexicon to disk");
-		PrintWriter lexFile = new PrintWriter(LEXICON);
-		for (Entry<String, Integer> x : voc.entrySet()) {
-			lexFile.println(x.getKey() + "\t" + x.getValue());
+		try {
+			LexiconWriter lexFile = new LexiconWriter(new File(path(LEXICON)),
+					new File(path(LEXICONBLOCKS)));
+			for (String term : voc.sortedTerms()) {
+				lexFile.add(term, voc.get(term));
+			}
+			lexFile.close();
+		} catch (IOException e) {
+			logger.error("Cannot write lexicon file.", e);
 		}
-		lexFile.close();
 		logger.info("Lexicon writing finished");
 	}
 
 	/**
-	 * Merge the runs together to make a single inverted index
+	 * Merge the runs together to make a single inverted index. The termId
+	 * space is cut into ranges holding about the same number of postings.
+	 * Every range is merged from all runs into its own index segment on its
+	 * own thread, and the segments are concatenated at the end.
 	 * 
 	 * @throws FileNotFoundException
 	 */
 	private void mergeRuns() throws FileNotFoundException {
+		int partitions = Math.max(1, Math.min(mergeThreads, voc.size()));
+		int[] bounds = partitionTerms(partitions);
 
-		// Create the heap
-		PriorityQueue<MergeDocumentTerms> mergeHeap = new PriorityQueue<MergeDocumentTerms>();
-		List<RunFile> rfv = new ArrayList<RunFile>();
-		String filename;
-		DocumentTerm ocurr;
-		MergeDocumentTerms ro;
-		for (int i = 0; i < runNumber; ++i) {
-			filename = RUNSPREFIX + i;
-			rfv.add(new RunFile(new File(filename), RUN_SIZE / runNumber));
-			// get the first element and put it in the heap
-			ocurr = rfv.get(i).getRecord();
-			if (ocurr == null) {
-				logger.error("Error: Record was not found.");
-				return;
+		// where every range starts in every run
+		final File[] runs = new File[runNumber];
+		final File[] runPositions = new File[runNumber];
+		final long[][] starts = new long[partitions + 1][runNumber];
+		int recordSize = positions ? RunFile.POSITIONS_RECORD_SIZE
+				: RunFile.RECORD_SIZE;
+		try {
+			for (int r = 0; r < runNumber; r++) {
+				runs[r] = new File(path(RUNSPREFIX) + r);
+				runPositions[r] = positions ? positionsFile(runs[r]) : null;
+				for (int p = 0; p < partitions; p++) {
+					starts[p][r] = RunFile.findTerm(runs[r], bounds[p],
+							recordSize);
+				}
+				starts[partitions][r] = runs[r].length();
 			}
-			ro = new MergeDocumentTerms(ocurr, i);
-			mergeHeap.add(ro);
+		} catch (IOException e) {
+			logger.error("Cannot read run files within "
+					+ path(RUNSPREFIX), e);
+			return;
 		}
 
-		PrintWriter outFile = null;
-		try {
-			outFile = new PrintWriter(IDX, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		// encode the fields in the invertedIndex
-		StringBuffer sb = new StringBuffer();
-		for (Entry<String, Field> f : Fields.getInstance().getEntries()) {
-			sb.append(f.getKey() + "," + f.getValue().field + ";");
-		}
-		outFile.print(sb.toString() + "\n");
+		// the read buffers of the runs share half the run budget
+		final int bufferRecords = (int) Math.max(MIN_MERGE_BUFFER_RECORDS,
+				runBufferBytes / 2 / recordSize
+						/ Math.max(1L, (long) runNumber * partitions));
+		final Field[] fieldsById = fieldsById();
 
-		long currentTerm = 0l;		
-		long currentTermOffset = StringUtils.getBytesUtf8(sb.toString()).length+ 1;
+		logger.info("Merging " + runNumber + " run files in " + partitions
+				+ " partitions...");
+		ExecutorService mergers = Executors.newFixedThreadPool(partitions,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "indexer-merge");
+					}
+				});
+		List<Future<InvertedIndexWriter>> merging = new ArrayList<Future<InvertedIndexWriter>>();
+		final List<File> segmentFiles = new ArrayList<File>();
+		final List<DocumentNormsWriter> partialNorms = new ArrayList<DocumentNormsWriter>();
+		for (int p = 0; p < partitions; p++) {
+			final int part = p;
+			segmentFiles.add(new File(path(IDX) + ".seg" + p));
+			partialNorms.add(norms.partial());
+			merging.add(mergers.submit(new Callable<InvertedIndexWriter>() {
+				public InvertedIndexWriter call() throws IOException {
+					return mergePartition(runs, runPositions, starts[part],
+							starts[part + 1], bufferRecords,
+							segmentFiles.get(part), partialNorms.get(part),
+							fieldsById);
+				}
+			}));
+		}
 
-		PrintWriter tosFile = null;
+		List<InvertedIndexWriter> segments = new ArrayList<InvertedIndexWriter>();
 		try {
-			tosFile = new PrintWriter(IDXTERMOFFSET, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
+			for (Future<InvertedIndexWriter> f : merging) {
+				segments.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while merging run files", e);
+			return;
+		} catch (ExecutionException e) {
+			logger.error("Cannot write inverted index segment.", e.getCause());
+			return;
+		} finally {
+			mergers.shutdownNow();
 		}
-		String wid = wordId + "\n";
-		tosFile.print(wid);
-
-		MergeDocumentTerms first;
-		logger.info("Merging run files...");
 
-		int df = 0;
-		TreeMap<Field, StringBuffer> posting = new TreeMap<Field, StringBuffer>();
-		for (Field f : Fields.getInstance().getFields()) {
-			posting.put(f, new StringBuffer());
+		try {
+			InvertedIndexWriter.concatenate(new File(path(IDX)), new File(
+					path(IDXTERMOFFSET)), segments, segmentFiles, new File(
+					path(POS)), new File(path(POSTERMOFFSET)));
+		} catch (IOException e) {
+			logger.error("Cannot write inverted index file.", e);
 		}
+		for (DocumentNormsWriter partial : partialNorms) {
+			norms.addNorms(partial);
+		}
+		try {
+			norms.write(new File(path(NORMS)));
+		} catch (IOException e) {
+			logger.error("Cannot write document norms file.", e);
+		}
+		logger.info("Index merging finished");
+	}
 
-		while (!mergeHeap.isEmpty()) {
-			first = mergeHeap.poll();
-
-			// Get a new posting from the same run and
-			// put it in the heap, if possible
-			ocurr = rfv.get(first.run).getRecord();
-			if (ocurr != null) {
-				ro = new MergeDocumentTerms(ocurr, first.run);
-				mergeHeap.add(ro);
+	/**
+	 * Merges one termId range of every run into an index segment, picking
+	 * the next posting with a loser tree
+	 * 
+	 * @param runs
+	 *            run files
+	 * @param runPositions
+	 *            positions files of the runs, null for runs without
+	 *            positions
+	 * @param from
+	 *            byte offset where the range starts in every run
+	 * @param to
+	 *            byte offset where the range ends in every run
+	 * @param bufferRecords
+	 *            read buffer size per run, in records
+	 * @param segment
+	 *            segment file to write
+	 * @param partialNorms
+	 *            norms the postings are added to
+	 * @param fieldsById
+	 *            fields indexed by their id
+	 * @return the closed segment writer
+	 * @throws IOException
+	 */
+	private static InvertedIndexWriter mergePartition(File[] runs,
+			File[] runPositions, long[] from, long[] to, int bufferRecords,
+			File segment, DocumentNormsWriter partialNorms,
+			Field[] fieldsById) throws IOException {
+		RunFile[] readers = new RunFile[runs.length];
+		long[] keys = new long[runs.length];
+		boolean positions = runs.length > 0 && runPositions[0] != null;
+		int recordSize = positions ? RunFile.POSITIONS_RECORD_SIZE
+				: RunFile.RECORD_SIZE;
+		try {
+			for (int r = 0; r < runs.length; r++) {
+				long records = (to[r] - from[r]) / recordSize;
+				readers[r] = new RunFile(runs[r], (int) Math.min(
+						bufferRecords, records), from[r], to[r],
+						runPositions[r]);
+				keys[r] = readers[r].next() ? key(readers[r])
+						: LoserTree.EXHAUSTED;
 			}
-			// Saving to the file
-			if (first.getTermId() > currentTerm) {
-				tosFile.print(currentTermOffset + "\n");
 
-				sb = new StringBuffer();
-				for (Field f : Fields.getInstance().getFields()) {
-					sb.append("#" + f.field + posting.get(f));
-				}
-
-				String p = currentTerm + ":" + df + "\t" + sb.toString() + "\n";
-				outFile.print(p);				
-				currentTermOffset += StringUtils.getBytesUtf8(p).length;
-				currentTerm = first.getTermId();
-				for (Field f : Fields.getInstance().getFields()) {
-					posting.put(f, new StringBuffer());
+			LoserTree tree = new LoserTree(keys);
+			InvertedIndexWriter out = InvertedIndexWriter.segment(segment,
+					partialNorms);
+			if (positions) {
+				out.storePositions(positionsFile(segment), null);
+			}
+			while (tree.winnerKey() != LoserTree.EXHAUSTED) {
+				RunFile rf = readers[tree.winner()];
+				int fid = rf.getField();
+				Field f = fid < fieldsById.length && fieldsById[fid] != null ? fieldsById[fid]
+						: new Field(fid);
+				out.addPosting(rf.getTermId(), f, rf.getDocId(),
+						rf.getFrequency(), rf.getPositions(),
+						rf.getPositionsLength());
+				tree.replace(rf.next() ? key(rf) : LoserTree.EXHAUSTED);
+			}
+			out.close();
+			return out;
+		} finally {
+			for (RunFile rf : readers) {
+				if (rf != null) {
+					rf.close();
 				}
-				df = 0;
-			} else if (first.getTermId() < currentTerm) {
-				logger.error("Term ids messed up, something went wrong with the sorting");
 			}
-			if (COMPRESS) {
-				// not yet
-			} else {
-				df++;
-				StringBuffer zsb = posting.get(first.getField());
-				zsb.append("(" + first.getDocId() + "," + first.getFrequency()
-						+ ");");
+		}
+	}
+
+	/**
+	 * @return positions file of a run or index segment file
+	 */
+	private static File positionsFile(File file) {
+		return new File(file.getPath() + ".pos");
+	}
+
+	/**
+	 * @return merge order key of the current record of a run
+	 */
+	private static long key(RunFile rf) {
+		return ((long) rf.getTermId() << 32) | (rf.getDocId() & 0xffffffffL);
+	}
+
+	/**
+	 * Cuts the termId space into ranges with about the same number of
+	 * postings
+	 * 
+	 * @param partitions
+	 *            number of ranges
+	 * @return the first termId of every range, followed by the number of
+	 *         terms
+	 */
+	private int[] partitionTerms(int partitions) {
+		int numTerms = voc.size();
+		long total = 0;
+		for (int t = 0; t < numTerms; t++) {
+			total += termPostings[t];
+		}
+		int[] bounds = new int[partitions + 1];
+		int p = 1;
+		long seen = 0;
+		for (int t = 0; t < numTerms && p < partitions; t++) {
+			seen += termPostings[t];
+			if (seen * partitions >= total * p) {
+				bounds[p++] = t + 1;
 			}
 		}
-		outFile.close();
-		tosFile.close();
-		logger.info("Index merging finished");
+		while (p <= partitions) {
+			bounds[p++] = numTerms;
+		}
+		return bounds;
+	}
+
+	private static Field[] fieldsById() {
+		int max = 0;
+		for (Field f : Fields.getInstance().getFields()) {
+			max = Math.max(max, f.field);
+		}
+		Field[] byId = new Field[max + 1];
+		for (Field f : Fields.getInstance().getFields()) {
+			byId[f.field] = f;
+		}
+		return byId;
 	}
 
 	/**
 	 * Creates a local vocabulary and indexes terms one-by-one
 	 * 
 	 * @param tokens
-	 *            list of tokens for indexing
+	 *            tokens for indexing
 	 */
-	private void index(List<Token> tokens, int docId) {
+	private void index(TokenBuffer tokens, int docId) {
+		index(tokens, docId, 0);
+	}
+
+	/**
+	 * Creates a local vocabulary and indexes terms one-by-one
+	 * 
+	 * @param tokens
+	 *            tokens for indexing
+	 * @param docId
+	 *            document id
+	 * @param firstPosition
+	 *            position of the first token of every field
+	 */
+	private void index(TokenBuffer tokens, int docId, int firstPosition) {
+		if (spimi) {
+			addToBlock(tokens, docId, firstPosition);
+			return;
+		}
+		if (positions) {
+			indexPositions(tokens, docId, firstPosition);
+			return;
+		}
 		HashMap<Integer, DocumentTerm> lVoc = new HashMap<Integer, DocumentTerm>();
-		for (Token token : tokens) {
-			index(token, docId, lVoc);
+		char[] chars = tokens.chars();
+		for (int t = 0; t < tokens.size(); t++) {
+			index(chars, tokens.start(t), tokens.length(t), tokens.field(t),
+					docId, lVoc);
 		}
 
 		for (DocumentTerm p : lVoc.values()) {
-			if (run.size() < RUN_SIZE) {
-				run.add(p);
-			} else {
-				logger.info("Current indexing run full, storing to disk.");
-				storeRun();
-				run.add(p);
-			}
+			addToRun(p);
 		}
 	}
 
@@ -430,33 +802,278 @@ public class Indexer {
 	 * Creates a local vocabulary and indexes terms one-by-one
 	 * 
 	 * @param tokens
-	 *            list of tokens for indexing
+	 *            tokens for indexing
+	 */
+	private void index(TokenBuffer tokens) {
+		index(tokens, docId, 0);
+	}
+
+	/**
+	 * Indexes the terms of a document with their positions, one posting per
+	 * term in the field of its first occurrence, as index(char[], int, int,
+	 * Field, int, HashMap) does
+	 * 
+	 * @param tokens
+	 *            tokens for indexing
+	 * @param docId
+	 *            document id
+	 * @param firstPosition
+	 *            position of the first token of every field
 	 */
-	private void index(List<Token> tokens) {
+	private void indexPositions(TokenBuffer tokens, int docId,
+			int firstPosition) {
 		HashMap<Integer, DocumentTerm> lVoc = new HashMap<Integer, DocumentTerm>();
-		for (Token token : tokens) {
-			index(token, docId, lVoc);
+		int[] next = new int[4];
+		char[] chars = tokens.chars();
+		for (int t = 0; t < tokens.size(); t++) {
+			Field field = tokens.field(t);
+			int fid = field.field;
+			if (fid >= next.length) {
+				next = Arrays.copyOf(next, fid + 1);
+			}
+			int termId = voc.add(chars, tokens.start(t), tokens.length(t));
+			DocumentTerm p = lVoc.get(termId);
+			if (p == null) {
+				p = new DocumentTerm(termId, docId, 0, field);
+				lVoc.put(termId, p);
+			}
+			p.addPosition(field, firstPosition + next[fid]++);
 		}
 
 		for (DocumentTerm p : lVoc.values()) {
-			if (run.size() < RUN_SIZE) {
-				run.add(p);
-			} else {
-				logger.info("Current indexing run full, storing to disk.");
-				storeRun();
-				run.add(p);
+			addToRun(p);
+		}
+	}
+
+	/**
+	 * Adds the tokens of a document to the current block, storing the block
+	 * first if it is full
+	 * 
+	 * @param tokens
+	 *            tokens of the document
+	 * @param docId
+	 *            document id
+	 * @param firstPosition
+	 *            position of the first token of every field
+	 */
+	private void addToBlock(TokenBuffer tokens, int docId, int firstPosition) {
+		if (block.isFull()) {
+			logger.info("Current indexing block full, storing to disk.");
+			storeBlock();
+			block = new SpimiBlock(runBufferBytes, positions);
+		}
+		block.startDocument();
+		char[] chars = tokens.chars();
+		if (!positions) {
+			for (int t = 0; t < tokens.size(); t++) {
+				block.add(chars, tokens.start(t), tokens.length(t), docId,
+						tokens.field(t).field);
+			}
+			return;
+		}
+		int[] next = new int[4];
+		for (int t = 0; t < tokens.size(); t++) {
+			int fid = tokens.field(t).field;
+			if (fid >= next.length) {
+				next = Arrays.copyOf(next, fid + 1);
+			}
+			block.add(chars, tokens.start(t), tokens.length(t), docId, fid,
+					firstPosition + next[fid]++);
+		}
+	}
+
+	/**
+	 * Writes the current block to disk, sorted by term
+	 */
+	private void storeBlock() {
+		File outName = new File(path(BLOCKSPREFIX) + blockNumber++);
+		try {
+			if (!outName.getParentFile().exists()) {
+				logger.info("Creating block directory");
+				outName.getParentFile().mkdir();
 			}
+			logger.info("Writing block " + outName.getName() + ", "
+					+ block.size() + " terms, " + block.getNumPostings()
+					+ " postings");
+			block.write(outName);
+		} catch (IOException e) {
+			logger.error("Cannot write block file within "
+					+ path(BLOCKSPREFIX), e);
 		}
 	}
 
 	/**
-	 * Store the current run on disk.
+	 * Merges the blocks by term string into the inverted index and the
+	 * lexicon. Terms get their ids in String order as they come out of the
+	 * merge; the postings of a term are merged by docId from the blocks
+	 * holding it with a loser tree. Only the current term of every block is
+	 * in memory.
+	 */
+	private void mergeBlocks() {
+		logger.info("Merging " + blockNumber + " block files...");
+		final SpimiBlockReader[] readers = new SpimiBlockReader[blockNumber];
+		int bufferBytes = (int) Math.max(MIN_MERGE_BUFFER_RECORDS
+				* RunFile.RECORD_SIZE,
+				Math.min(1 << 20, runBufferBytes / 2 / Math.max(1, blockNumber)));
+		Field[] fieldsById = fieldsById();
+		try {
+			// blocks by current term, then by block number
+			PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+					Math.max(1, blockNumber), new Comparator<Integer>() {
+						public int compare(Integer a, Integer b) {
+							int c = readers[a].getTerm().compareTo(
+									readers[b].getTerm());
+							return c != 0 ? c : a.compareTo(b);
+						}
+					});
+			for (int b = 0; b < blockNumber; b++) {
+				readers[b] = new SpimiBlockReader(new File(
+						path(BLOCKSPREFIX) + b), bufferBytes, positions);
+				if (readers[b].nextTerm()) {
+					queue.add(b);
+				}
+			}
+
+			InvertedIndexWriter idx = new InvertedIndexWriter(new File(
+					path(IDX)), new File(path(IDXTERMOFFSET)), norms);
+			if (positions) {
+				idx.storePositions(new File(path(POS)), new File(
+						path(POSTERMOFFSET)));
+			}
+			LexiconWriter lexFile = new LexiconWriter(new File(path(LEXICON)),
+					new File(path(LEXICONBLOCKS)));
+			int[] holding = new int[blockNumber];
+			int termId = 0;
+			while (!queue.isEmpty()) {
+				String term = readers[queue.peek()].getTerm();
+				int n = 0;
+				while (!queue.isEmpty()
+						&& readers[queue.peek()].getTerm().equals(term)) {
+					holding[n++] = queue.poll();
+				}
+				lexFile.add(term, termId);
+
+				long[] keys = new long[n];
+				for (int i = 0; i < n; i++) {
+					SpimiBlockReader r = readers[holding[i]];
+					keys[i] = r.nextPosting() ? r.getDocId()
+							: LoserTree.EXHAUSTED;
+				}
+				LoserTree tree = new LoserTree(keys);
+				while (tree.winnerKey() != LoserTree.EXHAUSTED) {
+					SpimiBlockReader r = readers[holding[tree.winner()]];
+					int fid = r.getField();
+					Field f = fid < fieldsById.length
+							&& fieldsById[fid] != null ? fieldsById[fid]
+							: new Field(fid);
+					idx.addPosting(termId, f, r.getDocId(), r.getFrequency(),
+							r.getPositions(), r.getPositionsLength());
+					tree.replace(r.nextPosting() ? r.getDocId()
+							: LoserTree.EXHAUSTED);
+				}
+				termId++;
+
+				for (int i = 0; i < n; i++) {
+					if (readers[holding[i]].nextTerm()) {
+						queue.add(holding[i]);
+					}
+				}
+			}
+			idx.close();
+			lexFile.close();
+			logger.info("Merged " + termId + " terms");
+			norms.write(new File(path(NORMS)));
+		} catch (IOException e) {
+			logger.error("Cannot merge block files within "
+					+ path(BLOCKSPREFIX), e);
+		} finally {
+			for (SpimiBlockReader r : readers) {
+				if (r != null) {
+					try {
+						r.close();
+					} catch (IOException e) {
+						logger.error("Cannot close block file", e);
+					}
+				}
+			}
+		}
+		logger.info("Index merging finished");
+	}
+
+	/**
+	 * Adds a posting to the current run, storing the run first if it is full
+	 * 
+	 * @param p
+	 *            posting
+	 */
+	private void addToRun(DocumentTerm p) {
+		if (run.isFull()) {
+			logger.info("Current indexing run full, storing to disk.");
+			storeRun();
+			nextRun();
+		}
+		int termId = (int) p.getTermId();
+		if (positions) {
+			run.add(termId, p.getDocId(), p.getField().field,
+					p.getFrequency(), p.getPositions());
+		} else {
+			run.add(termId, p.getDocId(), p.getField().field,
+					p.getFrequency());
+		}
+		if (termId >= termPostings.length) {
+			termPostings = Arrays.copyOf(termPostings,
+					Math.max(termId + 1, termPostings.length * 2));
+		}
+		termPostings[termId]++;
+	}
+
+	/**
+	 * Hands the current run to the run writer thread, which sorts it and
+	 * stores it on disk. The caller must give the indexer a new run with
+	 * nextRun() before adding postings again.
 	 */
 	private void storeRun() {
+		final RunBuffer full = run;
+		final File outName = new File(path(RUNSPREFIX) + getRunNumber());
+		run = null;
+		pendingRuns.add(runWriter.submit(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				writeRun(full, outName);
+				runWriteNanos.addAndGet(System.nanoTime() - start);
+				full.clear();
+				freeRuns.add(full);
+			}
+		}));
+	}
+
+	/**
+	 * Takes a free run buffer, waiting for the run writer to finish one if
+	 * they are all in flight
+	 */
+	private void nextRun() {
+		long start = System.nanoTime();
+		try {
+			run = freeRuns.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for a run buffer");
+			run = new RunBuffer(runBufferBytes / (runsInFlight + 1), positions);
+		}
+		runBlockedNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Sorts a run and stores it on disk, on the run writer thread
+	 * 
+	 * @param full
+	 *            run to store
+	 * @param outName
+	 *            run file
+	 */
+	private void writeRun(RunBuffer full, File outName) {
 		// creating the output file
 		try {
-			long runId = getRunNumber();
-			File outName = new File(RUNSPREFIX + runId);
 			if (!outName.getParentFile().exists()) {
 				logger.info("Creating run directory");
 				outName.getParentFile().mkdir();
@@ -465,21 +1082,85 @@ public class Indexer {
 				logger.warn("Run directory already exists - deleting");
 				outName.delete();
 			}
-			PrintWriter outFile = new PrintWriter(outName);
+			RunFileWriter outFile = new RunFileWriter(outName,
+					positions ? positionsFile(outName) : null);
 
-			logger.info("Sorting the current run");
-			Collections.sort(run);
+			logger.info("Sorting run " + outName.getName());
+			full.sort();
 
 			// Storing it
-			for (DocumentTerm p : run) {
-				outFile.println(p.getDocId() + "\t" + p.getTermId() + "\t"
-						+ p.getField().field + "\t" + p.getFrequency());
-			}
+			outFile.write(full);
 			outFile.close();
 		} catch (FileNotFoundException e) {
-			logger.error("Cannot find run file within " + RUNSPREFIX, e);
+			logger.error("Cannot find run file within " + path(RUNSPREFIX),
+					e);
+		} catch (IOException e) {
+			logger.error("Cannot write run file within "
+					+ path(RUNSPREFIX), e);
+		}
+	}
+
+	/**
+	 * Sets up the run buffers and the run writer thread. The run budget is
+	 * shared by the run being filled and the runs in flight.
+	 */
+	private void startRunWriter() {
+		int buffers = runsInFlight + 1;
+		freeRuns = new ArrayBlockingQueue<RunBuffer>(buffers);
+		for (int i = 1; i < buffers; i++) {
+			freeRuns.add(new RunBuffer(runBufferBytes / buffers, positions));
+		}
+		run = new RunBuffer(runBufferBytes / buffers, positions);
+		pendingRuns = new ArrayList<Future<?>>();
+		runWriteNanos = new AtomicLong();
+		runBlockedNanos = 0;
+		runWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "indexer-run-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Waits until every run is on disk and stops the run writer thread
+	 */
+	private void waitForRuns() {
+		if (runWriter == null) {
+			return;
 		}
-		run.clear();
+		try {
+			for (Future<?> f : pendingRuns) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted while waiting for runs to be written", e);
+		} catch (ExecutionException e) {
+			logger.error("Cannot write run", e.getCause());
+		}
+		runWriter.shutdown();
+		runWriter = null;
+		logger.info(runNumber + " runs written in "
+				+ getRunWriteMillis() + " ms on the run writer thread, "
+				+ "indexing waited " + getRunBlockedMillis()
+				+ " ms for run buffers");
+	}
+
+	/**
+	 * @return time the run writer thread spent sorting and writing runs
+	 */
+	public long getRunWriteMillis() {
+		return runWriteNanos == null ? 0 : runWriteNanos.get() / 1000000;
+	}
+
+	/**
+	 * @return time indexing was blocked because every run buffer was still
+	 *         being written
+	 */
+	public long getRunBlockedMillis() {
+		return runBlockedNanos / 1000000;
 	}
 
 	/**
@@ -492,35 +1173,29 @@ public class Indexer {
 		return runNumber - 1;
 	}
 
-	private int getNewId() {
-		++wordId;
-		return wordId - 1;
-	}
-
 	/**
 	 * Creates a DocumentTerm pair from token and docid and adds it to the local
 	 * vocabulary
 	 * 
-	 * @param token
-	 *            Token to index
+	 * @param chars
+	 *            characters of the token
+	 * @param offset
+	 *            first character of the token
+	 * @param length
+	 *            number of characters
+	 * @param field
+	 *            field of the token
 	 * @param docId
 	 *            Document Id containing Token
 	 * @param lVoc
 	 *            local dictionary of Tokens->DocumentTerm
 	 */
-	private void index(Token token, int docId,
-			HashMap<Integer, DocumentTerm> lVoc) {
-		int termId;
-		if (!voc.containsKey(token.getTokenString())) {
-			termId = getNewId();
-			voc.put(token.getTokenString(), termId);
-		} else {
-			termId = voc.get(token.getTokenString());
-		}
+	private void index(char[] chars, int offset, int length, Field field,
+			int docId, HashMap<Integer, DocumentTerm> lVoc) {
+		int termId = voc.add(chars, offset, length);
 
 		if (!lVoc.containsKey(termId)) {
-			DocumentTerm p = new DocumentTerm(termId, docId, 1,
-					token.getField());
+			DocumentTerm p = new DocumentTerm(termId, docId, 1, field);
 			lVoc.put(termId, p);
 		} else {
 			DocumentTerm p = lVoc.get(termId);
@@ -530,6 +1205,101 @@ public class Indexer {
 		}
 	}
 
+	/**
+	 * A parsed document together with the tokens to index.
+	 */
+	private static class ParsedDocument {
+		final Document doc;
+		final TokenBuffer tokens;
+
+		ParsedDocument(Document doc, TokenBuffer tokens) {
+			this.doc = doc;
+			this.tokens = tokens;
+		}
+	}
+
+	/**
+	 * Parses a single crawled page on a parser thread.
+	 */
+	private static class ParseTask implements Callable<ParsedDocument> {
+		private final int docId;
+		private final ZipEntry file;
+		private final byte[] content;
+
+		ParseTask(int docId, ZipEntry file, byte[] content) {
+			this.docId = docId;
+			this.file = file;
+			this.content = content;
+		}
+
+		public ParsedDocument call() {
+			Document doc = new HTMLDocument(docId, file);
+			TokenBuffer tokens = doc.parse(docId, new ByteArrayInputStream(
+					content));
+			return new ParsedDocument(doc, tokens);
+		}
+	}
+
+	/**
+	 * Reads the zip entries in order, assigns their document ids and hands
+	 * them to the parser pool. The futures are queued in docId order, so the
+	 * indexing thread consumes documents exactly as a single threaded build
+	 * would. The bounded queue keeps the reader from running too far ahead of
+	 * the indexer.
+	 */
+	private static class ZipReader implements Runnable {
+		private final ZipFile zip;
+		private final ExecutorService parsers;
+		private final BlockingQueue<Future<ParsedDocument>> parsed;
+
+		ZipReader(ZipFile zip, ExecutorService parsers,
+				BlockingQueue<Future<ParsedDocument>> parsed) {
+			this.zip = zip;
+			this.parsers = parsers;
+			this.parsed = parsed;
+		}
+
+		public void run() {
+			int nextDocId = 0;
+			try {
+				Enumeration<? extends ZipEntry> enties = zip.entries();
+				while (enties.hasMoreElements()) {
+					ZipEntry file = enties.nextElement();
+					byte[] content = readFully(zip.getInputStream(file));
+					parsed.put(parsers.submit(new ParseTask(nextDocId++, file,
+							content)));
+				}
+			} catch (IOException e) {
+				logger.error("Cannot read crawl file", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				FutureTask<ParsedDocument> end = new FutureTask<ParsedDocument>(
+						new Runnable() {
+							public void run() {
+							}
+						}, END_OF_CRAWL);
+				end.run();
+				try {
+					parsed.put(end);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private static byte[] readFully(InputStream in) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			in.close();
+			return out.toByteArray();
+		}
+	}
+
 	/**
 	 * Get files, and only files, from within the specified directory.
 	 * 
@@ -558,10 +1328,24 @@ public class Indexer {
 
 	public static void main(String[] args) {
 		File crawl = null;
-		if (args.length == 1) {
+		int threads = PARSER_THREADS;
+		long runBytes = RUN_BUFFER_BYTES;
+		boolean spimi = false;
+		boolean positions = false;
+		if (args.length >= 1 && args.length <= 5) {
 			logger.info("Using user provided parameters");
 			try {
 				crawl = new File(args[0]);
+				if (args.length >= 2) {
+					threads = Integer.parseInt(args[1]);
+				}
+				if (args.length >= 3) {
+					runBytes = Long.parseLong(args[2]) << 20;
+				}
+				for (int i = 3; i < args.length; i++) {
+					spimi |= args[i].equalsIgnoreCase("spimi");
+					positions |= args[i].equalsIgnoreCase("positions");
+				}
 			} catch (Exception e) {
 				printUsage(e);
 			}
@@ -570,13 +1354,20 @@ public class Indexer {
 			crawl = new File(CRL);
 		}
 
-		Indexer idxr = new Indexer();		
+		Indexer idxr = new Indexer(threads);
+		idxr.setRunBufferSize(runBytes);
+		idxr.setSpimi(spimi);
+		idxr.setPositions(positions);
 		idxr.indexDirectory(crawl);
+		// a full build replaces any segments added since the last one
+		Segments.clear();
+		InvertedIndex.reopen();
 	}
 
 	private static void printUsage(Exception e) {
 		logger.error("Error parsing user provided parameters: "
-				+ "Indexer <crawlerDataFolder>", e);
+				+ "Indexer <crawlerDataFolder> [parserThreads] [runBufferMB] [spimi] [positions]",
+				e);
 	}
 
 }
@@ -1,70 +1,170 @@
 package edu.nd.sirs.index;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.util.MappedFile;
 
 /**
  * Inverted Index singleton class handles reading and writing to the inverted
  * index on disk
  * 
+ * The index file is memory mapped read-only and postings are read with
+ * positional access only, so getPostings() needs no locking and can be called
+ * from any number of threads. Decoded lists are kept in a PostingCache of
+ * POSTING_CACHE_BYTES, so the lists of popular terms are not decoded again
+ * for every query.
+ * 
+ * With segments (see Segments) the singleton holds a reader per segment.
+ * Terms are then looked up by their String with getPostings(String), in the
+ * lexicon of every segment, and the postings of all segments are joined
+ * into one list numbered in segment order, which reads the list of every
+ * segment through its own posting cache. The caches split the budget
+ * between the segments. Term ids are only meaningful within a segment, so
+ * getPostings(int) and getPositions(int) refuse to answer for a segmented
+ * index.
+ * 
+ * If the index was built with positions, getPositions() reads them from the
+ * positions file, which is mapped as well; only phrase and proximity
+ * queries ever touch it.
+ * 
  * @author tweninge
  *
  */
 public class InvertedIndex {
 	private static Logger logger = LoggerFactory.getLogger(InvertedIndex.class);
 
-	private static final String IDX = "./data/idx.txt";
-	private static final String IDXTERMOFFSET = "./data/idx_term_offset.txt";
+	private static final long POSTING_CACHE_BYTES = 64L << 20;
 
 	private static InvertedIndex me = null;
+	private static int generation = 0;
 	private long[] offsets;
-	private RandomAccessFile idx;
+	private MappedFile idx;
+	private volatile PostingCache cache;
+	private Lexicon lexicon;
+
+	// positions file, null for an index without positions
+	private MappedFile pos;
+	private long[] posOffsets;
+
+	// readers of the segments, null for a single index
+	private InvertedIndex[] segments;
+	private int[] docBases;
 
 	/**
 	 * Singleton constructor, use getInstance()
 	 */
 	private InvertedIndex() {
+		logger.info("Creating InvertedIndex singleton object.");
+		List<SegmentInfo> infos = Segments.read();
+		if (infos == null) {
+			open(new File(Segments.DATA), POSTING_CACHE_BYTES, true);
+			lexicon = Lexicon.getInstance();
+			return;
+		}
+
+		segments = new InvertedIndex[infos.size()];
+		docBases = new int[infos.size()];
+		int base = 0;
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new InvertedIndex(infos.get(i).getDirectory(),
+					POSTING_CACHE_BYTES / segments.length, i == 0);
+			docBases[i] = base;
+			base += infos.get(i).getNumDocs();
+		}
+		offsets = new long[1];
+		logger.info("Opened " + segments.length + " segments, " + base
+				+ " documents");
+	}
+
+	/**
+	 * Opens the index of an index or segment directory
+	 * 
+	 * @param dir
+	 *            index directory
+	 * @param cacheBytes
+	 *            posting cache size, 0 for no cache
+	 * @param fields
+	 *            true to load the fields of the index
+	 */
+	InvertedIndex(File dir, long cacheBytes, boolean fields) {
+		open(dir, cacheBytes, fields);
+		lexicon = new Lexicon(dir);
+	}
+
+	private void open(File dir, long cacheBytes, boolean fields) {
 		try {
-			logger.info("Creating InvertedIndex singleton object.");
-			idx = new RandomAccessFile(IDX, "r");
-			loadOffsets();
-			
-			loadFields();
+			File file = new File(dir, Indexer.IDX);
+			idx = new MappedFile(file);
+			offsets = loadOffsets(new File(dir, Indexer.IDXTERMOFFSET),
+					idx.length());
+			cache = cacheBytes > 0 ? new PostingCache(cacheBytes,
+					offsets.length) : null;
+
+			File positions = new File(dir, Indexer.POS);
+			if (positions.exists()) {
+				pos = new MappedFile(positions);
+				posOffsets = loadOffsets(new File(dir, Indexer.POSTERMOFFSET),
+						pos.length());
+			}
+
+			if (fields) {
+				loadFields(file);
+			}
 		} catch (IOException e) {
+			offsets = new long[1];
 			e.printStackTrace();
 		}
-
 	}
 
-	private void loadFields() throws IOException {
-		idx.seek(0);
-		String fieldString = idx.readLine();
-		Fields.loadFromInvertedIndex(fieldString);
+	private void loadFields(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != InvertedIndexWriter.MAGIC) {
+				throw new IOException(file + " is not a binary inverted index");
+			}
+			String fieldString = in.readUTF();
+			Fields.loadFromInvertedIndex(fieldString);
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
 	 * Load the offsets into memory
 	 * 
+	 * @param file
+	 *            term offset file
+	 * @param length
+	 *            length of the file the offsets point into
+	 * @return offset of every term, followed by the length
 	 * @throws IOException
 	 */
-	private void loadOffsets() throws IOException {
+	private static long[] loadOffsets(File file, long length)
+			throws IOException {
 		logger.info("loading term offsets into memory.");
-		BufferedReader br = new BufferedReader(new FileReader(IDXTERMOFFSET));
-		String line = br.readLine(); // number of terms
-		int terms = Integer.parseInt(line);
-		offsets = new long[terms];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		int terms = in.readInt(); // number of terms
+		long[] offsets = new long[terms + 1];
 
-		for (int term = 0; (line = br.readLine()) != null; term++) {
-			offsets[term] = Long.parseLong(line);
+		for (int term = 0; term < terms; term++) {
+			offsets[term] = in.readLong();
 		}
-		br.close();
+		// the last entry runs to the end of the file
+		offsets[terms] = length;
+		in.close();
+		return offsets;
 	}
 
 	/**
@@ -72,7 +172,7 @@ public class InvertedIndex {
 	 * 
 	 * @return InvertedIndex object
 	 */
-	public static InvertedIndex getInstance() {
+	public static synchronized InvertedIndex getInstance() {
 		if (me == null) {
 			me = new InvertedIndex();
 		}
@@ -81,29 +181,185 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Uses the offset data to do disk seek and retrieve posting from disk
+	 * Drops the open index, lexicon, document norms, direct index and live
+	 * documents so that the next getInstance() calls read the files the
+	 * indexer rewrote.
+	 * Instances already handed out keep reading the old files.
+	 */
+	public static synchronized void reopen() {
+		me = null;
+		generation++;
+		Lexicon.reopen();
+		DocumentNorms.reopen();
+		DirectIndex.reopen();
+		LiveDocs.reopen();
+		logger.info("Index reopened, generation " + generation);
+	}
+
+	/**
+	 * @return number of times the index was reopened, so anything derived
+	 *         from an older generation can be discarded
+	 */
+	public static synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Looks a term up in the lexicon of every segment and joins its postings
+	 * 
+	 * @param term
+	 *            term
+	 * @return postings of the term, null if no segment holds it
+	 */
+	public PostingList getPostings(String term) {
+		if (segments == null) {
+			int termid = lexicon.getTermId(term);
+			return termid < 0 ? null : getPostings(termid);
+		}
+		List<PostingList> lists = new ArrayList<PostingList>();
+		List<Integer> bases = new ArrayList<Integer>();
+		for (int i = 0; i < segments.length; i++) {
+			PostingList p = segments[i].getPostings(term);
+			if (p != null) {
+				lists.add(p);
+				bases.add(docBases[i]);
+			}
+		}
+		if (lists.isEmpty()) {
+			return null;
+		}
+		if (lists.size() == 1 && bases.get(0) == 0) {
+			return lists.get(0);
+		}
+		return PostingList.join(lists, bases);
+	}
+
+	/**
+	 * Uses the offset data to read the postings straight from the mapped
+	 * index file
 	 * 
 	 * @param termid
-	 * @return
+	 *            term id
+	 * @return postings of the term
+	 * @throws IllegalStateException
+	 *             if the index has segments, whose term ids differ; use
+	 *             getPostings(String)
 	 */
-	public PostingList getPostings(int termid) {		
-		long offset = offsets[termid]; 
-		try {
-			idx.seek(offset);
-			long x = System.currentTimeMillis();
-			String line = idx.readLine();
-			if (line == null || line.isEmpty())
-				logger.error("Something wrong reading posting");
-			PostingList p = new PostingList(line);
-			System.out.println(System.currentTimeMillis() - x);
-			if (termid != p.getTermId())
-				logger.error("Cannot read termid in postings list");
-			return p;
+	public PostingList getPostings(int termid) {
+		if (segments != null) {
+			throw new IllegalStateException("Term id " + termid
+					+ " is ambiguous in an index with " + segments.length
+					+ " segments, look the term up by String");
+		}
+		PostingCache c = cache;
+		if (c != null) {
+			PostingList p = c.get(termid);
+			if (p != null) {
+				return p;
+			}
+		}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+		long offset = offsets[termid];
+		PostingList p = new PostingList(idx.slice(offset,
+				(int) (offsets[termid + 1] - offset)));
+		if (termid != p.getTermId())
+			logger.error("Cannot read termid in postings list");
+		if (c != null && c.fits(p.decodedBytes())) {
+			p = p.decode();
+			c.put(termid, p);
+		}
+		return p;
+	}
+
+	/**
+	 * @return true if the index, and every segment of it, stores positions
+	 */
+	public boolean hasPositions() {
+		if (segments == null) {
+			return pos != null;
+		}
+		for (InvertedIndex s : segments) {
+			if (!s.hasPositions()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Looks a term up in the lexicon of every segment and joins its
+	 * positions, in the same order as getPostings(String) joins the postings
+	 * 
+	 * @param term
+	 *            term
+	 * @return positions of the term, null if no segment holds it or the
+	 *         index stores no positions
+	 */
+	public PositionList getPositions(String term) {
+		if (segments == null) {
+			int termid = lexicon.getTermId(term);
+			return termid < 0 ? null : getPositions(termid);
+		}
+		List<PositionList> lists = new ArrayList<PositionList>();
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].lexicon.getTermId(term) >= 0) {
+				PositionList p = segments[i].getPositions(term);
+				if (p == null) {
+					return null;
+				}
+				lists.add(p);
+			}
 		}
-		return null;
+		return lists.isEmpty() ? null : PositionList.join(lists);
+	}
+
+	/**
+	 * Reads the positions of a term straight from the mapped positions file
+	 * 
+	 * @param termid
+	 *            term id
+	 * @return positions of the term, null if the index stores no positions
+	 * @throws IllegalStateException
+	 *             if the index has segments, whose term ids differ; use
+	 *             getPositions(String)
+	 */
+	public PositionList getPositions(int termid) {
+		if (segments != null) {
+			throw new IllegalStateException("Term id " + termid
+					+ " is ambiguous in an index with " + segments.length
+					+ " segments, look the term up by String");
+		}
+		if (pos == null) {
+			return null;
+		}
+		long offset = posOffsets[termid];
+		return new PositionList(pos.slice(offset,
+				(int) (posOffsets[termid + 1] - offset)));
+	}
+
+	/**
+	 * Replaces the posting cache
+	 * 
+	 * @param maxBytes
+	 *            memory the cache may take, 0 to stop caching
+	 */
+	public void setPostingCacheSize(long maxBytes) {
+		if (segments != null) {
+			for (InvertedIndex s : segments) {
+				s.setPostingCacheSize(maxBytes / segments.length);
+			}
+			return;
+		}
+		cache = maxBytes > 0 ? new PostingCache(maxBytes, offsets.length)
+				: null;
+	}
+
+	/**
+	 * @return the posting cache, for its statistics, or null. With segments
+	 *         every segment has its own cache and this is null.
+	 */
+	public PostingCache getPostingCache() {
+		return cache;
 	}
 
 	/**
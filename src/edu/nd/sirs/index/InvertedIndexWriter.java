@@ -0,0 +1,709 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+
+/**
+ * Writes the binary inverted index. Postings must be added in termId then
+ * docId order, which is the order they come out of the run merge.
+ *
+ * The index file starts with a magic number and the field table (the same
+ * "name,id;" string the text index used as its first line), followed by one
+ * entry per term:
+ *
+ * <pre>
+ * termId df numFields { fieldId count byteLength skips postings }*
+ * skips:    { lastDocGap blockByteLength blockMaxFrequency }* one per block
+ * postings: { docGap frequency }*
+ * </pre>
+ *
+ * Every number is variable-byte coded and docids are stored as the gap to the
+ * previous docid of the same field. The postings of a field are cut into
+ * blocks of BLOCK_SIZE; the skip table in front of them holds the last docid
+ * (as a gap to the last docid of the previous block), the length in bytes
+ * and the highest frequency of every block, so readers can jump over blocks
+ * without decoding them and bound the score of any document in a block.
+ * Postings of the same document and field are merged into one. The term
+ * offset file holds the number of terms followed by the byte offset of every
+ * term entry.
+ *
+ * An index can also be written in segments that each hold a range of terms,
+ * in parallel, and are then joined by concatenate().
+ *
+ * With storePositions() the positions of every posting are written to a
+ * positions file of their own, so postings are read just as fast when the
+ * positions are not needed. A posting counts the occurrences of its term in
+ * all fields of the document, so its positions are grouped by the field
+ * they occur in, which need not be the field of the posting. The term
+ * entries of the positions file hold the positions of the postings of the
+ * term in the same order as the index entry, with a skip table holding the
+ * byte length of every block of BLOCK_SIZE postings:
+ *
+ * <pre>
+ * termId numFields { fieldId count byteLength skips positions }*
+ * skips:     { blockByteLength }* one per block
+ * positions: { numGroups { fieldId numPositions { positionGap }* }* }* one
+ *            per posting
+ * </pre>
+ *
+ * Positions are stored as the gap to the previous position of the group,
+ * and the positions file has its own term offset file.
+ *
+ * @author tweninge
+ *
+ */
+public class InvertedIndexWriter {
+	private static Logger logger = LoggerFactory
+			.getLogger(InvertedIndexWriter.class);
+
+	public static final int MAGIC = 0x53495253;
+	public static final int BLOCK_SIZE = 128;
+
+	private DataOutputStream out;
+	private File offsetsFile;
+	private long written;
+	private long[] offsets;
+	private int numTerms;
+
+	private Field[] fields;
+	private int[][] docs;
+	private int[][] freqs;
+	private int[] count;
+	private ByteArrayOutputStream skips;
+	private ByteArrayOutputStream postings;
+	private ByteArrayOutputStream entry;
+
+	private int currentTerm;
+	private int df;
+	private long textBytes;
+	private DocumentNormsWriter norms;
+
+	// positions, null unless storePositions() was called
+	private DataOutputStream posOut;
+	private File posFile;
+	private File posOffsetsFile;
+	private long posWritten;
+	private long[] posOffsets;
+	private int[][] posStart;
+	private int[][] pos;
+	private int[] posSize;
+	private ByteArrayOutputStream posSkips;
+	private ByteArrayOutputStream positions;
+	private ByteArrayOutputStream posEntry;
+
+	/**
+	 * Constructor, writes the index header
+	 *
+	 * @param idx
+	 *            inverted index file
+	 * @param termOffsets
+	 *            term offset file
+	 * @throws IOException
+	 */
+	public InvertedIndexWriter(File idx, File termOffsets) throws IOException {
+		this(idx, termOffsets, null);
+	}
+
+	/**
+	 * Constructor, writes the index header
+	 *
+	 * @param idx
+	 *            inverted index file
+	 * @param termOffsets
+	 *            term offset file
+	 * @param norms
+	 *            document norms to add the postings of every term to, or null
+	 * @throws IOException
+	 */
+	public InvertedIndexWriter(File idx, File termOffsets,
+			DocumentNormsWriter norms) throws IOException {
+		this(idx, termOffsets, norms, true);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param idx
+	 *            inverted index or segment file
+	 * @param termOffsets
+	 *            term offset file, or null for a segment
+	 * @param norms
+	 *            document norms to add the postings of every term to, or null
+	 * @param header
+	 *            true to write the index header
+	 * @throws IOException
+	 */
+	private InvertedIndexWriter(File idx, File termOffsets,
+			DocumentNormsWriter norms, boolean header) throws IOException {
+		this.norms = norms;
+		offsetsFile = termOffsets;
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(idx), 1 << 16));
+		offsets = new long[1024];
+		Arrays.fill(offsets, -1);
+		numTerms = 0;
+
+		if (header) {
+			textBytes = writeHeader(out);
+		}
+		written = out.size();
+
+		fields = Fields.getInstance().getFields().toArray(new Field[0]);
+		Arrays.sort(fields);
+		int maxField = fields.length == 0 ? 0 : fields[fields.length - 1].field;
+		docs = new int[maxField + 1][BLOCK_SIZE];
+		freqs = new int[maxField + 1][BLOCK_SIZE];
+		count = new int[maxField + 1];
+		skips = new ByteArrayOutputStream();
+		postings = new ByteArrayOutputStream();
+		entry = new ByteArrayOutputStream();
+		currentTerm = -1;
+	}
+
+	/**
+	 * Creates a writer for a segment: the entries of a range of terms,
+	 * without the index header, to be joined with the other segments by
+	 * concatenate(). Term offsets are relative to the start of the segment
+	 * and are kept in memory.
+	 *
+	 * @param segment
+	 *            segment file
+	 * @param norms
+	 *            document norms to add the postings of every term to, or null
+	 * @return writer
+	 * @throws IOException
+	 */
+	public static InvertedIndexWriter segment(File segment,
+			DocumentNormsWriter norms) throws IOException {
+		return new InvertedIndexWriter(segment, null, norms, false);
+	}
+
+	/**
+	 * Stores the positions of the postings in a positions file. Must be
+	 * called before the first posting is added.
+	 *
+	 * @param positionsFile
+	 *            positions file, or segment file for a segment
+	 * @param positionOffsets
+	 *            term offset file of the positions, null for a segment
+	 * @throws IOException
+	 */
+	public void storePositions(File positionsFile, File positionOffsets)
+			throws IOException {
+		posFile = positionsFile;
+		posOffsetsFile = positionOffsets;
+		posOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(positionsFile), 1 << 16));
+		posOffsets = new long[offsets.length];
+		Arrays.fill(posOffsets, -1);
+		posStart = new int[docs.length][BLOCK_SIZE + 1];
+		pos = new int[docs.length][BLOCK_SIZE];
+		posSize = new int[docs.length];
+		posSkips = new ByteArrayOutputStream();
+		positions = new ByteArrayOutputStream();
+		posEntry = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * @return true if positions are stored
+	 */
+	public boolean storesPositions() {
+		return posOut != null;
+	}
+
+	/**
+	 * Writes the magic number and the field table
+	 *
+	 * @return size of the field table in the text index format
+	 */
+	private static long writeHeader(DataOutputStream out) throws IOException {
+		// encode the fields in the invertedIndex
+		StringBuffer sb = new StringBuffer();
+		for (Entry<String, Field> f : Fields.getInstance().getEntries()) {
+			sb.append(f.getKey() + "," + f.getValue().field + ";");
+		}
+		out.writeInt(MAGIC);
+		out.writeUTF(sb.toString());
+		return sb.length() + 1;
+	}
+
+	/**
+	 * Joins closed segments, in term order, into an inverted index and its
+	 * term offset file. The segment files are deleted.
+	 *
+	 * @param idx
+	 *            inverted index file
+	 * @param termOffsets
+	 *            term offset file
+	 * @param segments
+	 *            closed segment writers, in increasing term order
+	 * @param segmentFiles
+	 *            their files
+	 * @param positions
+	 *            positions file, if the segments store positions
+	 * @param positionOffsets
+	 *            term offset file of the positions
+	 * @throws IOException
+	 */
+	public static void concatenate(File idx, File termOffsets,
+			List<InvertedIndexWriter> segments, List<File> segmentFiles,
+			File positions, File positionOffsets) throws IOException {
+		if (!segments.isEmpty() && segments.get(0).storesPositions()) {
+			concatenatePositions(positions, positionOffsets, segments);
+		}
+		FileOutputStream fos = new FileOutputStream(idx);
+		DataOutputStream out = new DataOutputStream(fos);
+		long textBytes = writeHeader(out);
+		out.flush();
+		long written = out.size();
+
+		int numTerms = 0;
+		for (InvertedIndexWriter s : segments) {
+			numTerms = Math.max(numTerms, s.numTerms);
+		}
+		long[] offsets = new long[numTerms];
+		FileChannel target = fos.getChannel();
+		for (int i = 0; i < segments.size(); i++) {
+			InvertedIndexWriter s = segments.get(i);
+			for (int t = 0; t < s.numTerms; t++) {
+				if (s.offsets[t] >= 0) {
+					offsets[t] = written + s.offsets[t];
+				}
+			}
+			FileInputStream in = new FileInputStream(segmentFiles.get(i));
+			FileChannel source = in.getChannel();
+			long copied = 0;
+			while (copied < s.written) {
+				copied += source.transferTo(copied, s.written - copied,
+						target);
+			}
+			in.close();
+			segmentFiles.get(i).delete();
+			written += s.written;
+			textBytes += s.textBytes;
+		}
+		out.close();
+
+		writeOffsets(termOffsets, offsets, numTerms);
+		logger.info("Inverted index is " + written + " bytes in "
+				+ segments.size() + " segments, the text format would take "
+				+ textBytes + " bytes ("
+				+ String.format("%.1f", 100.0 * written / textBytes) + "%)");
+	}
+
+	/**
+	 * Joins the positions files of closed segments, which are deleted
+	 */
+	private static void concatenatePositions(File positions,
+			File positionOffsets, List<InvertedIndexWriter> segments)
+			throws IOException {
+		FileOutputStream fos = new FileOutputStream(positions);
+		FileChannel target = fos.getChannel();
+		int numTerms = 0;
+		for (InvertedIndexWriter s : segments) {
+			numTerms = Math.max(numTerms, s.numTerms);
+		}
+		long[] offsets = new long[numTerms];
+		long written = 0;
+		for (InvertedIndexWriter s : segments) {
+			for (int t = 0; t < s.numTerms; t++) {
+				if (s.posOffsets[t] >= 0) {
+					offsets[t] = written + s.posOffsets[t];
+				}
+			}
+			FileInputStream in = new FileInputStream(s.posFile);
+			FileChannel source = in.getChannel();
+			long copied = 0;
+			while (copied < s.posWritten) {
+				copied += source.transferTo(copied, s.posWritten - copied,
+						target);
+			}
+			in.close();
+			s.posFile.delete();
+			written += s.posWritten;
+		}
+		fos.close();
+		writeOffsets(positionOffsets, offsets, numTerms);
+		logger.info("Positions file is " + written + " bytes");
+	}
+
+	/**
+	 * Adds a single posting to the index
+	 *
+	 * @param termId
+	 *            term id, must not be lower than the previous term id
+	 * @param f
+	 *            field the term appeared in
+	 * @param docId
+	 *            document id, must not be lower than the previous document
+	 *            id of the same term and field
+	 * @param frequency
+	 *            number of times the term appears in the field
+	 * @throws IOException
+	 */
+	public void addPosting(int termId, Field f, int docId, int frequency)
+			throws IOException {
+		addPosting(termId, f, docId, frequency, null, 0);
+	}
+
+	/**
+	 * Adds a single posting with its positions to the index
+	 *
+	 * @param termId
+	 *            term id, must not be lower than the previous term id
+	 * @param f
+	 *            field the term appeared in
+	 * @param docId
+	 *            document id, must not be lower than the previous document
+	 *            id of the same term and field
+	 * @param frequency
+	 *            number of times the term appears in the document
+	 * @param positions
+	 *            positions of the term grouped by field, { fieldId
+	 *            numPositions { position }* }* (see groupPositions()),
+	 *            ignored unless positions are stored
+	 * @param length
+	 *            number of ints the positions take
+	 * @throws IOException
+	 */
+	public void addPosting(int termId, Field f, int docId, int frequency,
+			int[] positions, int length) throws IOException {
+		if (termId != currentTerm) {
+			if (termId < currentTerm) {
+				logger.error("Term ids messed up, something went wrong with the sorting");
+			}
+			finishTerm();
+			currentTerm = termId;
+		}
+		int fid = f.field;
+		int n = count[fid];
+		df++;
+		textBytes += digits(docId) + digits(frequency) + 4; // "(d,f);"
+		if (n > 0 && docs[fid][n - 1] >= docId) {
+			if (docs[fid][n - 1] == docId) {
+				freqs[fid][n - 1] += frequency;
+				if (posOut != null) {
+					addPositions(fid, positions, length);
+					regroup(fid, posStart[fid][n - 1]);
+				}
+			} else {
+				logger.error("Document ids messed up, something went wrong with the sorting");
+			}
+			return;
+		}
+		if (n == docs[fid].length) {
+			docs[fid] = Arrays.copyOf(docs[fid], n * 2);
+			freqs[fid] = Arrays.copyOf(freqs[fid], n * 2);
+		}
+		docs[fid][n] = docId;
+		freqs[fid][n] = frequency;
+		count[fid]++;
+		if (posOut != null) {
+			if (n + 1 >= posStart[fid].length) {
+				posStart[fid] = Arrays.copyOf(posStart[fid], (n + 1) * 2);
+			}
+			posStart[fid][n] = posSize[fid];
+			addPositions(fid, positions, length);
+		}
+	}
+
+	private void addPositions(int fid, int[] positions, int length) {
+		int size = posSize[fid];
+		if (size + length > pos[fid].length) {
+			pos[fid] = Arrays.copyOf(pos[fid],
+					Math.max(size + length, pos[fid].length * 2));
+		}
+		if (length > 0) {
+			System.arraycopy(positions, 0, pos[fid], size, length);
+		}
+		posSize[fid] = size + length;
+	}
+
+	/**
+	 * Merges the position groups of the last posting of a field, after the
+	 * groups of another posting of the same document were appended to them
+	 *
+	 * @param fid
+	 *            field id of the posting
+	 * @param from
+	 *            where the positions of the posting start
+	 */
+	private void regroup(int fid, int from) {
+		int[] p = pos[fid];
+		int end = posSize[fid];
+		long[] keys = new long[end - from];
+		int n = 0;
+		for (int i = from; i < end; i += 2 + p[i + 1]) {
+			for (int j = 0; j < p[i + 1]; j++) {
+				keys[n++] = ((long) p[i] << 32) | p[i + 2 + j];
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		int[] grouped = groupPositions(keys, n);
+		System.arraycopy(grouped, 0, p, from, grouped.length);
+		posSize[fid] = from + grouped.length;
+	}
+
+	/**
+	 * Groups the occurrences of a term in a document by field, the way
+	 * addPosting() takes its positions
+	 *
+	 * @param keys
+	 *            fieldId &lt;&lt; 32 | position of every occurrence, sorted
+	 * @param n
+	 *            number of occurrences
+	 * @return { fieldId numPositions { position }* }*, fields and positions
+	 *         in increasing order
+	 */
+	static int[] groupPositions(long[] keys, int n) {
+		int groups = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || keys[i] >>> 32 != keys[i - 1] >>> 32) {
+				groups++;
+			}
+		}
+		int[] grouped = new int[n + 2 * groups];
+		int at = 0;
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || keys[i] >>> 32 != keys[i - 1] >>> 32) {
+				grouped[at++] = (int) (keys[i] >>> 32);
+				count = at++;
+			}
+			grouped[count]++;
+			grouped[at++] = (int) keys[i];
+		}
+		return grouped;
+	}
+
+	/**
+	 * Adds to the document frequency of the current term. Postings of the
+	 * same document and field count once each towards it even though they
+	 * are merged, so this keeps the document frequency of postings that were
+	 * merged before they were added, as when segments are merged.
+	 *
+	 * @param merged
+	 *            number of postings that were merged away
+	 */
+	void addDocumentFrequency(int merged) {
+		df += merged;
+	}
+
+	/**
+	 * Writes the postings of the current term to disk
+	 *
+	 * @throws IOException
+	 */
+	private void finishTerm() throws IOException {
+		if (currentTerm < 0) {
+			return;
+		}
+		int nonEmpty = 0;
+		for (Field f : fields) {
+			if (count[f.field] > 0) {
+				nonEmpty++;
+			}
+		}
+
+		entry.reset();
+		VByte.write(entry, currentTerm);
+		VByte.write(entry, df);
+		VByte.write(entry, nonEmpty);
+		if (posOut != null) {
+			posEntry.reset();
+			VByte.write(posEntry, currentTerm);
+			VByte.write(posEntry, nonEmpty);
+		}
+		for (Field f : fields) {
+			int fid = f.field;
+			textBytes += 1 + digits(fid); // "#f"
+			if (count[fid] == 0) {
+				continue;
+			}
+			if (norms != null) {
+				norms.addPostings(fid, docs[fid], freqs[fid], count[fid], df);
+			}
+			encodeField(fid);
+			VByte.write(entry, fid);
+			VByte.write(entry, count[fid]);
+			VByte.write(entry, skips.size() + postings.size());
+			skips.writeTo(entry);
+			postings.writeTo(entry);
+			if (posOut != null) {
+				encodePositions(fid);
+				VByte.write(posEntry, fid);
+				VByte.write(posEntry, count[fid]);
+				VByte.write(posEntry, posSkips.size() + positions.size());
+				posSkips.writeTo(posEntry);
+				positions.writeTo(posEntry);
+				posSize[fid] = 0;
+			}
+			count[fid] = 0;
+		}
+		textBytes += digits(currentTerm) + digits(df) + 3; // ":", "\t", "\n"
+
+		if (currentTerm >= offsets.length) {
+			int size = offsets.length;
+			offsets = Arrays.copyOf(offsets,
+					Math.max(currentTerm + 1, offsets.length * 2));
+			Arrays.fill(offsets, size, offsets.length, -1);
+		}
+		offsets[currentTerm] = written;
+		numTerms = Math.max(numTerms, currentTerm + 1);
+		entry.writeTo(out);
+		written += entry.size();
+		df = 0;
+
+		if (posOut != null) {
+			if (currentTerm >= posOffsets.length) {
+				int size = posOffsets.length;
+				posOffsets = Arrays.copyOf(posOffsets, offsets.length);
+				Arrays.fill(posOffsets, size, posOffsets.length, -1);
+			}
+			posOffsets[currentTerm] = posWritten;
+			posEntry.writeTo(posOut);
+			posWritten += posEntry.size();
+		}
+	}
+
+	/**
+	 * Encodes the buffered positions of a field into the positions skip
+	 * table and the positions buffer, in blocks of the same postings as
+	 * encodeField().
+	 *
+	 * @param fid
+	 *            field id
+	 * @throws IOException
+	 */
+	private void encodePositions(int fid) throws IOException {
+		posSkips.reset();
+		positions.reset();
+		int n = count[fid];
+		int[] start = posStart[fid];
+		start[n] = posSize[fid];
+		int[] p = pos[fid];
+		for (int first = 0; first < n; first += BLOCK_SIZE) {
+			int end = Math.min(n, first + BLOCK_SIZE);
+			int before = positions.size();
+			for (int i = first; i < end; i++) {
+				int groups = 0;
+				for (int g = start[i]; g < start[i + 1]; g += 2 + p[g + 1]) {
+					groups++;
+				}
+				VByte.write(positions, groups);
+				for (int g = start[i]; g < start[i + 1]; g += 2 + p[g + 1]) {
+					VByte.write(positions, p[g]);
+					VByte.write(positions, p[g + 1]);
+					int last = 0;
+					for (int j = g + 2; j < g + 2 + p[g + 1]; j++) {
+						VByte.write(positions, p[j] - last);
+						last = p[j];
+					}
+				}
+			}
+			VByte.write(posSkips, positions.size() - before);
+		}
+	}
+
+	/**
+	 * Encodes the buffered postings of a field into the skip table and the
+	 * postings buffer.
+	 * 
+	 * @param fid
+	 *            field id
+	 * @throws IOException
+	 */
+	private void encodeField(int fid) throws IOException {
+		skips.reset();
+		postings.reset();
+		int[] d = docs[fid];
+		int[] fr = freqs[fid];
+		int n = count[fid];
+		int lastDoc = 0;
+		int lastBlockDoc = 0;
+		for (int start = 0; start < n; start += BLOCK_SIZE) {
+			int end = Math.min(n, start + BLOCK_SIZE);
+			int before = postings.size();
+			int maxFreq = 0;
+			for (int i = start; i < end; i++) {
+				VByte.write(postings, d[i] - lastDoc);
+				VByte.write(postings, fr[i]);
+				lastDoc = d[i];
+				maxFreq = Math.max(maxFreq, fr[i]);
+			}
+			VByte.write(skips, lastDoc - lastBlockDoc);
+			VByte.write(skips, postings.size() - before);
+			VByte.write(skips, maxFreq);
+			lastBlockDoc = lastDoc;
+		}
+	}
+
+	private static int digits(int v) {
+		return Integer.toString(v).length();
+	}
+
+	/**
+	 * @return size of the inverted index in bytes
+	 */
+	public long getIndexSize() {
+		return written;
+	}
+
+	/**
+	 * @return size the same postings take in the text index format
+	 */
+	public long getTextIndexSize() {
+		return textBytes;
+	}
+
+	/**
+	 * Writes the last term and the term offsets and reports the size of the
+	 * index.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		finishTerm();
+		out.close();
+		if (posOut != null) {
+			posOut.close();
+			if (posOffsetsFile != null) {
+				writeOffsets(posOffsetsFile, posOffsets, numTerms);
+			}
+		}
+		if (offsetsFile == null) {
+			return;
+		}
+
+		writeOffsets(offsetsFile, offsets, numTerms);
+		logger.info("Inverted index is " + written + " bytes, the text format "
+				+ "would take " + textBytes + " bytes ("
+				+ String.format("%.1f", 100.0 * written / textBytes) + "%)");
+	}
+
+	private static void writeOffsets(File file, long[] offsets, int numTerms)
+			throws IOException {
+		DataOutputStream tos = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		tos.writeInt(numTerms);
+		for (int t = 0; t < numTerms; t++) {
+			tos.writeLong(Math.max(0, offsets[t]));
+		}
+		tos.close();
+	}
+}
@@ -0,0 +1,156 @@
+package edu.nd.sirs.index;
+
+/**
+ * PostingIterator over the postings of one term in one field of several
+ * segments, one after the other. Every segment is read with its own
+ * iterator, so skips within a segment use its skip table and cached lists
+ * are not decoded again; the docids of a segment are shifted by the number
+ * of documents before it. The blocks are those of the segments, numbered
+ * on, so block-max bounds pass straight through as well.
+ *
+ * @author tweninge
+ *
+ */
+public class JoinedPostingIterator implements PostingIterator {
+
+	private final PostingIterator[] parts;
+	private final int[] docBases;
+	private final int[] postingBases;
+	private final int[] blockBases;
+	private final int[] lastDocs;
+	private final int size;
+	private final int maxFreq;
+
+	private int part;
+	private int doc;
+	private final Posting posting;
+
+	/**
+	 * Constructor
+	 *
+	 * @param parts
+	 *            iterators of the segments holding postings, in segment
+	 *            order, none of them moved yet
+	 * @param docBases
+	 *            number added to the docids of every part
+	 */
+	public JoinedPostingIterator(PostingIterator[] parts, int[] docBases) {
+		this.parts = parts;
+		this.docBases = docBases;
+		postingBases = new int[parts.length];
+		blockBases = new int[parts.length + 1];
+		lastDocs = new int[parts.length];
+		int n = 0;
+		int max = 0;
+		for (int p = 0; p < parts.length; p++) {
+			int blocks = (parts[p].size() + InvertedIndexWriter.BLOCK_SIZE - 1)
+					/ InvertedIndexWriter.BLOCK_SIZE;
+			postingBases[p] = n;
+			blockBases[p + 1] = blockBases[p] + blocks;
+			lastDocs[p] = blocks == 0 ? -1 : docBases[p]
+					+ parts[p].blockLastDoc(blocks - 1);
+			n += parts[p].size();
+			max = Math.max(max, parts[p].maxFreq());
+		}
+		size = n;
+		maxFreq = max;
+		part = 0;
+		doc = -1;
+		posting = new Posting(-1, 0);
+	}
+
+	public int docId() {
+		return doc;
+	}
+
+	public int nextDoc() {
+		while (part < parts.length) {
+			int d = parts[part].nextDoc();
+			if (d != NO_MORE_DOCS) {
+				return moved(d);
+			}
+			part++;
+		}
+		return exhausted();
+	}
+
+	public int advance(int target) {
+		// whole segments below the target are never opened
+		while (part < parts.length && lastDocs[part] < target) {
+			part++;
+		}
+		if (part == parts.length) {
+			return exhausted();
+		}
+		// the target may lie before the first docid of the segment
+		int local = Math.max(0, target - docBases[part]);
+		PostingIterator it = parts[part];
+		int d = it.docId();
+		if (d < local) {
+			d = it.advance(local);
+		}
+		return moved(d);
+	}
+
+	private int moved(int d) {
+		doc = docBases[part] + d;
+		posting.docid = doc;
+		posting.frequency = parts[part].freq();
+		return doc;
+	}
+
+	private int exhausted() {
+		doc = NO_MORE_DOCS;
+		posting.docid = doc;
+		return doc;
+	}
+
+	public int index() {
+		return part < parts.length ? postingBases[part]
+				+ parts[part].index() : size;
+	}
+
+	public int freq() {
+		return posting.frequency;
+	}
+
+	public Posting posting() {
+		return posting;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int maxFreq() {
+		return maxFreq;
+	}
+
+	public int block(int target) {
+		for (int p = 0; p < parts.length; p++) {
+			if (lastDocs[p] >= target) {
+				int b = parts[p].block(Math.max(0, target - docBases[p]));
+				return blockBases[p] + b;
+			}
+		}
+		return -1;
+	}
+
+	public int blockLastDoc(int block) {
+		int p = partOfBlock(block);
+		return docBases[p] + parts[p].blockLastDoc(block - blockBases[p]);
+	}
+
+	public int blockMaxFreq(int block) {
+		int p = partOfBlock(block);
+		return parts[p].blockMaxFreq(block - blockBases[p]);
+	}
+
+	private int partOfBlock(int block) {
+		int p = 0;
+		while (block >= blockBases[p + 1]) {
+			p++;
+		}
+		return p;
+	}
+}
@@ -1,13 +1,27 @@
 package edu.nd.sirs.index;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.nd.sirs.util.MappedFile;
+
 /**
- * Lexicon singleton class handles reading and writing to the lexicon on disk
+ * Lexicon singleton class handles reading and writing to the lexicon on disk.
+ * The singleton is the lexicon of the index in the data directory; every
+ * segment of a segmented index has a lexicon of its own, which
+ * InvertedIndex.getPostings(String) looks terms up in.
+ * 
+ * The first term of every front-coded block (see LexiconWriter) is kept in
+ * memory; the blocks themselves are memory mapped. A lookup is a binary
+ * search over the in-memory terms followed by a scan of a single block.
  * 
  * @author tweninge
  *
@@ -15,30 +29,64 @@ import org.slf4j.LoggerFactory;
 public class Lexicon {
 	private static Logger logger = LoggerFactory.getLogger(Lexicon.class);
 
-	private static final String LEXICON = "./data/lex.txt";
-
 	private static Lexicon me = null;
-	private RandomAccessFile lex;
-	private long length;
+	private MappedFile lex;
+	private int numTerms;
+	private String[] firstTerms;
+	private long[] blockOffsets;
 
 	/**
 	 * Singleton constructor, use getInstance()
 	 */
 	private Lexicon() {
+		this(new File(Segments.DATA));
+	}
+
+	/**
+	 * Opens the lexicon of an index or segment directory
+	 * 
+	 * @param dir
+	 *            index directory
+	 */
+	Lexicon(File dir) {
+		firstTerms = new String[0];
+		blockOffsets = new long[1];
 		try {
-			lex = new RandomAccessFile(LEXICON, "r");
-			length = lex.length();
+			lex = new MappedFile(new File(dir, Indexer.LEXICON));
+			loadBlockIndex(new File(dir, Indexer.LEXICONBLOCKS));
 		} catch (IOException e) {
 			logger.error("Cannot find lexicon file", e);
 		}
 	}
 
+	/**
+	 * Load the first term and offset of every block into memory
+	 * 
+	 * @throws IOException
+	 */
+	private void loadBlockIndex(File blockIndex) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(blockIndex)));
+		numTerms = in.readInt();
+		int blocks = in.readInt();
+		firstTerms = new String[blocks];
+		blockOffsets = new long[blocks + 1];
+		for (int b = 0; b < blocks; b++) {
+			blockOffsets[b] = in.readLong();
+			byte[] first = new byte[in.readInt()];
+			in.readFully(first);
+			firstTerms[b] = new String(first, LexiconWriter.UTF8);
+		}
+		blockOffsets[blocks] = lex.length();
+		in.close();
+	}
+
 	/**
 	 * Singleton instance getter.
 	 * 
 	 * @return InvertedIndex object
 	 */
-	public static Lexicon getInstance() {
+	public static synchronized Lexicon getInstance() {
 		if (me == null) {
 			me = new Lexicon();
 		}
@@ -47,102 +95,86 @@ public class Lexicon {
 	}
 
 	/**
-	 * Perform binary search to find term id from lexicon file.
+	 * Drops the singleton, see InvertedIndex.reopen()
+	 */
+	static synchronized void reopen() {
+		me = null;
+	}
+
+	/**
+	 * @return number of terms in the lexicon
+	 */
+	public int getNumTerms() {
+		return numTerms;
+	}
+
+	/**
+	 * Find the block that may contain the term and scan it for the term id.
 	 * 
 	 * @param term
 	 *            String term token
 	 * @return termId corresponding to term or -1 if term not found
 	 */
 	public int getTermId(String term) {
-		long low = 0;
-		long high = length;
-		long cur = high;
-		int x = -3;
-		do {
-			if (high - low < 200) {
-				return scanToFind(low, high, term);
-			}
-			if (x == -3) {
-				cur = low + (high - low) / 2;
-			} else if (x == -1) {
-				cur = low + (high - low) / 2;
-			}
-			x = compareTo(cur, term);
-			if (x >= 0) {
-				return x;
-			} else if (x == -3) {
-				low = cur;
-			} else { // -1
-				high = cur;
+		int b = Arrays.binarySearch(firstTerms, term);
+		if (b < 0) {
+			b = -b - 2; // the block starting before the insertion point
+			if (b < 0) {
+				return -1;
 			}
-		} while (x < 0);
+		}
+		return scanToFind(b, term.getBytes(LexiconWriter.UTF8));
+	}
 
-		return -1;
+	/**
+	 * @return an iterator over every term and its id, in term order
+	 */
+	public LexiconIterator iterator() {
+		return new LexiconIterator(lex, blockOffsets);
 	}
 
 	/**
-	 * Scan to find the termId, typically we do this after we get close using
-	 * the binary search method.
+	 * Decode a block term by term until the term is found.
 	 * 
-	 * @param pos
-	 *            position to start searching at
-	 * @param high
-	 *            position to search until
+	 * @param b
+	 *            block number
 	 * @param term
-	 *            term we're looking for
+	 *            UTF-8 bytes of the term we're looking for
 	 * @return termId corresponding to term or -1 if term not found
 	 */
-	private int scanToFind(long pos, long high, String term) {
-		try {
-			lex.seek(pos);
-			if (pos < 200) {
-				pos = 0;
-			} else {
-				lex.readLine();
+	private int scanToFind(int b, byte[] term) {
+		ByteBuffer block = lex.slice(blockOffsets[b],
+				(int) (blockOffsets[b + 1] - blockOffsets[b]));
+		byte[] current = new byte[0];
+		int prefix = 0;
+		boolean first = true;
+		while (block.hasRemaining()) {
+			if (!first) {
+				prefix = VByte.read(block);
 			}
-			String l = "";
-			while ((l = lex.readLine()) != null) {
-				String[] line = l.split("\t");
-				if (line[0].equals(term)) {
-					return Integer.parseInt(line[1]);
-				}
-
-				if (lex.getFilePointer() > high) {
-					return -1;
-				}
+			int suffix = VByte.read(block);
+			if (prefix + suffix > current.length) {
+				current = Arrays.copyOf(current, prefix + suffix);
+			}
+			block.get(current, prefix, suffix);
+			int termId = VByte.read(block);
+			first = false;
+
+			if (prefix + suffix == term.length
+					&& matches(current, term)) {
+				return termId;
 			}
-		} catch (IOException e) {
-			logger.error("Error reading file", e);
 		}
 		return -1;
 	}
 
-	/**
-	 * Reads the lexicon index at this position
-	 * 
-	 * @param pos
-	 *            file position
-	 * @param term
-	 *            Term to look for
-	 * @return term termId if term is found otherwise -3 if location lower or -1
-	 *         if location higher
-	 */
-	private int compareTo(long pos, String term) {
-		try {
-			lex.seek(pos);
-			lex.readLine(); // get to the end of the line
-			String[] line = lex.readLine().split("\t");
-			if (line[0].equals(term)) {
-				return Integer.parseInt(line[1]);
-			} else {
-				return line[0].compareTo(term) < 0 ? -3 : -1;
+	private static boolean matches(byte[] current, byte[] term) {
+		for (int i = 0; i < term.length; i++) {
+			if (current[i] != term[i]) {
+				return false;
 			}
-
-		} catch (IOException e) {
-			logger.error("Error reading file", e);
 		}
-
-		return -3;
+		return true;
 	}
 
 	/**
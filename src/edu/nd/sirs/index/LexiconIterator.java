@@ -0,0 +1,86 @@
+package edu.nd.sirs.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.nd.sirs.util.MappedFile;
+
+/**
+ * Walks a lexicon file block by block, decoding the front-coded terms (see
+ * LexiconWriter) in the order they were written, which is term order.
+ *
+ * @author tweninge
+ *
+ */
+public class LexiconIterator {
+
+	private final MappedFile lex;
+	private final long[] blockOffsets;
+	private int nextBlock;
+	private ByteBuffer block;
+	private boolean first;
+
+	private byte[] current;
+	private int length;
+	private String term;
+	private int termId;
+
+	/**
+	 * Constructor, use Lexicon.iterator()
+	 *
+	 * @param lex
+	 *            lexicon file
+	 * @param blockOffsets
+	 *            offset of every block, followed by the length of the file
+	 */
+	LexiconIterator(MappedFile lex, long[] blockOffsets) {
+		this.lex = lex;
+		this.blockOffsets = blockOffsets;
+		current = new byte[64];
+		termId = -1;
+	}
+
+	/**
+	 * Moves to the next term
+	 *
+	 * @return false after the last term
+	 */
+	public boolean next() {
+		while (block == null || !block.hasRemaining()) {
+			if (nextBlock + 1 >= blockOffsets.length) {
+				term = null;
+				return false;
+			}
+			block = lex.slice(blockOffsets[nextBlock],
+					(int) (blockOffsets[nextBlock + 1] - blockOffsets[nextBlock]));
+			nextBlock++;
+			first = true;
+		}
+		int prefix = first ? 0 : VByte.read(block);
+		int suffix = VByte.read(block);
+		if (prefix + suffix > current.length) {
+			current = Arrays.copyOf(current,
+					Math.max(prefix + suffix, current.length * 2));
+		}
+		block.get(current, prefix, suffix);
+		length = prefix + suffix;
+		termId = VByte.read(block);
+		term = new String(current, 0, length, LexiconWriter.UTF8);
+		first = false;
+		return true;
+	}
+
+	/**
+	 * @return current term, null after the last term
+	 */
+	public String getTerm() {
+		return term;
+	}
+
+	/**
+	 * @return id of the current term
+	 */
+	public int getTermId() {
+		return termId;
+	}
+}
@@ -0,0 +1,127 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the lexicon as blocks of front-coded terms plus a block index.
+ *
+ * Terms must be added in sorted order. Every block holds BLOCK_SIZE terms;
+ * the first term of a block is stored in full, every other term as the
+ * length of the prefix it shares with the previous term followed by the
+ * remaining bytes:
+ *
+ * <pre>
+ * first:  length bytes termId
+ * others: prefixLength suffixLength suffixBytes termId
+ * </pre>
+ *
+ * All numbers are variable-byte coded and terms are UTF-8. The block index
+ * file holds the number of terms and blocks and, for each block, its offset
+ * in the lexicon file and its first term. It is small enough to be kept in
+ * memory, so a lookup only touches a single block on disk.
+ *
+ * @author tweninge
+ *
+ */
+public class LexiconWriter {
+
+	public static final int BLOCK_SIZE = 16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private DataOutputStream out;
+	private File blockIndexFile;
+	private long written;
+	private int numTerms;
+
+	private ByteArrayOutputStream block;
+	private byte[] previous;
+	private List<String> firstTerms;
+	private List<Long> blockOffsets;
+
+	/**
+	 * Constructor
+	 *
+	 * @param lexicon
+	 *            lexicon file
+	 * @param blockIndex
+	 *            block index file
+	 * @throws IOException
+	 */
+	public LexiconWriter(File lexicon, File blockIndex) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(lexicon), 1 << 16));
+		blockIndexFile = blockIndex;
+		block = new ByteArrayOutputStream();
+		firstTerms = new ArrayList<String>();
+		blockOffsets = new ArrayList<Long>();
+	}
+
+	/**
+	 * Adds a term to the lexicon
+	 *
+	 * @param term
+	 *            term, greater than every term added before
+	 * @param termId
+	 *            id of the term
+	 * @throws IOException
+	 */
+	public void add(String term, int termId) throws IOException {
+		byte[] bytes = term.getBytes(UTF8);
+		if (numTerms % BLOCK_SIZE == 0) {
+			flushBlock();
+			firstTerms.add(term);
+			blockOffsets.add(written);
+			VByte.write(block, bytes.length);
+			block.write(bytes);
+		} else {
+			int prefix = 0;
+			int max = Math.min(previous.length, bytes.length);
+			while (prefix < max && previous[prefix] == bytes[prefix]) {
+				prefix++;
+			}
+			VByte.write(block, prefix);
+			VByte.write(block, bytes.length - prefix);
+			block.write(bytes, prefix, bytes.length - prefix);
+		}
+		VByte.write(block, termId);
+		previous = bytes;
+		numTerms++;
+	}
+
+	private void flushBlock() throws IOException {
+		block.writeTo(out);
+		written += block.size();
+		block.reset();
+	}
+
+	/**
+	 * Writes the last block and the block index
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		flushBlock();
+		out.close();
+
+		DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(blockIndexFile)));
+		idx.writeInt(numTerms);
+		idx.writeInt(firstTerms.size());
+		for (int b = 0; b < firstTerms.size(); b++) {
+			byte[] first = firstTerms.get(b).getBytes(UTF8);
+			idx.writeLong(blockOffsets.get(b));
+			idx.writeInt(first.length);
+			idx.write(first);
+		}
+		idx.close();
+	}
+}
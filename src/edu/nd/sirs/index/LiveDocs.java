@@ -0,0 +1,230 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Live documents singleton class tells which documents were not deleted.
+ *
+ * Postings of a deleted document stay in the index until its segment is
+ * merged or the index is rebuilt. Every index or segment directory may hold
+ * a LIVEDOCS file with a bit per document, set for live documents:
+ *
+ * <pre>
+ * numDocs words[(numDocs + 63) / 64]
+ * </pre>
+ *
+ * A directory without the file has no deleted documents. The singleton
+ * joins the bits of every segment in document order; if nothing was
+ * deleted it holds no bits at all and every document is live.
+ *
+ * @author tweninge
+ *
+ */
+public class LiveDocs {
+	private static Logger logger = LoggerFactory.getLogger(LiveDocs.class);
+
+	static final String LIVEDOCS = "live.bin";
+
+	private static LiveDocs me = null;
+	private long[] live;
+	private int numDeleted;
+
+	/**
+	 * Singleton constructor, use getInstance()
+	 */
+	private LiveDocs() {
+		List<SegmentInfo> segments = Segments.read();
+		if (segments == null) {
+			segments = new ArrayList<SegmentInfo>();
+			segments.add(new SegmentInfo(SegmentInfo.BASE, 0));
+		}
+		int base = 0;
+		for (SegmentInfo s : segments) {
+			long[] bits = read(s.getDirectory());
+			if (bits != null) {
+				int n = s.isBase() && segments.size() == 1 ? capacity(bits)
+						: s.getNumDocs();
+				for (int d = 0; d < n; d++) {
+					if (!get(bits, d)) {
+						delete(base + d);
+					}
+				}
+			}
+			base += s.getNumDocs();
+		}
+		if (numDeleted > 0) {
+			logger.info(numDeleted + " deleted documents");
+		}
+	}
+
+	private void delete(int docid) {
+		if (live == null || docid >= capacity(live)) {
+			long[] grown = new long[Math.max(docid / 64 + 1,
+					live == null ? 1024 : live.length * 2)];
+			Arrays.fill(grown, -1L);
+			if (live != null) {
+				System.arraycopy(live, 0, grown, 0, live.length);
+			}
+			live = grown;
+		}
+		if (get(live, docid)) {
+			clear(live, docid);
+			numDeleted++;
+		}
+	}
+
+	/**
+	 * Singleton instance getter.
+	 *
+	 * @return LiveDocs object
+	 */
+	public static synchronized LiveDocs getInstance() {
+		if (me == null) {
+			me = new LiveDocs();
+		}
+		return me;
+	}
+
+	/**
+	 * Drops the singleton, see InvertedIndex.reopen()
+	 */
+	static synchronized void reopen() {
+		me = null;
+	}
+
+	/**
+	 * @param docid
+	 *            document id
+	 * @return false if the document was deleted
+	 */
+	public boolean isLive(int docid) {
+		long[] l = live;
+		return l == null || docid >= capacity(l) || get(l, docid);
+	}
+
+	/**
+	 * @return true if any document was deleted
+	 */
+	public boolean hasDeletions() {
+		return numDeleted > 0;
+	}
+
+	/**
+	 * @return number of deleted documents
+	 */
+	public int getNumDeleted() {
+		return numDeleted;
+	}
+
+	/**
+	 * Reads the live documents of an index or segment directory
+	 *
+	 * @param dir
+	 *            index directory
+	 * @return live bits, or null if no document of the directory was deleted
+	 */
+	static long[] read(File dir) {
+		File file = new File(dir, LIVEDOCS);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			int numDocs = in.readInt();
+			long[] bits = new long[(numDocs + 63) / 64];
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			in.close();
+			return bits;
+		} catch (IOException e) {
+			logger.error("Cannot read live documents file " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the live documents of an index or segment directory
+	 *
+	 * @param dir
+	 *            index directory
+	 * @param bits
+	 *            live bits
+	 * @param numDocs
+	 *            number of documents of the directory
+	 * @throws IOException
+	 */
+	static void write(File dir, long[] bits, int numDocs) throws IOException {
+		File tmp = new File(dir, LIVEDOCS + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		out.writeInt(numDocs);
+		for (int i = 0; i < (numDocs + 63) / 64; i++) {
+			out.writeLong(bits[i]);
+		}
+		out.close();
+		File file = new File(dir, LIVEDOCS);
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot replace live documents file "
+					+ file);
+		}
+	}
+
+	/**
+	 * @param numDocs
+	 *            number of documents
+	 * @return live bits with every document live
+	 */
+	static long[] allLive(int numDocs) {
+		long[] bits = new long[(numDocs + 63) / 64];
+		Arrays.fill(bits, -1L);
+		return bits;
+	}
+
+	/**
+	 * @param bits
+	 *            live bits, or null if every document is live
+	 * @param numDocs
+	 *            number of documents
+	 * @return number of deleted documents
+	 */
+	static int countDeleted(long[] bits, int numDocs) {
+		if (bits == null) {
+			return 0;
+		}
+		int deleted = 0;
+		for (int d = 0; d < numDocs; d++) {
+			if (!get(bits, d)) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	static boolean get(long[] bits, int docid) {
+		return (bits[docid >>> 6] & (1L << docid)) != 0;
+	}
+
+	static void clear(long[] bits, int docid) {
+		bits[docid >>> 6] &= ~(1L << docid);
+	}
+
+	private static int capacity(long[] bits) {
+		return bits.length << 6;
+	}
+}
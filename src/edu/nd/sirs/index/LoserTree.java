@@ -0,0 +1,94 @@
+package edu.nd.sirs.index;
+
+/**
+ * Tournament tree of losers for merging k sorted sources by long keys. Every
+ * inner node remembers the source that lost the match played there, so
+ * replacing the key of the winner only replays the matches on the path from
+ * its leaf to the root: log2(k) comparisons, and no objects are created.
+ *
+ * Ties go to the source with the lower index, which keeps a merge of runs
+ * stable. An exhausted source gets the key EXHAUSTED, so the merge is done
+ * when the winner's key is EXHAUSTED.
+ *
+ * @author tweninge
+ *
+ */
+public class LoserTree {
+
+	public static final long EXHAUSTED = Long.MAX_VALUE;
+
+	private final int k;
+	private final long[] keys;
+	private final int[] losers;
+	private int winner;
+
+	/**
+	 * Constructor
+	 *
+	 * @param keys
+	 *            first key of every source, EXHAUSTED for empty sources. The
+	 *            array is used by the tree.
+	 */
+	public LoserTree(long[] keys) {
+		this.keys = keys;
+		k = keys.length;
+		losers = new int[Math.max(1, k)];
+		winner = k == 0 ? -1 : build(1);
+	}
+
+	/**
+	 * Plays the matches of the subtree of a node, leaves being the nodes
+	 * k..2k-1, and returns its winner
+	 */
+	private int build(int node) {
+		if (node >= k) {
+			return node - k;
+		}
+		int left = build(2 * node);
+		int right = build(2 * node + 1);
+		if (beats(left, right)) {
+			losers[node] = right;
+			return left;
+		}
+		losers[node] = left;
+		return right;
+	}
+
+	private boolean beats(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+	}
+
+	/**
+	 * @return index of the source with the smallest key
+	 */
+	public int winner() {
+		return winner;
+	}
+
+	/**
+	 * @return smallest key, EXHAUSTED once every source is
+	 */
+	public long winnerKey() {
+		return winner < 0 ? EXHAUSTED : keys[winner];
+	}
+
+	/**
+	 * Replaces the key of the winner with the next key of its source and
+	 * finds the new winner
+	 *
+	 * @param key
+	 *            next key, EXHAUSTED if the source is empty
+	 */
+	public void replace(long key) {
+		keys[winner] = key;
+		int w = winner;
+		for (int node = (w + k) >>> 1; node > 0; node >>>= 1) {
+			if (beats(losers[node], w)) {
+				int t = losers[node];
+				losers[node] = w;
+				w = t;
+			}
+		}
+		winner = w;
+	}
+}
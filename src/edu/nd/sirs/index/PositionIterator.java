@@ -0,0 +1,158 @@
+package edu.nd.sirs.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the positions of the postings of one term in one field. Postings
+ * are addressed by their number within the list, see PostingIterator.index(),
+ * and are best visited in increasing order: the skip table lets seek() jump
+ * over whole blocks, and within a block the postings in between are
+ * skipped without keeping their positions.
+ *
+ * The positions of a posting are grouped by the field they occur in, which
+ * need not be the field of the posting: after seek() every group is read
+ * with nextField(), followed by its positions.
+ *
+ * The positions of a list joined from several segments are read from the
+ * part of every segment in turn.
+ *
+ * @author tweninge
+ *
+ */
+public class PositionIterator {
+
+	private final ByteBuffer[] parts;
+	private final int[] counts;
+
+	private int part;
+	private int partBase;
+	private ByteBuffer data;
+	private int[] blockStart;
+
+	private int next;
+	private int groups;
+	private int numPositions;
+	private int remaining;
+	private int position;
+
+	/**
+	 * Constructor, use PositionList.iterator()
+	 *
+	 * @param parts
+	 *            field data of every part, positioned at the skip table
+	 * @param counts
+	 *            number of postings of every part
+	 */
+	PositionIterator(ByteBuffer[] parts, int[] counts) {
+		this.parts = parts;
+		this.counts = counts;
+		part = -1;
+	}
+
+	/**
+	 * Moves to the positions of a posting
+	 *
+	 * @param posting
+	 *            number of the posting within the list
+	 * @return number of fields the posting has positions in
+	 */
+	public int seek(int posting) {
+		if (part < 0 || posting < partBase
+				|| posting >= partBase + counts[part]) {
+			openPart(posting);
+		}
+		int local = posting - partBase;
+		int block = local / InvertedIndexWriter.BLOCK_SIZE;
+		if (local < next || block > next / InvertedIndexWriter.BLOCK_SIZE) {
+			data.position(blockStart[block]);
+			next = block * InvertedIndexWriter.BLOCK_SIZE;
+			groups = 0;
+			remaining = 0;
+		} else {
+			skipGroups();
+		}
+		for (; next < local; next++) {
+			groups = VByte.read(data);
+			skipGroups();
+		}
+		groups = VByte.read(data);
+		next++;
+		return groups;
+	}
+
+	/**
+	 * Moves to the next field of the current posting, which must have one
+	 * left, skipping what is left of the positions in the current one
+	 *
+	 * @return field id
+	 */
+	public int nextField() {
+		for (; remaining > 0; remaining--) {
+			VByte.read(data);
+		}
+		groups--;
+		int field = VByte.read(data);
+		numPositions = VByte.read(data);
+		remaining = numPositions;
+		position = 0;
+		return field;
+	}
+
+	/**
+	 * @return number of positions in the current field
+	 */
+	public int numPositions() {
+		return numPositions;
+	}
+
+	/**
+	 * @return the next position in the current field, which must have one
+	 *         left
+	 */
+	public int nextPosition() {
+		remaining--;
+		position += VByte.read(data);
+		return position;
+	}
+
+	/**
+	 * Skips the fields of the current posting that were not read
+	 */
+	private void skipGroups() {
+		for (; remaining > 0; remaining--) {
+			VByte.read(data);
+		}
+		for (; groups > 0; groups--) {
+			VByte.read(data); // fieldId
+			for (int n = VByte.read(data); n > 0; n--) {
+				VByte.read(data);
+			}
+		}
+	}
+
+	/**
+	 * Opens the part holding a posting and reads its skip table
+	 */
+	private void openPart(int posting) {
+		part = 0;
+		partBase = 0;
+		while (part < counts.length - 1 && posting >= partBase + counts[part]) {
+			partBase += counts[part++];
+		}
+		data = parts[part].duplicate();
+		int blocks = (counts[part] + InvertedIndexWriter.BLOCK_SIZE - 1)
+				/ InvertedIndexWriter.BLOCK_SIZE;
+		blockStart = new int[blocks];
+		int length = 0;
+		for (int b = 0; b < blocks; b++) {
+			blockStart[b] = length;
+			length += VByte.read(data);
+		}
+		for (int b = 0; b < blocks; b++) {
+			blockStart[b] += data.position();
+		}
+		next = 0;
+		groups = 0;
+		remaining = 0;
+	}
+}
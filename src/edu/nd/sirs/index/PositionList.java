@@ -0,0 +1,111 @@
+package edu.nd.sirs.index;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.nd.sirs.docs.Field;
+
+/**
+ * Positions of the postings of a term, read from the positions file (see
+ * InvertedIndexWriter). The positions of a field are only decoded as they
+ * are iterated, for the postings asked for.
+ *
+ * @author tweninge
+ *
+ */
+public class PositionList {
+
+	private ByteBuffer entry;
+	private int[] fieldCount;
+	private int[] fieldStart;
+	private int[] fieldLength;
+
+	// lists of the segments, in segment order, for a joined list
+	private List<PositionList> parts;
+
+	/**
+	 * Constructor from index reader
+	 *
+	 * @param entry
+	 *            binary term entry of the positions file
+	 */
+	public PositionList(ByteBuffer entry) {
+		this.entry = entry;
+		VByte.read(entry); // termId
+		int numFields = VByte.read(entry);
+		fieldCount = new int[0];
+		fieldStart = new int[0];
+		fieldLength = new int[0];
+		for (int i = 0; i < numFields; i++) {
+			int field = VByte.read(entry);
+			if (field >= fieldCount.length) {
+				fieldCount = grow(fieldCount, field + 1);
+				fieldStart = grow(fieldStart, field + 1);
+				fieldLength = grow(fieldLength, field + 1);
+			}
+			fieldCount[field] = VByte.read(entry);
+			fieldLength[field] = VByte.read(entry);
+			fieldStart[field] = entry.position();
+			entry.position(fieldStart[field] + fieldLength[field]);
+		}
+	}
+
+	private PositionList(List<PositionList> parts) {
+		this.parts = parts;
+	}
+
+	/**
+	 * Joins the positions of a term from several segments, in the order
+	 * PostingList.join() joins their postings
+	 *
+	 * @param lists
+	 *            positions of the term in every segment holding it, in
+	 *            segment order
+	 * @return joined positions
+	 */
+	public static PositionList join(List<PositionList> lists) {
+		return lists.size() == 1 ? lists.get(0) : new PositionList(
+				new ArrayList<PositionList>(lists));
+	}
+
+	private static int[] grow(int[] a, int size) {
+		int[] b = new int[size];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * @param f
+	 *            field
+	 * @return a new iterator over the positions of the postings of this term
+	 *         in field f
+	 */
+	public PositionIterator iterator(Field f) {
+		if (parts == null) {
+			return new PositionIterator(new ByteBuffer[] { data(f.field) },
+					new int[] { count(f.field) });
+		}
+		ByteBuffer[] data = new ByteBuffer[parts.size()];
+		int[] counts = new int[parts.size()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = parts.get(i).data(f.field);
+			counts[i] = parts.get(i).count(f.field);
+		}
+		return new PositionIterator(data, counts);
+	}
+
+	private int count(int field) {
+		return field < fieldCount.length ? fieldCount[field] : 0;
+	}
+
+	private ByteBuffer data(int field) {
+		if (count(field) == 0) {
+			return ByteBuffer.allocate(0);
+		}
+		ByteBuffer data = entry.duplicate();
+		data.limit(fieldStart[field] + fieldLength[field]);
+		data.position(fieldStart[field]);
+		return data.slice();
+	}
+}
@@ -0,0 +1,336 @@
+package edu.nd.sirs.index;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded posting lists with a byte budget, following W-TinyLFU.
+ *
+ * New lists enter a small admission window. Both regions pick their victims
+ * with the CLOCK algorithm, so the list that leaves an overfull window is
+ * the first one the clock hand finds without its reference bit, not
+ * necessarily the oldest. That candidate is compared with the CLOCK victims
+ * of the main region, one at a time until they free enough room for it, and
+ * it is only admitted if it has been asked for more often than every one of
+ * them; a tie keeps the victim. A burst of rare terms therefore cannot flush
+ * the hot ones. Access frequencies are estimated with a count-min sketch of
+ * 4-bit counters that are halved periodically, so old popularity fades.
+ *
+ * Lookups go straight to a ConcurrentHashMap and never lock; the sketch and
+ * reference bits they update are racy on purpose, losing an update only
+ * makes an estimate slightly lower. Insertions and evictions are
+ * synchronized.
+ *
+ * @author tweninge
+ *
+ */
+public class PostingCache {
+
+	private static final int WINDOW_PERCENT = 1;
+
+	private final long maxBytes;
+	private final long windowBytes;
+	private final ConcurrentHashMap<Integer, Entry> entries;
+	private final ArrayDeque<Entry> window;
+	private final ArrayDeque<Entry> main;
+	private long windowUsed;
+	private long mainUsed;
+
+	private final FrequencySketch sketch;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+	private final AtomicLong rejections;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            approximate memory the decoded lists may take
+	 * @param expectedEntries
+	 *            number of distinct lists the frequency sketch should tell
+	 *            apart, for instance the number of terms in the lexicon
+	 */
+	public PostingCache(long maxBytes, int expectedEntries) {
+		this.maxBytes = maxBytes;
+		windowBytes = Math.max(1, maxBytes * WINDOW_PERCENT / 100);
+		entries = new ConcurrentHashMap<Integer, Entry>();
+		window = new ArrayDeque<Entry>();
+		main = new ArrayDeque<Entry>();
+		sketch = new FrequencySketch(expectedEntries);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+		rejections = new AtomicLong();
+	}
+
+	/**
+	 * Looks up a list and records the access
+	 *
+	 * @param termId
+	 *            term id
+	 * @return the decoded list or null
+	 */
+	public PostingList get(int termId) {
+		sketch.increment(termId);
+		Entry e = entries.get(termId);
+		if (e == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		e.referenced = true;
+		hits.incrementAndGet();
+		return e.list;
+	}
+
+	/**
+	 * @param bytes
+	 *            decoded size of a list
+	 * @return true if a list of that size can be cached at all
+	 */
+	public boolean fits(long bytes) {
+		return bytes <= maxBytes - windowBytes;
+	}
+
+	/**
+	 * Adds a list that was just read
+	 *
+	 * @param termId
+	 *            term id
+	 * @param list
+	 *            decoded list
+	 */
+	public synchronized void put(int termId, PostingList list) {
+		long bytes = list.decodedBytes();
+		if (!fits(bytes) || entries.containsKey(termId)) {
+			return;
+		}
+		Entry e = new Entry(termId, list, bytes);
+		entries.put(termId, e);
+		window.addLast(e);
+		windowUsed += bytes;
+
+		while (windowUsed > windowBytes && window.size() > 1) {
+			Entry candidate = clockVictim(window);
+			windowUsed -= candidate.bytes;
+			admit(candidate);
+		}
+	}
+
+	/**
+	 * Moves the CLOCK victim of the window into the main region if its
+	 * frequency is higher than that of each main region CLOCK victim needed
+	 * to make room for it
+	 */
+	private void admit(Entry candidate) {
+		long limit = maxBytes - windowBytes;
+		int freq = sketch.frequency(candidate.termId);
+		// victims are only removed once the candidate has won against all
+		ArrayDeque<Entry> victims = new ArrayDeque<Entry>();
+		long freed = 0;
+		boolean admitted = true;
+		while (mainUsed - freed + candidate.bytes > limit) {
+			Entry victim = clockVictim(main);
+			victims.addLast(victim);
+			freed += victim.bytes;
+			if (sketch.frequency(victim.termId) >= freq) {
+				admitted = false;
+				break;
+			}
+		}
+
+		if (admitted) {
+			for (Entry v : victims) {
+				evict(v);
+			}
+			main.addLast(candidate);
+			mainUsed += candidate.bytes;
+		} else {
+			// the victims stay cached, at the back of the clock with their
+			// reference bits cleared
+			for (Entry v : victims) {
+				main.addLast(v);
+			}
+			entries.remove(candidate.termId);
+			rejections.incrementAndGet();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void evict(Entry e) {
+		entries.remove(e.termId);
+		mainUsed -= e.bytes;
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Takes the next entry without its reference bit off the clock, giving
+	 * every referenced entry it passes a second chance
+	 */
+	private static Entry clockVictim(ArrayDeque<Entry> clock) {
+		while (true) {
+			Entry e = clock.pollFirst();
+			if (!e.referenced) {
+				return e;
+			}
+			e.referenced = false;
+			clock.addLast(e);
+		}
+	}
+
+	/**
+	 * Drops every list
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		window.clear();
+		main.clear();
+		windowUsed = 0;
+		mainUsed = 0;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return fraction of lookups that found their list
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return number of lists dropped from the cache, including those the
+	 *         window let go without admitting them
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of lists that left the window but were not admitted
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return approximate memory taken by the cached lists
+	 */
+	public synchronized long getBytes() {
+		return windowUsed + mainUsed;
+	}
+
+	@Override
+	public String toString() {
+		return "PostingCache " + size() + " lists, " + getBytes() + " of "
+				+ maxBytes + " bytes, hit rate "
+				+ String.format("%.3f", getHitRate()) + ", " + getEvictions()
+				+ " evictions, " + getRejections() + " rejections";
+	}
+
+	/**
+	 * Cached list
+	 */
+	private static class Entry {
+		final int termId;
+		final PostingList list;
+		final long bytes;
+		volatile boolean referenced;
+
+		Entry(int termId, PostingList list, long bytes) {
+			this.termId = termId;
+			this.list = list;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Count-min sketch with four rows of 4-bit counters packed into longs.
+	 * After ten increments per counter slot every counter is halved.
+	 */
+	private static class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+		private final long[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int expectedEntries) {
+			int size = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+			table = new long[size];
+			mask = size - 1;
+			sampleSize = 10 * size;
+		}
+
+		/**
+		 * @return estimated number of accesses, at most 15
+		 */
+		int frequency(int key) {
+			int min = 15;
+			for (int row = 0; row < 4; row++) {
+				min = Math.min(min, counter(key, row));
+			}
+			return min;
+		}
+
+		void increment(int key) {
+			boolean added = false;
+			for (int row = 0; row < 4; row++) {
+				int slot = slot(key, row);
+				int shift = shift(key, row);
+				long word = table[slot];
+				if (((word >>> shift) & 0xfL) < 15) {
+					table[slot] = word + (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		private int counter(int key, int row) {
+			return (int) ((table[slot(key, row)] >>> shift(key, row)) & 0xfL);
+		}
+
+		private int slot(int key, int row) {
+			long h = (key + SEEDS[row]) * SEEDS[(row + 1) & 3];
+			return (int) (h >>> 40) & mask;
+		}
+
+		/**
+		 * Each row uses its own 16-bit quarter of the word, and one of the
+		 * four counters in it
+		 */
+		private int shift(int key, int row) {
+			long h = (key + SEEDS[row]) * SEEDS[(row + 2) & 3];
+			return (row << 4) + ((int) (h >>> 62) << 2);
+		}
+
+		/**
+		 * Halves every counter
+		 */
+		private void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+			}
+			additions = 0;
+		}
+	}
+}
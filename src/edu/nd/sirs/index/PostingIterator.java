@@ -0,0 +1,94 @@
+package edu.nd.sirs.index;
+
+/**
+ * Streams the postings of one term in one field in increasing docid order
+ * without materializing them.
+ *
+ * A new iterator is positioned before its first posting; call nextDoc() or
+ * advance() to move it onto one.
+ *
+ * @author tweninge
+ *
+ */
+public interface PostingIterator {
+
+	/**
+	 * docId() of an exhausted iterator
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * @return current docid, -1 before the first call to nextDoc() or
+	 *         advance() and NO_MORE_DOCS once the postings are exhausted
+	 */
+	public int docId();
+
+	/**
+	 * Moves to the next posting
+	 *
+	 * @return docid of the next posting or NO_MORE_DOCS
+	 */
+	public int nextDoc();
+
+	/**
+	 * Moves to the first posting whose docid is at least target, skipping
+	 * whole blocks of postings where possible. Must only be called with a
+	 * target greater than the current docid.
+	 *
+	 * @param target
+	 *            docid to advance to
+	 * @return docid of the posting moved to or NO_MORE_DOCS
+	 */
+	public int advance(int target);
+
+	/**
+	 * @return number of the current posting within the list, counting from
+	 *         0, as used to find its positions (see PositionIterator)
+	 */
+	public int index();
+
+	/**
+	 * @return frequency of the term in the current document
+	 */
+	public int freq();
+
+	/**
+	 * @return the current posting. The object is reused and only valid until
+	 *         the iterator moves.
+	 */
+	public Posting posting();
+
+	/**
+	 * @return total number of postings in the list
+	 */
+	public int size();
+
+	/**
+	 * @return highest frequency of any posting in the list
+	 */
+	public int maxFreq();
+
+	/**
+	 * Finds the block holding the first posting whose docid is at least
+	 * target, without moving the iterator.
+	 *
+	 * @param target
+	 *            docid
+	 * @return block number, or -1 if every docid is lower than target
+	 */
+	public int block(int target);
+
+	/**
+	 * @param block
+	 *            block number
+	 * @return docid of the last posting of the block
+	 */
+	public int blockLastDoc(int block);
+
+	/**
+	 * @param block
+	 *            block number
+	 * @return highest frequency of any posting in the block
+	 */
+	public int blockMaxFreq(int block);
+}
@@ -1,14 +1,20 @@
 package edu.nd.sirs.index;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
 
 import edu.nd.sirs.docs.Field;
 
 /**
  * Postings class with termId and <docID and frequency> postings.
- * 
+ *
+ * Only the entry header is decoded up front; the postings of a field are
+ * decoded as they are iterated. decode() turns a list into one that holds
+ * all of its postings in arrays, which is what the posting cache keeps. A
+ * list joined from several segments only refers to their lists.
+ *
  * @author tweninge
  *
  */
@@ -16,48 +22,150 @@ public class PostingList {
 
 	private long term;
 	private int df;
-	private TreeMap<Field, List<Posting>> postings;
+	private ByteBuffer entry;
+	private int[] fieldCount;
+	private int[] fieldStart;
+	private int[] fieldLength;
+
+	// decoded postings by field, null until decode()
+	private int[][] docs;
+	private int[][] freqs;
+	private int[][] blockMaxFreqs;
+	private int[] maxFreqs;
+
+	// lists of the segments, in segment order, for a joined list
+	private PostingList[] parts;
+	private int[] docBases;
 
 	/**
 	 * Constructor from index reader
-	 * 
-	 * @param line
-	 *            tab separated Posting
+	 *
+	 * @param entry
+	 *            binary term entry, see InvertedIndexWriter for the layout
 	 */
-	public PostingList(String line) {
-		postings = new TreeMap<Field, List<Posting>>();
-
-		// 3451:4
-		// #0#1(180,1);(181,1);(387,1);(388,1);#2(180,1);(181,1);(387,1);(388,1);
-		String[] s = line.split("\t");
-		String[] dict = s[0].split(":");
-		term = Long.parseLong(dict[0]);
-		df = Integer.parseInt(dict[1]);
-
-		String[] fields = s[1].split("#");
-		for (String f : fields) {
-			if (f.trim().isEmpty() ) continue;
-			List<Posting> posts = new ArrayList<Posting>();
-			int idx = f.indexOf('(');
-			if (idx == -1) {
-				postings.put(new Field(Integer.parseInt(f)), posts);
-			} else {
-				Field field = new Field(Integer.parseInt(f
-						.substring(0, idx)));
-
-				String[] pl = f.substring(idx).split(";");
-				for (String p : pl) {
-					p = p.substring(1, p.length() - 1); // strip parents
-					String[] x = p.split(",");
-					int doc = Integer.parseInt(x[0]);
-					int frequency = Integer.parseInt(x[1]);
-					Posting post = new Posting(doc, frequency);
-					posts.add(post);
-				}
-				postings.put(field, posts);
+	public PostingList(ByteBuffer entry) {
+		this.entry = entry;
+		term = VByte.read(entry);
+		df = VByte.read(entry);
+		int numFields = VByte.read(entry);
+		fieldCount = new int[0];
+		fieldStart = new int[0];
+		fieldLength = new int[0];
+		for (int i = 0; i < numFields; i++) {
+			int field = VByte.read(entry);
+			if (field >= fieldCount.length) {
+				fieldCount = grow(fieldCount, field + 1);
+				fieldStart = grow(fieldStart, field + 1);
+				fieldLength = grow(fieldLength, field + 1);
 			}
+			fieldCount[field] = VByte.read(entry);
+			fieldLength[field] = VByte.read(entry);
+			fieldStart[field] = entry.position();
+			entry.position(fieldStart[field] + fieldLength[field]);
 		}
+	}
 
+	/**
+	 * Decoded copy constructor
+	 */
+	private PostingList(PostingList pl) {
+		term = pl.term;
+		df = pl.df;
+		fieldCount = pl.fieldCount;
+		int n = fieldCount.length;
+		docs = new int[n][];
+		freqs = new int[n][];
+		blockMaxFreqs = new int[n][];
+		maxFreqs = new int[n];
+		for (int field = 0; field < n; field++) {
+			int count = fieldCount[field];
+			if (count == 0) {
+				continue;
+			}
+			BlockPostingIterator it = (BlockPostingIterator) pl
+					.iterator(field);
+			docs[field] = new int[count];
+			freqs[field] = new int[count];
+			for (int i = 0; i < count; i++) {
+				docs[field][i] = it.nextDoc();
+				freqs[field][i] = it.freq();
+			}
+			int blocks = (count + InvertedIndexWriter.BLOCK_SIZE - 1)
+					/ InvertedIndexWriter.BLOCK_SIZE;
+			blockMaxFreqs[field] = new int[blocks];
+			for (int b = 0; b < blocks; b++) {
+				blockMaxFreqs[field][b] = it.blockMaxFreq(b);
+			}
+			maxFreqs[field] = it.maxFreq();
+		}
+	}
+
+	/**
+	 * Joins the postings of a term from several segments. Nothing is decoded
+	 * up front: the iterators of the joined list walk the lists of the
+	 * segments one after the other (see JoinedPostingIterator), so the lists
+	 * keep their skip tables and the cached ones stay shared. The term id of
+	 * the list is -1, since the segments number their terms independently.
+	 *
+	 * @param lists
+	 *            postings of the term in every segment holding it, in
+	 *            segment order
+	 * @param docBases
+	 *            number added to the docids of every list
+	 * @return joined postings
+	 */
+	public static PostingList join(List<PostingList> lists,
+			List<Integer> docBases) {
+		PostingList joined = new PostingList();
+		joined.parts = lists.toArray(new PostingList[lists.size()]);
+		joined.docBases = new int[lists.size()];
+		int n = 0;
+		for (int l = 0; l < lists.size(); l++) {
+			PostingList pl = lists.get(l);
+			joined.df += pl.df;
+			joined.docBases[l] = docBases.get(l);
+			n = Math.max(n, pl.fieldCount.length);
+		}
+		joined.fieldCount = new int[n];
+		for (PostingList pl : lists) {
+			for (int field = 0; field < pl.fieldCount.length; field++) {
+				joined.fieldCount[field] += pl.fieldCount[field];
+			}
+		}
+		return joined;
+	}
+
+	private PostingList() {
+		term = -1;
+	}
+
+	/**
+	 * @return a list holding all postings decoded in arrays; this list if it
+	 *         already does or is joined from segments, whose lists are cached
+	 *         on their own
+	 */
+	public PostingList decode() {
+		return docs != null || parts != null ? this : new PostingList(this);
+	}
+
+	/**
+	 * @return approximate memory the postings take once decoded
+	 */
+	public long decodedBytes() {
+		long bytes = 64 + 16L * fieldCount.length;
+		for (int count : fieldCount) {
+			if (count > 0) {
+				bytes += 48 + 8L * count + 4L
+						* ((count + InvertedIndexWriter.BLOCK_SIZE - 1) / InvertedIndexWriter.BLOCK_SIZE);
+			}
+		}
+		return bytes;
+	}
+
+	private static int[] grow(int[] a, int size) {
+		int[] b = new int[size];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
 	}
 
 	public long getTermId() {
@@ -68,11 +176,68 @@ public class PostingList {
 		return df;
 	}
 
+	/**
+	 * @param f
+	 *            field
+	 * @return a new iterator over the postings of this term in field f
+	 */
+	public PostingIterator iterator(Field f) {
+		return iterator(f.field);
+	}
+
+	private PostingIterator iterator(int field) {
+		if (field >= fieldCount.length || fieldCount[field] == 0) {
+			return new BlockPostingIterator(ByteBuffer.allocate(0), 0);
+		}
+		if (parts != null) {
+			List<PostingIterator> its = new ArrayList<PostingIterator>();
+			List<Integer> bases = new ArrayList<Integer>();
+			for (int l = 0; l < parts.length; l++) {
+				if (field < parts[l].fieldCount.length
+						&& parts[l].fieldCount[field] > 0) {
+					its.add(parts[l].iterator(field));
+					bases.add(docBases[l]);
+				}
+			}
+			int[] b = new int[bases.size()];
+			for (int l = 0; l < b.length; l++) {
+				b[l] = bases.get(l);
+			}
+			return new JoinedPostingIterator(
+					its.toArray(new PostingIterator[its.size()]), b);
+		}
+		if (docs != null) {
+			return new ArrayPostingIterator(docs[field], freqs[field],
+					blockMaxFreqs[field], maxFreqs[field]);
+		}
+		ByteBuffer data = entry.duplicate();
+		data.limit(fieldStart[field] + fieldLength[field]);
+		data.position(fieldStart[field]);
+		return new BlockPostingIterator(data.slice(), fieldCount[field]);
+	}
+
+	/**
+	 * Decodes all postings of a field
+	 *
+	 * @param f
+	 *            field
+	 * @return postings of this term in field f, empty if the term does not
+	 *         occur in f
+	 */
 	public List<Posting> getPostings(Field f) {
-		return postings.get(f);
+		PostingIterator it = iterator(f);
+		if (it.size() == 0) {
+			return Collections.emptyList();
+		}
+		List<Posting> posts = new ArrayList<Posting>(it.size());
+		while (it.nextDoc() != PostingIterator.NO_MORE_DOCS) {
+			posts.add(new Posting(it.docId(), it.freq()));
+		}
+		return posts;
 	}
 
 	public int size(Field f) {
-		return postings.get(f).size();
+		int field = f.field;
+		return field < fieldCount.length ? fieldCount[field] : 0;
 	}
 }
@@ -0,0 +1,246 @@
+package edu.nd.sirs.index;
+
+import java.util.Arrays;
+
+/**
+ * The indexer's in-memory run: postings packed into a long[] with a byte
+ * budget, sorted by termId then docId with an LSD radix sort before they are
+ * written to a run file.
+ *
+ * Every record takes two longs, a sort key holding termId and docId and a
+ * value holding fieldId and frequency. Sorting needs a second array of the
+ * same size, so a record takes RECORD_BYTES of the budget. The sort is
+ * stable: postings with the same termId and docId keep the order they were
+ * added in, as they did with Collections.sort().
+ *
+ * A buffer that keeps positions stores fieldId, frequency and the positions
+ * of every posting, grouped by field, in an int array instead, and the value
+ * of a record is where they start. Positions take four bytes each of the
+ * budget.
+ *
+ * @author tweninge
+ *
+ */
+public class RunBuffer {
+
+	/**
+	 * Bytes of the budget a record takes, its two longs and their copy in
+	 * the sort buffer
+	 */
+	public static final int RECORD_BYTES = 32;
+
+	private static final int INITIAL_RECORDS = 1 << 14;
+
+	private final int capacity;
+	private long[] records;
+	private long[] scratch;
+	private int size;
+
+	// fieldId, frequency, length and grouped positions of every posting,
+	// null without positions
+	private int[] positions;
+	private int positionsSize;
+	private final long maxBytes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            memory the buffer may grow to
+	 */
+	public RunBuffer(long maxBytes) {
+		this(maxBytes, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            memory the buffer may grow to
+	 * @param keepPositions
+	 *            true to keep the positions of every posting
+	 */
+	public RunBuffer(long maxBytes, boolean keepPositions) {
+		this.maxBytes = maxBytes;
+		capacity = (int) Math.max(1,
+				Math.min(Integer.MAX_VALUE / 2, maxBytes / RECORD_BYTES));
+		records = new long[2 * Math.min(capacity, INITIAL_RECORDS)];
+		if (keepPositions) {
+			positions = new int[4 * Math.min(capacity, INITIAL_RECORDS)];
+		}
+	}
+
+	/**
+	 * @return true if no more records can be added
+	 */
+	public boolean isFull() {
+		return size == capacity || positions != null && size > 0
+				&& (long) size * RECORD_BYTES + 4L * positionsSize >= maxBytes;
+	}
+
+	/**
+	 * @return true if the buffer keeps positions
+	 */
+	public boolean hasPositions() {
+		return positions != null;
+	}
+
+	/**
+	 * Adds a posting with its positions, the buffer must not be full
+	 *
+	 * @param termId
+	 *            term id
+	 * @param docId
+	 *            document id
+	 * @param field
+	 *            field id
+	 * @param frequency
+	 *            frequency of the term in the document, the number of
+	 *            positions
+	 * @param pos
+	 *            positions of the term grouped by field, see
+	 *            InvertedIndexWriter.addPosting()
+	 */
+	public void add(int termId, int docId, int field, int frequency,
+			int[] pos) {
+		if (positionsSize + 3 + pos.length > positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(positionsSize + 3
+					+ pos.length, positions.length * 2));
+		}
+		int at = positionsSize;
+		positions[at] = field;
+		positions[at + 1] = frequency;
+		positions[at + 2] = pos.length;
+		System.arraycopy(pos, 0, positions, at + 3, pos.length);
+		positionsSize += 3 + pos.length;
+		add(termId, docId, at);
+	}
+
+	private void add(int termId, int docId, long value) {
+		if (2 * size == records.length) {
+			records = Arrays.copyOf(records,
+					2 * Math.min(capacity, 2 * size));
+		}
+		records[2 * size] = ((long) termId << 32) | (docId & 0xffffffffL);
+		records[2 * size + 1] = value;
+		size++;
+	}
+
+	/**
+	 * Adds a posting, the buffer must not be full
+	 *
+	 * @param termId
+	 *            term id
+	 * @param docId
+	 *            document id
+	 * @param field
+	 *            field id
+	 * @param frequency
+	 *            frequency of the term in the field of the document
+	 */
+	public void add(int termId, int docId, int field, int frequency) {
+		add(termId, docId, ((long) field << 32) | (frequency & 0xffffffffL));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getTermId(int i) {
+		return (int) (records[2 * i] >>> 32);
+	}
+
+	public int getDocId(int i) {
+		return (int) records[2 * i];
+	}
+
+	public int getField(int i) {
+		if (positions != null) {
+			return positions[(int) records[2 * i + 1]];
+		}
+		return (int) (records[2 * i + 1] >>> 32);
+	}
+
+	public int getFrequency(int i) {
+		if (positions != null) {
+			return positions[(int) records[2 * i + 1] + 1];
+		}
+		return (int) records[2 * i + 1];
+	}
+
+	/**
+	 * @param i
+	 *            record
+	 * @return number of ints the grouped positions of the record take
+	 */
+	public int getPositionsLength(int i) {
+		return positions[(int) records[2 * i + 1] + 2];
+	}
+
+	/**
+	 * @param i
+	 *            record
+	 * @param j
+	 *            int of the grouped positions, lower than
+	 *            getPositionsLength()
+	 * @return field id, number of positions or position, see
+	 *         InvertedIndexWriter.addPosting()
+	 */
+	public int getPosition(int i, int j) {
+		return positions[(int) records[2 * i + 1] + 3 + j];
+	}
+
+	/**
+	 * Sorts the records by termId then docId. The key is sorted a byte at a
+	 * time from the lowest; all byte histograms are counted in one pass, and
+	 * bytes that are the same in every key, like the high bytes of small ids,
+	 * are skipped.
+	 */
+	public void sort() {
+		int[][] counts = new int[8][256];
+		for (int i = 0; i < size; i++) {
+			long key = records[2 * i];
+			for (int b = 0; b < 8; b++) {
+				counts[b][(int) (key >>> (b << 3)) & 0xff]++;
+			}
+		}
+
+		if (scratch == null || scratch.length < records.length) {
+			scratch = new long[records.length];
+		}
+		long[] from = records;
+		long[] to = scratch;
+		for (int b = 0; b < 8; b++) {
+			int[] count = counts[b];
+			int shift = b << 3;
+			if (count[(int) (from[0] >>> shift) & 0xff] == size) {
+				continue;
+			}
+			int offset = 0;
+			for (int d = 0; d < 256; d++) {
+				int c = count[d];
+				count[d] = offset;
+				offset += c;
+			}
+			for (int i = 0; i < size; i++) {
+				long key = from[2 * i];
+				int at = 2 * count[(int) (key >>> shift) & 0xff]++;
+				to[at] = key;
+				to[at + 1] = from[2 * i + 1];
+			}
+			long[] t = from;
+			from = to;
+			to = t;
+		}
+		records = from;
+		scratch = to;
+	}
+
+	/**
+	 * Empties the buffer, keeping its memory
+	 */
+	public void clear() {
+		size = 0;
+		positionsSize = 0;
+	}
+}
@@ -1,41 +1,174 @@
 package edu.nd.sirs.index;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.PriorityQueue;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import edu.nd.sirs.docs.Field;
 
 /**
  * RunFile class keep information about the current position of a cursor in a
  * run file.
- * 
+ *
+ * A run file is a sequence of fixed-width binary records (see
+ * {@link RunFileWriter}) that were sorted before they were written, so the
+ * records are handed out in exactly the order they are read from disk.
+ * The positions of a run that keeps them are read from its positions file
+ * in the same order.
+ *
  * @author tweninge
  *
  */
 public class RunFile {
+	private static Logger logger = LoggerFactory.getLogger(RunFile.class);
+
+	/**
+	 * termId, docId, fieldId and frequency, each stored as a 4 byte integer
+	 */
+	public static final int RECORD_SIZE = 16;
+
+	/**
+	 * The same, followed by the 8 byte offset of the positions of the record
+	 */
+	public static final int POSITIONS_RECORD_SIZE = 24;
+
 	File filename;
 	int buffersize;
 	long currentPos;
 	long length;
 
-	PriorityQueue<DocumentTerm> buffer;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private int recordSize;
+
+	private File positionsFile;
+	private InputStream positionsIn;
+	private int[] positions;
+	private int positionsLength;
+
+	private int termId;
+	private int docId;
+	private int field;
+	private int frequency;
 
 	/**
 	 * Constructor
-	 * 
+	 *
 	 * @param file
 	 *            Run file
 	 * @param bsize
-	 *            buffer size to fill
+	 *            buffer size to fill, in records
 	 */
 	public RunFile(File file, int bsize) {
+		this(file, bsize, null);
+	}
+
+	/**
+	 * Constructor for a run with positions
+	 *
+	 * @param file
+	 *            Run file
+	 * @param bsize
+	 *            buffer size to fill, in records
+	 * @param positionsFile
+	 *            positions file of the run, or null for a run without
+	 *            positions
+	 */
+	public RunFile(File file, int bsize, File positionsFile) {
 		filename = file;
-		buffersize = bsize;
+		buffersize = Math.max(1, bsize);
 		currentPos = 0;
 		getFileSize();
-		buffer = new PriorityQueue<DocumentTerm>(buffersize);
+		this.positionsFile = positionsFile;
+		recordSize = positionsFile == null ? RECORD_SIZE
+				: POSITIONS_RECORD_SIZE;
+		positions = new int[16];
+		buffer = ByteBuffer.allocateDirect(buffersize * recordSize);
+		buffer.flip(); // nothing read yet
+	}
+
+	/**
+	 * Constructor for part of a run file
+	 *
+	 * @param file
+	 *            Run file
+	 * @param bsize
+	 *            buffer size to fill, in records
+	 * @param start
+	 *            byte offset of the first record to read
+	 * @param end
+	 *            byte offset just after the last record to read
+	 */
+	public RunFile(File file, int bsize, long start, long end) {
+		this(file, bsize, start, end, null);
+	}
+
+	/**
+	 * Constructor for part of a run file with positions
+	 *
+	 * @param file
+	 *            Run file
+	 * @param bsize
+	 *            buffer size to fill, in records
+	 * @param start
+	 *            byte offset of the first record to read
+	 * @param end
+	 *            byte offset just after the last record to read
+	 * @param positionsFile
+	 *            positions file of the run, or null for a run without
+	 *            positions
+	 */
+	public RunFile(File file, int bsize, long start, long end,
+			File positionsFile) {
+		this(file, bsize, positionsFile);
+		currentPos = start;
+		length = Math.min(length, end);
+	}
+
+	/**
+	 * Finds the first record of a term by binary search, the records being
+	 * sorted by termId
+	 *
+	 * @param file
+	 *            Run file
+	 * @param term
+	 *            term id
+	 * @param recordSize
+	 *            RECORD_SIZE, or POSITIONS_RECORD_SIZE for a run with
+	 *            positions
+	 * @return byte offset of the first record whose termId is at least term,
+	 *         or the file length if there is none
+	 * @throws IOException
+	 */
+	public static long findTerm(File file, int term, int recordSize)
+			throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel ch = in.getChannel();
+			ByteBuffer b = ByteBuffer.allocate(4);
+			long low = 0;
+			long high = ch.size() / recordSize;
+			while (low < high) {
+				long mid = (low + high) >>> 1;
+				if (readInt(ch, b, mid * recordSize) < term) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low * recordSize;
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
@@ -46,71 +179,207 @@ public class RunFile {
 	}
 
 	/**
-	 * Read and parse postings within a single line for until buffer is full.
-	 * 
-	 * @return True if postings were read, false otherwise.
+	 * Read the next block of records from the run file into the buffer. The
+	 * file stays open between calls and is closed once it is exhausted.
+	 *
+	 * @return True if records were read, false otherwise.
 	 * @throws IOException
 	 */
 	private boolean fillBuffer() throws IOException {
-		boolean readsome = false;
-		RandomAccessFile raf = new RandomAccessFile(filename, "r");
-		raf.seek(currentPos);
-		DocumentTerm p;
-		int bufsize = buffer.size();
-
-		while ((currentPos < length) && (bufsize < buffersize)) {
-			readsome = true;
-			StringBuffer sb = new StringBuffer();
-			char c = '-';
-			while ((c = (char) raf.read()) != '\t') {
-				sb.append(c);
+		if (currentPos >= length) {
+			close();
+			if (buffer.hasRemaining()) {
+				throw new EOFException(filename + " ends within a record");
 			}
-			int d = Integer.parseInt(sb.toString());
-			sb = new StringBuffer();
-			while ((c = (char) raf.read()) != '\t') {
-				sb.append(c);
-			}
-			long t = Long.parseLong(sb.toString());
-			sb = new StringBuffer();
-			while ((c = (char) raf.read()) != '\t') {
-				sb.append(c);
+			return false;
+		}
+		if (channel == null) {
+			channel = new FileInputStream(filename).getChannel();
+		}
+
+		buffer.compact();
+		// never read past the end of the part of the file this run covers
+		if (buffer.remaining() > length - currentPos) {
+			buffer.limit(buffer.position() + (int) (length - currentPos));
+		}
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, currentPos);
+			if (read < 0) {
+				break;
 			}
-			Field z = new Field(Integer.parseInt(sb.toString()));
-			sb = new StringBuffer();
-			while ((c = (char) raf.read()) != '\n') {
-				sb.append(c);
+			currentPos += read;
+		}
+		buffer.flip();
+		return buffer.remaining() >= recordSize;
+	}
+
+	private static int readInt(FileChannel ch, ByteBuffer b, long position)
+			throws IOException {
+		b.clear();
+		while (b.hasRemaining()) {
+			if (ch.read(b, position + b.position()) < 0) {
+				throw new EOFException(position + " is past the end of the run");
 			}
-			int f = Integer.parseInt(sb.toString().trim());
+		}
+		b.flip();
+		return b.getInt();
+	}
 
-			p = new DocumentTerm(t, d, f, z);
-			buffer.add(p);
+	/**
+	 * Moves to the next record, which is then available through getTermId(),
+	 * getDocId(), getField(), getFrequency() and getPositions().
+	 *
+	 * @return false when the run is exhausted
+	 * @throws IOException
+	 *             if the run or its positions cannot be read, which must not
+	 *             be taken for the end of the run
+	 */
+	public boolean next() throws IOException {
+		if (buffer.remaining() < recordSize) {
+			try {
+				if (!fillBuffer()) {
+					return false;
+				}
+			} catch (IOException e) {
+				logger.error("Cannot read run file " + filename, e);
+				throw e;
+			}
+		}
+		termId = buffer.getInt();
+		docId = buffer.getInt();
+		field = buffer.getInt();
+		frequency = buffer.getInt();
+		if (positionsFile != null) {
+			long offset = buffer.getLong();
+			try {
+				readPositions(offset);
+			} catch (IOException e) {
+				logger.error("Cannot read the positions of run file "
+						+ filename, e);
+				throw e;
+			}
+		}
+		return true;
+	}
 
-			currentPos = raf.getFilePointer();
-			++bufsize;
+	/**
+	 * Reads the positions of the current record. They follow the positions
+	 * of the previous record, so the positions file is only opened, at the
+	 * offset of the first record, once.
+	 */
+	private void readPositions(long offset) throws IOException {
+		if (positionsIn == null) {
+			positionsIn = new BufferedInputStream(new FileInputStream(
+					positionsFile), 1 << 16);
+			for (long skipped = 0; skipped < offset;) {
+				long s = positionsIn.skip(offset - skipped);
+				if (s <= 0) {
+					throw new EOFException(offset
+							+ " is past the end of the positions");
+				}
+				skipped += s;
+			}
 		}
-		raf.close();
-		return readsome;
+		positionsLength = 0;
+		for (int read = 0; read < frequency;) {
+			int field = readPosition();
+			int n = readPosition();
+			if (positionsLength + 2 + n > positions.length) {
+				positions = Arrays.copyOf(positions, Math.max(positionsLength
+						+ 2 + n, positions.length * 2));
+			}
+			positions[positionsLength++] = field;
+			positions[positionsLength++] = n;
+			int last = 0;
+			for (int i = 0; i < n; i++) {
+				last += readPosition();
+				positions[positionsLength++] = last;
+			}
+			read += n;
+		}
+	}
+
+	private int readPosition() throws IOException {
+		int v = 0;
+		int b;
+		int shift = 0;
+		do {
+			b = positionsIn.read();
+			if (b < 0) {
+				throw new EOFException("Positions of " + filename
+						+ " end early");
+			}
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	public int getTermId() {
+		return termId;
+	}
+
+	public int getDocId() {
+		return docId;
+	}
+
+	public int getField() {
+		return field;
+	}
+
+	public int getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * @return positions of the current record grouped by field, see
+	 *         InvertedIndexWriter.addPosting(), in a reused array
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * @return number of ints the positions of the current record take, 0
+	 *         for a run without positions
+	 */
+	public int getPositionsLength() {
+		return positionsLength;
 	}
 
 	/**
 	 * Return a single posting from this run file.
-	 * 
-	 * @return A Posting
+	 *
+	 * @return A Posting, or null when the run is exhausted
+	 * @throws IOException
+	 */
+	public DocumentTerm getRecord() throws IOException {
+		if (!next()) {
+			return null;
+		}
+		return new DocumentTerm(termId, docId, frequency, new Field(field));
+	}
+
+	/**
+	 * Release the underlying file handle.
 	 */
-	public DocumentTerm getRecord() {
-		if (buffer.size() > 0) {
-			return buffer.poll();
-		} else {
+	public void close() {
+		if (channel != null) {
 			try {
-				if (fillBuffer()) {
-					return buffer.poll();
-				} else {
-					return null;
-				}
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Cannot close run file " + filename, e);
+			}
+			channel = null;
+		}
+		if (positionsIn != null) {
+			try {
+				positionsIn.close();
 			} catch (IOException e) {
-				e.printStackTrace();
-				return null;
+				logger.error("Cannot close the positions of run file "
+						+ filename, e);
 			}
+			positionsIn = null;
 		}
 	}
 
@@ -0,0 +1,147 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a sorted indexer run to disk as fixed-width binary records that are
+ * read back by {@link RunFile}.
+ *
+ * The positions of a run that keeps them go to a positions file next to the
+ * run, record after record, as groups of { fieldId numPositions {
+ * positionGap }* } until the frequency of the record is reached, every
+ * number variable-byte coded. Every record then also holds the offset of
+ * its positions in that file.
+ *
+ * @author tweninge
+ *
+ */
+public class RunFileWriter {
+
+	private static final int BUFFER_RECORDS = 4096;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private int recordSize;
+
+	private BufferedOutputStream positions;
+	private long positionsWritten;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            Run file to create
+	 * @throws IOException
+	 */
+	public RunFileWriter(File file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            Run file to create
+	 * @param positionsFile
+	 *            positions file to create, or null for a run without
+	 *            positions
+	 * @throws IOException
+	 */
+	public RunFileWriter(File file, File positionsFile) throws IOException {
+		channel = new FileOutputStream(file).getChannel();
+		recordSize = positionsFile == null ? RunFile.RECORD_SIZE
+				: RunFile.POSITIONS_RECORD_SIZE;
+		buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * recordSize);
+		if (positionsFile != null) {
+			positions = new BufferedOutputStream(new FileOutputStream(
+					positionsFile), 1 << 16);
+		}
+	}
+
+	/**
+	 * Append a single record to the run.
+	 *
+	 * @param termId
+	 *            Token/Term Id
+	 * @param docId
+	 *            Document Id
+	 * @param field
+	 *            Field Id
+	 * @param frequency
+	 *            Number of times the term appears in the document
+	 * @throws IOException
+	 */
+	public void write(int termId, int docId, int field, int frequency)
+			throws IOException {
+		if (buffer.remaining() < recordSize) {
+			flush();
+		}
+		buffer.putInt(termId);
+		buffer.putInt(docId);
+		buffer.putInt(field);
+		buffer.putInt(frequency);
+		if (positions != null) {
+			buffer.putLong(positionsWritten);
+		}
+	}
+
+	/**
+	 * Append every record of an already sorted run.
+	 *
+	 * @param run
+	 *            sorted run
+	 * @throws IOException
+	 */
+	public void write(RunBuffer run) throws IOException {
+		for (int i = 0; i < run.size(); i++) {
+			int frequency = run.getFrequency(i);
+			write(run.getTermId(i), run.getDocId(i), run.getField(i),
+					frequency);
+			if (positions != null) {
+				int length = run.getPositionsLength(i);
+				for (int g = 0; g < length; g += 2 + run.getPosition(i, g + 1)) {
+					int numPositions = run.getPosition(i, g + 1);
+					writePosition(run.getPosition(i, g));
+					writePosition(numPositions);
+					int last = 0;
+					for (int j = g + 2; j < g + 2 + numPositions; j++) {
+						int p = run.getPosition(i, j);
+						writePosition(p - last);
+						last = p;
+					}
+				}
+			}
+		}
+	}
+
+	private void writePosition(int v) throws IOException {
+		VByte.write(positions, v);
+		positionsWritten += VByte.size(v);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Flush the remaining records and close the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		flush();
+		channel.close();
+		if (positions != null) {
+			positions.close();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package edu.nd.sirs.index;
+
+import java.io.File;
+
+/**
+ * An entry of the segment list: the name of a segment directory and the
+ * number of documents it holds. Segments are immutable once listed.
+ *
+ * @author tweninge
+ *
+ */
+public class SegmentInfo {
+
+	/**
+	 * Name of the index built by a full run of the Indexer, which lives in
+	 * the data directory itself
+	 */
+	public static final String BASE = ".";
+
+	private final String name;
+	private final int numDocs;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name
+	 *            segment name, BASE for the index in the data directory
+	 * @param numDocs
+	 *            number of documents in the segment
+	 */
+	public SegmentInfo(String name, int numDocs) {
+		this.name = name;
+		this.numDocs = numDocs;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumDocs() {
+		return numDocs;
+	}
+
+	/**
+	 * @return true for the index built by a full run of the Indexer
+	 */
+	public boolean isBase() {
+		return BASE.equals(name);
+	}
+
+	/**
+	 * @return directory holding the files of the segment
+	 */
+	public File getDirectory() {
+		return isBase() ? new File(Segments.DATA) : new File(
+				Segments.SEGMENTSDIR, name);
+	}
+
+	public String toString() {
+		return name + "\t" + numDocs;
+	}
+}
@@ -0,0 +1,266 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.codec.binary.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.docs.HTMLDocument;
+
+/**
+ * Merges adjacent segments into a new segment. The documents keep their
+ * order and are numbered after the documents of the segments before them.
+ * The lexicons are merged by term and the new segment numbers its terms in
+ * term order; the postings of a term are copied segment by segment, so they
+ * stay in docid order. Document norms are computed again from the merged
+ * postings, with the document frequencies of the merged segment. If every
+ * segment stores positions the positions of the copied postings are copied
+ * along.
+ *
+ * Deleted documents are purged: their lines, norms and postings are not
+ * copied, the documents after them are numbered without gaps and terms left
+ * without postings are dropped from the lexicon.
+ *
+ * @author tweninge
+ *
+ */
+public class SegmentMerger {
+	private static Logger logger = LoggerFactory.getLogger(SegmentMerger.class);
+
+	private SegmentMerger() {
+	}
+
+	/**
+	 * Merges segments into a new segment directory
+	 *
+	 * @param segments
+	 *            adjacent segments, in document order
+	 * @param live
+	 *            live documents of every segment, see LiveDocs.read(), null
+	 *            for segments without deletions
+	 * @param name
+	 *            name of the new segment, its directory must exist
+	 * @return the new segment, not listed yet
+	 * @throws IOException
+	 */
+	public static SegmentInfo merge(List<SegmentInfo> segments,
+			List<long[]> live, String name) throws IOException {
+		File dir = new File(Segments.SEGMENTSDIR, name);
+		logger.info("Merging " + segments + " into " + name);
+		int[][] docMap = new int[segments.size()][];
+		int numDocs = 0;
+		int numDeleted = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			docMap[i] = new int[segments.get(i).getNumDocs()];
+			for (int d = 0; d < docMap[i].length; d++) {
+				if (live.get(i) == null || LiveDocs.get(live.get(i), d)) {
+					docMap[i][d] = numDocs++;
+				} else {
+					docMap[i][d] = -1;
+					numDeleted++;
+				}
+			}
+		}
+
+		mergeText(segments, docMap, new File(dir, Indexer.DOCIDX), new File(
+				dir, Indexer.DOCIDXOFFSET));
+		mergeText(segments, docMap, new File(dir, Indexer.ANCIDX), null);
+
+		// the fields every segment was indexed with
+		HTMLDocument.registerFields();
+		Field[] fields = Fields.getInstance().getFields()
+				.toArray(new Field[0]);
+		Arrays.sort(fields);
+		DocumentNormsWriter norms = new DocumentNormsWriter();
+		for (int i = 0; i < segments.size(); i++) {
+			DocumentNorms dn = new DocumentNorms(segments.get(i)
+					.getDirectory());
+			int n = Math.min(dn.getNumDocs(), docMap[i].length);
+			for (int d = 0; d < n; d++) {
+				if (docMap[i][d] < 0) {
+					continue;
+				}
+				for (Field f : fields) {
+					norms.setNumTokens(docMap[i][d], f, dn.getNumTokens(d, f));
+				}
+			}
+		}
+		if (norms.getNumDocs() < numDocs && fields.length > 0) {
+			// trailing documents without any tokens
+			norms.setNumTokens(numDocs - 1, fields[0], 0);
+		}
+
+		int numTerms = mergePostings(segments, docMap, dir, fields, norms);
+		norms.write(new File(dir, Indexer.NORMS));
+		logger.info("Merged " + segments.size() + " segments into " + name
+				+ ", " + numDocs + " documents, " + numTerms + " terms, "
+				+ numDeleted + " deleted documents purged");
+		return new SegmentInfo(name, numDocs);
+	}
+
+	/**
+	 * Merges the lexicons and postings of the segments
+	 *
+	 * @return number of terms of the new segment
+	 */
+	private static int mergePostings(List<SegmentInfo> segments,
+			int[][] docMap, File dir, Field[] fields, DocumentNormsWriter norms)
+			throws IOException {
+		int n = segments.size();
+		InvertedIndex[] readers = new InvertedIndex[n];
+		final LexiconIterator[] terms = new LexiconIterator[n];
+		// segments by current term, then by segment order
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(
+				1, n), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = terms[a].getTerm().compareTo(terms[b].getTerm());
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		boolean positions = n > 0;
+		for (int i = 0; i < n; i++) {
+			File segment = segments.get(i).getDirectory();
+			readers[i] = new InvertedIndex(segment, 0, false);
+			positions &= readers[i].hasPositions();
+			terms[i] = new Lexicon(segment).iterator();
+			if (terms[i].next()) {
+				queue.add(i);
+			}
+		}
+
+		InvertedIndexWriter out = new InvertedIndexWriter(new File(dir,
+				Indexer.IDX), new File(dir, Indexer.IDXTERMOFFSET), norms);
+		if (positions) {
+			out.storePositions(new File(dir, Indexer.POS), new File(dir,
+					Indexer.POSTERMOFFSET));
+		}
+		int[] buffer = new int[16];
+		LexiconWriter lexicon = new LexiconWriter(new File(dir,
+				Indexer.LEXICON), new File(dir, Indexer.LEXICONBLOCKS));
+		int[] holding = new int[n];
+		int termId = 0;
+		while (!queue.isEmpty()) {
+			String term = terms[queue.peek()].getTerm();
+			int h = 0;
+			while (!queue.isEmpty()
+					&& terms[queue.peek()].getTerm().equals(term)) {
+				holding[h++] = queue.poll();
+			}
+			boolean copiedAny = false;
+			for (int j = 0; j < h; j++) {
+				int i = holding[j];
+				PostingList pl = readers[i].getPostings(terms[i].getTermId());
+				PositionList pos = positions ? readers[i].getPositions(terms[i]
+						.getTermId()) : null;
+				int copied = 0;
+				int size = 0;
+				for (Field f : fields) {
+					PostingIterator it = pl.iterator(f);
+					PositionIterator pi = pos == null ? null : pos.iterator(f);
+					while (it.nextDoc() != PostingIterator.NO_MORE_DOCS) {
+						size++;
+						int doc = docMap[i][it.docId()];
+						if (doc < 0) {
+							continue;
+						}
+						int length = 0;
+						if (pi != null) {
+							// the groups, { fieldId numPositions
+							// { position }* }*, take two ints more each
+							int groups = pi.seek(it.index());
+							if (it.freq() + 2 * groups > buffer.length) {
+								buffer = new int[Math.max(it.freq() + 2
+										* groups, 2 * buffer.length)];
+							}
+							for (int g = 0; g < groups; g++) {
+								buffer[length++] = pi.nextField();
+								buffer[length++] = pi.numPositions();
+								for (int k = pi.numPositions(); k > 0; k--) {
+									buffer[length++] = pi.nextPosition();
+								}
+							}
+						}
+						out.addPosting(termId, f, doc, it.freq(), buffer,
+								length);
+						copied++;
+					}
+				}
+				if (copied > 0) {
+					// the postings merged away, in proportion to the ones
+					// of live documents
+					long merged = pl.getDocumentFrequency() - size;
+					out.addDocumentFrequency((int) (merged * copied / size));
+					copiedAny = true;
+				}
+			}
+			if (copiedAny) {
+				lexicon.add(term, termId);
+				termId++;
+			}
+			for (int j = 0; j < h; j++) {
+				if (terms[holding[j]].next()) {
+					queue.add(holding[j]);
+				}
+			}
+		}
+		out.close();
+		lexicon.close();
+		return termId;
+	}
+
+	/**
+	 * Concatenates a text file of every segment whose lines start with a
+	 * docid, renumbering the documents and leaving out deleted ones
+	 *
+	 * @param offsets
+	 *            file for the byte offset of every line, or null
+	 */
+	private static void mergeText(List<SegmentInfo> segments,
+			int[][] docMap, File file, File offsets) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		PrintWriter offsetsOut = offsets == null ? null : new PrintWriter(
+				offsets, "UTF-8");
+		long written = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			File in = new File(segments.get(i).getDirectory(), file.getName());
+			if (!in.exists()) {
+				continue;
+			}
+			BufferedReader br = new BufferedReader(new InputStreamReader(
+					new FileInputStream(in), "UTF-8"));
+			String line;
+			while ((line = br.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				String id = tab < 0 ? line : line.substring(0, tab);
+				String rest = tab < 0 ? "" : line.substring(tab);
+				int doc = docMap[i][Integer.parseInt(id)];
+				if (doc < 0) {
+					continue;
+				}
+				String shifted = doc + rest + "\n";
+				out.print(shifted);
+				if (offsetsOut != null) {
+					offsetsOut.print(written + "\n");
+				}
+				written += StringUtils.getBytesUtf8(shifted).length;
+			}
+			br.close();
+		}
+		out.close();
+		if (offsetsOut != null) {
+			offsetsOut.close();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The segment list. An index is either the single index a full run of the
+ * Indexer writes into the data directory, or a list of segments: immutable
+ * indexes, each with its own lexicon, postings, document norms and direct
+ * index, that are searched together.
+ *
+ * The list is kept in SEGMENTS, one "name numDocs" line per segment. The
+ * documents of a segment are numbered from 0 on disk; at query time they
+ * are numbered after the documents of the segments listed before it, so
+ * the list order is the document order. The file is replaced atomically
+ * whenever a segment is added or segments are merged.
+ *
+ * @author tweninge
+ *
+ */
+public class Segments {
+	private static Logger logger = LoggerFactory.getLogger(Segments.class);
+
+	static final String DATA = "./data/";
+	static final String SEGMENTS = "./data/segments.txt";
+	static final String SEGMENTSDIR = "./data/segments/";
+	private static final String SEGMENT_PREFIX = "seg";
+
+	private Segments() {
+	}
+
+	/**
+	 * Reads the segment list
+	 *
+	 * @return the segments in document order, or null if the index is the
+	 *         single index in the data directory
+	 */
+	public static synchronized List<SegmentInfo> read() {
+		File file = new File(SEGMENTS);
+		if (!file.exists()) {
+			return null;
+		}
+		List<SegmentInfo> segments = new ArrayList<SegmentInfo>();
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(file));
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				String[] s = line.split("\t");
+				segments.add(new SegmentInfo(s[0], Integer.parseInt(s[1])));
+			}
+			br.close();
+		} catch (IOException e) {
+			logger.error("Cannot read segment list " + SEGMENTS, e);
+		}
+		return segments;
+	}
+
+	/**
+	 * Replaces the segment list. Readers only see the new segments after
+	 * InvertedIndex.reopen().
+	 *
+	 * @param segments
+	 *            segments in document order
+	 * @throws IOException
+	 */
+	public static synchronized void write(List<SegmentInfo> segments)
+			throws IOException {
+		File tmp = new File(SEGMENTS + ".tmp");
+		PrintWriter pw = new PrintWriter(tmp, "UTF-8");
+		for (SegmentInfo s : segments) {
+			pw.print(s + "\n");
+		}
+		pw.close();
+		if (!tmp.renameTo(new File(SEGMENTS))) {
+			throw new IOException("Cannot replace segment list " + SEGMENTS);
+		}
+	}
+
+	/**
+	 * Turns the single index in the data directory, if there is one, into
+	 * the first segment of a new segment list. Does nothing if there already
+	 * is a list.
+	 *
+	 * @return the segment list
+	 * @throws IOException
+	 */
+	public static synchronized List<SegmentInfo> create() throws IOException {
+		List<SegmentInfo> segments = read();
+		if (segments != null) {
+			return segments;
+		}
+		segments = new ArrayList<SegmentInfo>();
+		File base = new File(DATA);
+		if (new File(base, Indexer.IDX).exists()) {
+			segments.add(new SegmentInfo(SegmentInfo.BASE,
+					countDocuments(base)));
+		}
+		write(segments);
+		return segments;
+	}
+
+	/**
+	 * Drops the segment list, every segment but the index in the data
+	 * directory, which a full run of the Indexer just replaced, and the
+	 * deletions of the replaced index
+	 */
+	public static synchronized void clear() {
+		new File(SEGMENTS).delete();
+		new File(DATA, LiveDocs.LIVEDOCS).delete();
+		delete(new File(SEGMENTSDIR));
+	}
+
+	/**
+	 * @return a segment directory name that was never used
+	 */
+	public static synchronized String newSegmentName() {
+		int next = 0;
+		String[] names = new File(SEGMENTSDIR).list();
+		if (names != null) {
+			for (String n : names) {
+				if (n.startsWith(SEGMENT_PREFIX)) {
+					try {
+						next = Math.max(next, Integer.parseInt(n
+								.substring(SEGMENT_PREFIX.length())) + 1);
+					} catch (NumberFormatException e) {
+						// not a segment
+					}
+				}
+			}
+		}
+		String name = SEGMENT_PREFIX + next;
+		new File(SEGMENTSDIR, name).mkdirs();
+		return name;
+	}
+
+	/**
+	 * @param dir
+	 *            index or segment directory
+	 * @return number of documents in its direct index
+	 * @throws IOException
+	 */
+	static int countDocuments(File dir) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(new File(dir,
+				Indexer.DOCIDXOFFSET)));
+		int n = 0;
+		while (br.readLine() != null) {
+			n++;
+		}
+		br.close();
+		return n;
+	}
+
+	/**
+	 * Deletes a file or a directory with everything in it
+	 *
+	 * @param f
+	 *            file or directory
+	 */
+	static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+}
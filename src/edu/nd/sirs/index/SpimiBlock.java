@@ -0,0 +1,304 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A block of the single-pass in-memory indexer (SPIMI): the postings of a
+ * range of documents, kept per term string. Terms get ids that are local to
+ * the block, and the postings of every term are appended to their own list
+ * as documents are indexed, so nothing is sorted until the block is written.
+ *
+ * Postings of a term that are added between two calls of startDocument()
+ * are counted as a single posting, in the field of the first one, the same
+ * way the indexer counts the terms of a document. A block that keeps
+ * positions also keeps the field and position of every occurrence.
+ *
+ * A block file holds the number of terms followed by the terms in String
+ * order, each with its postings in docId order:
+ *
+ * <pre>
+ * numTerms { term count { docId fieldId frequency positions }* }*
+ * positions: { fieldId numPositions { position }* }*
+ * </pre>
+ *
+ * where the positions of a posting, grouped by field until frequency
+ * positions are written, only follow it in a block that keeps positions.
+ * The term is written with writeUTF() and every number as an int. Blocks are
+ * read back by {@link SpimiBlockReader}.
+ *
+ * @author tweninge
+ *
+ */
+public class SpimiBlock {
+
+	/**
+	 * Estimated bytes a term takes besides its characters and postings: its
+	 * slots in the dictionary, the per-term arrays and its postings array
+	 */
+	private static final int TERM_BYTES = 64;
+
+	/**
+	 * Bytes of a posting, docId, fieldId and frequency
+	 */
+	private static final int POSTING_BYTES = 12;
+
+	private final long maxBytes;
+	private long bytes;
+
+	private TermDictionary terms;
+	private int[][] postings;
+	private int[] count;
+	private int[] lastDocument;
+	private int document;
+	private long numPostings;
+
+	// fieldId << 32 | position of the occurrences of every term, in the
+	// order of its postings
+	private final boolean keepPositions;
+	private long[][] positions;
+	private int[] numPositions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            memory the block may take before it is full
+	 */
+	public SpimiBlock(long maxBytes) {
+		this(maxBytes, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            memory the block may take before it is full
+	 * @param keepPositions
+	 *            keep the positions of the postings, see add(char[], int,
+	 *            int, int, int, int)
+	 */
+	public SpimiBlock(long maxBytes, boolean keepPositions) {
+		this.maxBytes = maxBytes;
+		this.keepPositions = keepPositions;
+		if (keepPositions) {
+			positions = new long[1024][];
+			numPositions = new int[1024];
+		}
+		terms = new TermDictionary();
+		postings = new int[1024][];
+		count = new int[1024];
+		lastDocument = new int[1024];
+		document = 0;
+	}
+
+	/**
+	 * @return true once the block takes its memory budget. A document that
+	 *         is being indexed can still be finished.
+	 */
+	public boolean isFull() {
+		return bytes >= maxBytes;
+	}
+
+	/**
+	 * Starts the postings of a new document, or of a new set of anchor
+	 * tokens for a document
+	 */
+	public void startDocument() {
+		document++;
+	}
+
+	/**
+	 * Adds an occurrence of a term
+	 *
+	 * @param term
+	 *            characters of the term
+	 * @param offset
+	 *            first character
+	 * @param length
+	 *            number of characters
+	 * @param docId
+	 *            document id
+	 * @param field
+	 *            field id
+	 */
+	public void add(char[] term, int offset, int length, int docId, int field) {
+		int before = terms.size();
+		int id = terms.add(term, offset, length);
+		if (id == before) {
+			newTerm(id, length);
+		} else if (lastDocument[id] == document) {
+			postings[id][3 * count[id] - 1]++;
+			return;
+		}
+		newPosting(id, docId, field);
+	}
+
+	/**
+	 * Adds an occurrence of a term with its position, to a block that keeps
+	 * positions. Occurrences are counted in postings the same way as by
+	 * add(char[], int, int, int, int).
+	 *
+	 * @param term
+	 *            characters of the term
+	 * @param offset
+	 *            first character
+	 * @param length
+	 *            number of characters
+	 * @param docId
+	 *            document id
+	 * @param field
+	 *            field id
+	 * @param position
+	 *            position of the occurrence in the field
+	 */
+	public void add(char[] term, int offset, int length, int docId,
+			int field, int position) {
+		int before = terms.size();
+		int id = terms.add(term, offset, length);
+		if (id == before) {
+			newTerm(id, length);
+			newPosting(id, docId, field);
+		} else if (lastDocument[id] == document) {
+			postings[id][3 * count[id] - 1]++;
+		} else {
+			newPosting(id, docId, field);
+		}
+
+		int n = numPositions[id];
+		long[] list = positions[id];
+		if (n == list.length) {
+			list = Arrays.copyOf(list, list.length * 2);
+			positions[id] = list;
+			bytes += 8L * n;
+		}
+		list[n] = ((long) field << 32) | position;
+		numPositions[id]++;
+	}
+
+	private void newPosting(int id, int docId, int field) {
+		int n = count[id];
+		int[] list = postings[id];
+		if (3 * n == list.length) {
+			list = Arrays.copyOf(list, list.length * 2);
+			postings[id] = list;
+			bytes += (long) n * POSTING_BYTES;
+		}
+		list[3 * n] = docId;
+		list[3 * n + 1] = field;
+		list[3 * n + 2] = 1;
+		count[id]++;
+		lastDocument[id] = document;
+		numPostings++;
+	}
+
+	private void newTerm(int id, int length) {
+		if (id == postings.length) {
+			postings = Arrays.copyOf(postings, id * 2);
+			count = Arrays.copyOf(count, id * 2);
+			lastDocument = Arrays.copyOf(lastDocument, id * 2);
+		}
+		postings[id] = new int[3];
+		bytes += TERM_BYTES + 2 * length + POSTING_BYTES;
+		if (keepPositions) {
+			if (id == positions.length) {
+				positions = Arrays.copyOf(positions, id * 2);
+				numPositions = Arrays.copyOf(numPositions, id * 2);
+			}
+			positions[id] = new long[2];
+			bytes += 16;
+		}
+	}
+
+	/**
+	 * @return number of terms in the block
+	 */
+	public int size() {
+		return terms.size();
+	}
+
+	/**
+	 * @return number of postings in the block
+	 */
+	public long getNumPostings() {
+		return numPostings;
+	}
+
+	/**
+	 * Writes the block, terms in String order and the postings of every term
+	 * in docId order
+	 *
+	 * @param file
+	 *            block file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		String[] sorted = terms.sortedTerms();
+		out.writeInt(sorted.length);
+		for (String term : sorted) {
+			int id = terms.get(term);
+			int[] list = postings[id];
+			int n = count[id];
+			int[] order = sortByDocId(list, n);
+			int[] start = null;
+			if (keepPositions) {
+				// where the positions of every posting start
+				start = new int[n];
+				for (int i = 1; i < n; i++) {
+					start[i] = start[i - 1] + list[3 * i - 1];
+				}
+			}
+			out.writeUTF(term);
+			out.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				int p = order == null ? i : order[i];
+				out.writeInt(list[3 * p]);
+				out.writeInt(list[3 * p + 1]);
+				out.writeInt(list[3 * p + 2]);
+				if (keepPositions) {
+					long[] occurrences = Arrays.copyOfRange(positions[id],
+							start[p], start[p] + list[3 * p + 2]);
+					Arrays.sort(occurrences);
+					for (int v : InvertedIndexWriter.groupPositions(
+							occurrences, occurrences.length)) {
+						out.writeInt(v);
+					}
+				}
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Postings are added in docId order, except for anchor text, which is
+	 * indexed after every document. Those lists are sorted by docId, keeping
+	 * the order of postings of the same document.
+	 *
+	 * @return postings in docId order, or null if the list is in order
+	 */
+	private static int[] sortByDocId(int[] list, int n) {
+		boolean sorted = true;
+		for (int i = 1; i < n && sorted; i++) {
+			sorted = list[3 * (i - 1)] <= list[3 * i];
+		}
+		if (sorted) {
+			return null;
+		}
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((long) list[3 * i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+}
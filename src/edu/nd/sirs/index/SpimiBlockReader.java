@@ -0,0 +1,155 @@
+package edu.nd.sirs.index;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads a block file written by {@link SpimiBlock} one term at a time, and
+ * the postings of the current term one at a time.
+ *
+ * @author tweninge
+ *
+ */
+public class SpimiBlockReader {
+
+	private DataInputStream in;
+	private int termsLeft;
+	private String term;
+	private int postingsLeft;
+	private int docId;
+	private int field;
+	private int frequency;
+	private int[] positions;
+	private int positionsLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            block file
+	 * @param bsize
+	 *            read buffer size in bytes
+	 * @throws IOException
+	 */
+	public SpimiBlockReader(File file, int bsize) throws IOException {
+		this(file, bsize, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 *            block file
+	 * @param bsize
+	 *            read buffer size in bytes
+	 * @param positions
+	 *            true if the block was written with positions
+	 * @throws IOException
+	 */
+	public SpimiBlockReader(File file, int bsize, boolean positions)
+			throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+				file), bsize));
+		termsLeft = in.readInt();
+		if (positions) {
+			this.positions = new int[16];
+		}
+	}
+
+	/**
+	 * Moves to the next term, skipping what is left of the postings of the
+	 * current one
+	 *
+	 * @return false at the end of the block
+	 * @throws IOException
+	 */
+	public boolean nextTerm() throws IOException {
+		while (nextPosting()) {
+		}
+		if (termsLeft == 0) {
+			term = null;
+			return false;
+		}
+		termsLeft--;
+		term = in.readUTF();
+		postingsLeft = in.readInt();
+		return true;
+	}
+
+	/**
+	 * Moves to the next posting of the current term
+	 *
+	 * @return false after the last posting of the term
+	 * @throws IOException
+	 */
+	public boolean nextPosting() throws IOException {
+		if (postingsLeft == 0) {
+			return false;
+		}
+		postingsLeft--;
+		docId = in.readInt();
+		field = in.readInt();
+		frequency = in.readInt();
+		if (positions != null) {
+			positionsLength = 0;
+			for (int read = 0; read < frequency;) {
+				int field = in.readInt();
+				int n = in.readInt();
+				if (positionsLength + 2 + n > positions.length) {
+					positions = Arrays.copyOf(positions, Math.max(
+							positionsLength + 2 + n, 2 * positions.length));
+				}
+				positions[positionsLength++] = field;
+				positions[positionsLength++] = n;
+				for (int i = 0; i < n; i++) {
+					positions[positionsLength++] = in.readInt();
+				}
+				read += n;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return current term, null at the end of the block
+	 */
+	public String getTerm() {
+		return term;
+	}
+
+	public int getDocId() {
+		return docId;
+	}
+
+	public int getField() {
+		return field;
+	}
+
+	public int getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * @return positions of the current posting grouped by field, see
+	 *         InvertedIndexWriter.addPosting(), or null if the block has no
+	 *         positions
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * @return number of ints the positions of the current posting take
+	 */
+	public int getPositionsLength() {
+		return positionsLength;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
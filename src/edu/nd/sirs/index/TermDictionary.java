@@ -0,0 +1,233 @@
+package edu.nd.sirs.index;
+
+import java.util.Arrays;
+
+/**
+ * Maps terms to term ids while indexing. Ids are handed out in the order
+ * terms are first added, starting at 0.
+ *
+ * The characters of all terms are appended to one shared char array and a
+ * term is identified by its id, so the dictionary holds no object per term.
+ * Lookups hash the characters and probe an open-addressing table of ids
+ * linearly; the hash of every term is kept so probing only compares
+ * characters when the hashes match, and growing the table does not rehash
+ * any term. The table is kept at most half full.
+ *
+ * Not thread safe.
+ *
+ * @author tweninge
+ *
+ */
+public class TermDictionary {
+
+	private char[] chars;
+	private int used;
+
+	/**
+	 * start of every term in chars, with one extra entry marking the end of
+	 * the last term
+	 */
+	private int[] starts;
+	private int[] hashes;
+	private int size;
+
+	/**
+	 * term id + 1 per slot, 0 for empty slots
+	 */
+	private int[] table;
+	private int mask;
+
+	private char[] scratch;
+
+	public TermDictionary() {
+		this(1024);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param expectedTerms
+	 *            number of terms to size the dictionary for
+	 */
+	public TermDictionary(int expectedTerms) {
+		int capacity = Math.max(16, expectedTerms);
+		chars = new char[capacity * 8];
+		starts = new int[capacity + 1];
+		hashes = new int[capacity];
+		table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+		mask = table.length - 1;
+		scratch = new char[64];
+	}
+
+	/**
+	 * Looks up a term and adds it if it is new
+	 *
+	 * @param term
+	 *            characters of the term
+	 * @param offset
+	 *            first character
+	 * @param length
+	 *            number of characters
+	 * @return term id
+	 */
+	public int add(char[] term, int offset, int length) {
+		int hash = hash(term, offset, length);
+		int slot = find(term, offset, length, hash);
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+
+		int id = size++;
+		if (size == hashes.length) {
+			starts = Arrays.copyOf(starts, hashes.length * 2 + 1);
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+		}
+		if (used + length > chars.length) {
+			chars = Arrays.copyOf(chars,
+					Math.max(chars.length * 2, used + length));
+		}
+		System.arraycopy(term, offset, chars, used, length);
+		used += length;
+		starts[id + 1] = used;
+		hashes[id] = hash;
+		table[slot] = id + 1;
+
+		if (size * 2 > table.length) {
+			grow();
+		}
+		return id;
+	}
+
+	/**
+	 * Looks up a term and adds it if it is new
+	 *
+	 * @param term
+	 *            term
+	 * @return term id
+	 */
+	public int add(String term) {
+		return add(scratch(term), 0, term.length());
+	}
+
+	/**
+	 * @param term
+	 *            characters of the term
+	 * @param offset
+	 *            first character
+	 * @param length
+	 *            number of characters
+	 * @return term id, or -1 if the term was never added
+	 */
+	public int get(char[] term, int offset, int length) {
+		int slot = find(term, offset, length, hash(term, offset, length));
+		return table[slot] - 1;
+	}
+
+	/**
+	 * @param term
+	 *            term
+	 * @return term id, or -1 if the term was never added
+	 */
+	public int get(String term) {
+		return get(scratch(term), 0, term.length());
+	}
+
+	/**
+	 * Copies a String into the reused scratch array
+	 */
+	private char[] scratch(String term) {
+		if (scratch.length < term.length()) {
+			scratch = new char[Math.max(term.length(), scratch.length * 2)];
+		}
+		term.getChars(0, term.length(), scratch, 0);
+		return scratch;
+	}
+
+	/**
+	 * @param termId
+	 *            term id
+	 * @return the term
+	 */
+	public String getTerm(int termId) {
+		return new String(chars, starts[termId], starts[termId + 1]
+				- starts[termId]);
+	}
+
+	/**
+	 * @return number of terms
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return every term, in the String order the lexicon is written in
+	 */
+	public String[] sortedTerms() {
+		String[] terms = new String[size];
+		for (int i = 0; i < size; i++) {
+			terms[i] = getTerm(i);
+		}
+		Arrays.sort(terms);
+		return terms;
+	}
+
+	/**
+	 * Finds the slot holding the term, or the empty slot where it belongs
+	 */
+	private int find(char[] term, int offset, int length, int hash) {
+		int slot = hash & mask;
+		while (true) {
+			int entry = table[slot];
+			if (entry == 0) {
+				return slot;
+			}
+			int id = entry - 1;
+			if (hashes[id] == hash && equals(id, term, offset, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equals(int id, char[] term, int offset, int length) {
+		int start = starts[id];
+		if (starts[id + 1] - start != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (chars[start + i] != term[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the table, placing ids by their stored hashes
+	 */
+	private void grow() {
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * String.hashCode() of the characters with its bits spread, since
+	 * slots are taken from the low bits
+	 */
+	private static int hash(char[] term, int offset, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + term[offset + i];
+		}
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,107 @@
+package edu.nd.sirs.index;
+
+import java.util.List;
+
+/**
+ * Decides which segments to merge. Segments are put in tiers by their
+ * number of documents: tier 0 holds segments of fewer than floorDocs *
+ * segmentsPerTier documents, and every tier above holds segments
+ * segmentsPerTier times larger. Once segmentsPerTier adjacent segments are
+ * in the same tier they are merged into one segment of the tier above, so
+ * the number of segments grows with the logarithm of the number of
+ * documents and every document is merged about once per tier.
+ *
+ * Only adjacent segments are merged, which keeps the document order. The
+ * base index built by a full run of the Indexer is never merged.
+ *
+ * A segment with at least MAX_DELETED of its documents deleted is merged on
+ * its own when no other merge is due, which purges the deleted documents.
+ *
+ * @author tweninge
+ *
+ */
+public class TieredMergePolicy {
+
+	private static final int SEGMENTS_PER_TIER = 10;
+	private static final int FLOOR_DOCS = 1000;
+	private static final double MAX_DELETED = 0.3;
+
+	private int segmentsPerTier;
+	private int floorDocs;
+
+	/**
+	 * Constructor with SEGMENTS_PER_TIER and FLOOR_DOCS
+	 */
+	public TieredMergePolicy() {
+		this(SEGMENTS_PER_TIER, FLOOR_DOCS);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param segmentsPerTier
+	 *            number of segments of a tier that are merged, at least 2
+	 * @param floorDocs
+	 *            segments smaller than this are counted as this large
+	 */
+	public TieredMergePolicy(int segmentsPerTier, int floorDocs) {
+		this.segmentsPerTier = Math.max(2, segmentsPerTier);
+		this.floorDocs = Math.max(1, floorDocs);
+	}
+
+	/**
+	 * Finds the oldest run of segmentsPerTier adjacent segments of the same
+	 * tier, or else the oldest segment with too many deleted documents
+	 *
+	 * @param segments
+	 *            segment list
+	 * @return first segment and the segment after the last one to merge, or
+	 *         null if no segments need to be merged
+	 */
+	public int[] findMerge(List<SegmentInfo> segments) {
+		if (segments == null) {
+			return null;
+		}
+		int start = 0;
+		int startTier = -1;
+		for (int i = 0; i < segments.size(); i++) {
+			SegmentInfo s = segments.get(i);
+			int t = s.isBase() ? -1 : tier(s.getNumDocs());
+			if (t != startTier || t < 0) {
+				start = i;
+				startTier = t;
+			}
+			if (t >= 0 && i - start + 1 == segmentsPerTier) {
+				return new int[] { start, i + 1 };
+			}
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			SegmentInfo s = segments.get(i);
+			if (s.isBase() || s.getNumDocs() == 0) {
+				continue;
+			}
+			int deleted = LiveDocs.countDeleted(
+					LiveDocs.read(s.getDirectory()), s.getNumDocs());
+			if (deleted >= MAX_DELETED * s.getNumDocs()) {
+				return new int[] { i, i + 1 };
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param numDocs
+	 *            number of documents of a segment
+	 * @return tier of the segment
+	 */
+	int tier(int numDocs) {
+		long size = Math.max(numDocs, floorDocs);
+		long limit = (long) floorDocs * segmentsPerTier;
+		int tier = 0;
+		while (size >= limit) {
+			tier++;
+			limit *= segmentsPerTier;
+		}
+		return tier;
+	}
+}
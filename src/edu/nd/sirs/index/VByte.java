@@ -0,0 +1,68 @@
+package edu.nd.sirs.index;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-byte integer coding. Each byte holds seven bits of the value,
+ * least significant group first, and the high bit is set on every byte but
+ * the last. Small numbers, like the gaps between neighbouring docids, take a
+ * single byte.
+ *
+ * @author tweninge
+ *
+ */
+public class VByte {
+
+	private VByte() {
+	}
+
+	/**
+	 * Writes a non-negative integer
+	 *
+	 * @param out
+	 *            stream to write to
+	 * @param v
+	 *            value to write
+	 * @throws IOException
+	 */
+	public static void write(OutputStream out, int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * Reads an integer written by write() from the current buffer position
+	 *
+	 * @param in
+	 *            buffer to read from
+	 * @return decoded value
+	 */
+	public static int read(ByteBuffer in) {
+		int b = in.get();
+		int v = b & 0x7F;
+		for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+			b = in.get();
+			v |= (b & 0x7F) << shift;
+		}
+		return v;
+	}
+
+	/**
+	 * @param v
+	 *            value
+	 * @return number of bytes write() uses for v
+	 */
+	public static int size(int v) {
+		int n = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,163 @@
+package edu.nd.sirs.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into runs of letters, digits and underscores and case folds
+ * them in the same pass, the work WhitespaceTextTokenizer and
+ * CaseFoldingNormalizer do together, but without a regular expression and
+ * without a String per token.
+ *
+ * ASCII characters are classified and folded with a lookup table. Other
+ * characters fall back to Character.isLetterOrDigit() and
+ * Character.toLowerCase(), so accented and non-Latin words stay whole where
+ * \W+ would break them apart. No empty tokens are produced.
+ *
+ * Tokens are handed to a TokenHandler in a buffer that is reused, and
+ * CharSequences are copied into a reused array before scanning, so a
+ * tokenizer must only be used by one thread at a time.
+ *
+ * @author tweninge
+ *
+ */
+public class CaseFoldingTokenizer implements ITokenizer {
+
+	/**
+	 * Folded form of every ASCII word character, 0 for the others
+	 */
+	private static final char[] ASCII = new char[128];
+
+	static {
+		for (char c = '0'; c <= '9'; c++) {
+			ASCII[c] = c;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			ASCII[c] = c;
+			ASCII[c - 'a' + 'A'] = c;
+		}
+		ASCII['_'] = '_';
+	}
+
+	private char[] term;
+	private char[] chars;
+
+	public CaseFoldingTokenizer() {
+		term = new char[32];
+		chars = new char[1024];
+	}
+
+	/**
+	 * Tokenizes text
+	 *
+	 * @param text
+	 *            text to tokenize
+	 * @param handler
+	 *            receives the tokens
+	 * @return number of tokens
+	 */
+	public int tokenize(CharSequence text, TokenHandler handler) {
+		int n = text.length();
+		if (chars.length < n) {
+			chars = new char[Math.max(n, chars.length * 2)];
+		}
+		if (text instanceof String) {
+			((String) text).getChars(0, n, chars, 0);
+		} else {
+			for (int i = 0; i < n; i++) {
+				chars[i] = text.charAt(i);
+			}
+		}
+		return tokenize(chars, 0, n, handler);
+	}
+
+	/**
+	 * Tokenizes part of a character array
+	 *
+	 * @param text
+	 *            characters to tokenize
+	 * @param offset
+	 *            first character
+	 * @param count
+	 *            number of characters
+	 * @param handler
+	 *            receives the tokens, offsets are indexes into text
+	 * @return number of tokens
+	 */
+	public int tokenize(char[] text, int offset, int count,
+			TokenHandler handler) {
+		int end = offset + count;
+		int tokens = 0;
+		int length = 0;
+		int start = 0;
+		int i = offset;
+		while (i < end) {
+			char c = text[i];
+			if (c < 128) {
+				char f = ASCII[c];
+				if (f != 0) {
+					if (length == 0) {
+						start = i;
+					}
+					append(length++, f);
+				} else if (length > 0) {
+					handler.token(term, length, start);
+					tokens++;
+					length = 0;
+				}
+				i++;
+				continue;
+			}
+
+			int cp = Character.codePointAt(text, i, end);
+			if (Character.isLetterOrDigit(cp)) {
+				if (length == 0) {
+					start = i;
+				}
+				int folded = Character.toLowerCase(cp);
+				if (Character.isBmpCodePoint(folded)) {
+					append(length++, (char) folded);
+				} else {
+					append(length++, Character.highSurrogate(folded));
+					append(length++, Character.lowSurrogate(folded));
+				}
+			} else if (length > 0) {
+				handler.token(term, length, start);
+				tokens++;
+				length = 0;
+			}
+			i += Character.charCount(cp);
+		}
+		if (length > 0) {
+			handler.token(term, length, start);
+			tokens++;
+		}
+		return tokens;
+	}
+
+	private void append(int at, char c) {
+		if (at == term.length) {
+			char[] larger = new char[term.length * 2];
+			System.arraycopy(term, 0, larger, 0, at);
+			term = larger;
+		}
+		term[at] = c;
+	}
+
+	/**
+	 * Tokenizes and case folds a String
+	 *
+	 * @param str
+	 *            String to tokenize
+	 * @return List of case folded tokens
+	 */
+	public List<String> tokenize(String str) {
+		final List<String> tokens = new ArrayList<String>();
+		tokenize(str, new TokenHandler() {
+			public void token(char[] t, int length, int offset) {
+				tokens.add(new String(t, 0, length));
+			}
+		});
+		return tokens;
+	}
+}
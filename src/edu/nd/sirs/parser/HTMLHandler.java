@@ -0,0 +1,57 @@
+package edu.nd.sirs.parser;
+
+/**
+ * Receives what HTMLTextExtractor finds in a page, in the order it is found.
+ *
+ * @author tweninge
+ *
+ */
+public interface HTMLHandler {
+
+	/**
+	 * Token of the page title
+	 */
+	static final int TITLE = 0;
+
+	/**
+	 * Token of the page body, anchor text included
+	 */
+	static final int BODY = 1;
+
+	/**
+	 * Token of the anchor text of the last link passed to link()
+	 */
+	static final int ANCHOR = 2;
+
+	/**
+	 * Called once with the text of the first title element
+	 *
+	 * @param title
+	 *            title text, whitespace collapsed
+	 */
+	void title(String title);
+
+	/**
+	 * Called when a link starts. The ANCHOR tokens that follow, up to the
+	 * next call, are its anchor text.
+	 *
+	 * @param url
+	 *            absolute URL of the link, or an empty String if the href is
+	 *            missing or relative
+	 */
+	void link(String url);
+
+	/**
+	 * Called for every token
+	 *
+	 * @param part
+	 *            TITLE, BODY or ANCHOR
+	 * @param term
+	 *            case folded characters of the token, in term[0..length).
+	 *            The array is reused, so it must be copied to be kept.
+	 * @param length
+	 *            number of characters
+	 */
+	void token(int part, char[] term, int length);
+
+}
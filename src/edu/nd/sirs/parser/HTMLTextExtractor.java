@@ -0,0 +1,564 @@
+package edu.nd.sirs.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.jsoup.nodes.Entities;
+
+/**
+ * Pulls the title, body text and links out of an HTML page in a single pass
+ * over its characters, without building a DOM. Text is tokenized as it is
+ * read: body text is handed to the tokenizer in chunks, title and anchor text
+ * when their element ends.
+ *
+ * The scanner knows just enough HTML for text extraction: tags and their
+ * attributes, comments, script and style contents, and character
+ * references. Block elements and br separate words as they do in jsoup's
+ * Element.text(); inline elements do not. Text of the first title element
+ * is title text and everything else outside script and style is body text,
+ * anchor text included.
+ *
+ * Pages that end inside a tag, comment, script, style or title are reported
+ * as malformed, so the caller can parse them with jsoup instead. Buffers are
+ * reused from one page to the next, so an extractor must only be used by one
+ * thread at a time.
+ *
+ * @author tweninge
+ *
+ */
+public class HTMLTextExtractor {
+
+	private static final int TEXT = 0;
+	private static final int TAG = 1;
+	private static final int COMMENT = 2;
+	private static final int RAW = 3;
+	private static final int RAW_END = 4;
+	private static final int ENTITY = 5;
+
+	/**
+	 * Body text is tokenized at the first whitespace after this many chars
+	 */
+	private static final int FLUSH_CHARS = 4096;
+	private static final int MAX_ENTITY = 32;
+
+	/**
+	 * Elements jsoup treats as blocks
+	 */
+	private static final Set<String> BLOCKS = new HashSet<String>(
+			Arrays.asList("html", "head", "body", "frameset", "script",
+					"noscript", "style", "meta", "link", "title", "frame",
+					"noframes", "section", "nav", "aside", "hgroup", "header",
+					"footer", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul",
+					"ol", "pre", "div", "blockquote", "hr", "address",
+					"figure", "figcaption", "form", "fieldset", "ins", "del",
+					"s", "dl", "dt", "dd", "li", "table", "caption", "thead",
+					"tfoot", "tbody", "colgroup", "col", "tr", "th", "td",
+					"video", "audio", "canvas", "details", "menu",
+					"plaintext", "br"));
+
+	private final CaseFoldingTokenizer tokenizer;
+	private final char[] input;
+	private final StringBuilder tag;
+	private final StringBuilder entity;
+	private final TextBuffer body;
+	private final TextBuffer anchor;
+	private final TextBuffer title;
+
+	private final TokenHandler titleTokens;
+	private final TokenHandler bodyTokens;
+	private final TokenHandler anchorTokens;
+
+	private HTMLHandler handler;
+	private int state;
+	private int returnState;
+	private String rawTag;
+	private TextBuffer rawText;
+	private boolean inAnchor;
+	private boolean titleSeen;
+	private char quote;
+	private char lastNonSpace;
+	private int dashes;
+
+	public HTMLTextExtractor() {
+		tokenizer = new CaseFoldingTokenizer();
+		input = new char[8192];
+		tag = new StringBuilder();
+		entity = new StringBuilder();
+		body = new TextBuffer();
+		anchor = new TextBuffer();
+		title = new TextBuffer();
+		titleTokens = new TokenHandler() {
+			public void token(char[] term, int length, int offset) {
+				handler.token(HTMLHandler.TITLE, term, length);
+			}
+		};
+		bodyTokens = new TokenHandler() {
+			public void token(char[] term, int length, int offset) {
+				handler.token(HTMLHandler.BODY, term, length);
+			}
+		};
+		anchorTokens = new TokenHandler() {
+			public void token(char[] term, int length, int offset) {
+				handler.token(HTMLHandler.ANCHOR, term, length);
+			}
+		};
+	}
+
+	/**
+	 * Extracts a page
+	 *
+	 * @param in
+	 *            page to read, not closed
+	 * @param handler
+	 *            receives title, links and tokens
+	 * @return false if the page is malformed, in which case the handler may
+	 *         have seen part of it only
+	 * @throws IOException
+	 */
+	public boolean extract(Reader in, HTMLHandler handler) throws IOException {
+		this.handler = handler;
+		state = TEXT;
+		rawText = null;
+		inAnchor = false;
+		titleSeen = false;
+		body.length = 0;
+
+		int n;
+		while ((n = in.read(input)) != -1) {
+			for (int i = 0; i < n; i++) {
+				process(input[i]);
+			}
+		}
+
+		if (state == ENTITY) {
+			unresolvedEntity();
+		}
+		finishAnchor();
+		flushBody();
+		this.handler = null;
+		return state == TEXT;
+	}
+
+	private void process(char c) {
+		switch (state) {
+		case TEXT:
+			if (c == '<') {
+				state = TAG;
+				tag.setLength(0);
+				quote = 0;
+				lastNonSpace = 0;
+			} else if (c == '&') {
+				startEntity();
+			} else {
+				text(c);
+			}
+			break;
+
+		case TAG:
+			if (tag.length() == 0 && !isAsciiLetter(c) && c != '/' && c != '!'
+					&& c != '?') {
+				// not a tag, jsoup keeps the < as text
+				state = TEXT;
+				text('<');
+				process(c);
+			} else if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				tag.append(c);
+			} else if ((c == '"' || c == '\'') && lastNonSpace == '=') {
+				quote = c;
+				tag.append(c);
+			} else if (c == '>') {
+				state = TEXT;
+				endTag();
+			} else {
+				tag.append(c);
+				if (!isSpace(c)) {
+					lastNonSpace = c;
+				}
+				if (tag.length() == 3 && tag.charAt(0) == '!'
+						&& tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+					state = COMMENT;
+					dashes = 0;
+				}
+			}
+			break;
+
+		case COMMENT:
+			if (c == '>' && dashes >= 2) {
+				state = TEXT;
+			} else {
+				dashes = c == '-' ? dashes + 1 : 0;
+			}
+			break;
+
+		case RAW:
+			if (c == '<') {
+				state = RAW_END;
+				tag.setLength(0);
+			} else if (c == '&' && rawText != null) {
+				startEntity();
+			} else {
+				rawChar(c);
+			}
+			break;
+
+		case RAW_END:
+			// looking for the end tag of the raw element
+			int n = tag.length();
+			if (n <= rawTag.length()) {
+				tag.append(c);
+				char want = n == 0 ? '/' : rawTag.charAt(n - 1);
+				if (Character.toLowerCase(c) != want) {
+					notRawEnd();
+				}
+			} else if (c == '>') {
+				state = TEXT;
+				endTag();
+			} else if (isSpace(c) || c == '/') {
+				tag.append(c);
+				state = TAG;
+				quote = 0;
+				lastNonSpace = c;
+			} else {
+				tag.append(c);
+				notRawEnd();
+			}
+			break;
+
+		case ENTITY:
+			if (c == ';') {
+				int cp = resolve(entity);
+				state = returnState;
+				if (cp < 0) {
+					put('&');
+					for (int i = 0; i < entity.length(); i++) {
+						put(entity.charAt(i));
+					}
+					put(';');
+				} else {
+					putCodePoint(cp);
+				}
+			} else if (entity.length() < MAX_ENTITY
+					&& (isAsciiLetter(c) || (c >= '0' && c <= '9') || (c == '#' && entity
+							.length() == 0))) {
+				entity.append(c);
+			} else {
+				unresolvedEntity();
+				process(c);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * The characters after a < in a raw element turned out not to be its end
+	 * tag, so they are raw text
+	 */
+	private void notRawEnd() {
+		state = RAW;
+		int n = tag.length();
+		char last = tag.charAt(n - 1);
+		rawChar('<');
+		for (int i = 0; i < n - 1; i++) {
+			rawChar(tag.charAt(i));
+		}
+		process(last);
+	}
+
+	private void startEntity() {
+		returnState = state;
+		entity.setLength(0);
+		state = ENTITY;
+	}
+
+	/**
+	 * Writes out an & and the characters after it that did not make up a
+	 * character reference
+	 */
+	private void unresolvedEntity() {
+		state = returnState;
+		put('&');
+		for (int i = 0; i < entity.length(); i++) {
+			put(entity.charAt(i));
+		}
+	}
+
+	private void put(char c) {
+		if (state == RAW) {
+			rawChar(c);
+		} else {
+			text(c);
+		}
+	}
+
+	private void putCodePoint(int cp) {
+		if (Character.isBmpCodePoint(cp)) {
+			put((char) cp);
+		} else {
+			put(Character.highSurrogate(cp));
+			put(Character.lowSurrogate(cp));
+		}
+	}
+
+	private void text(char c) {
+		body.append(c);
+		if (inAnchor) {
+			anchor.append(c);
+		}
+		if (body.length >= FLUSH_CHARS && isSpace(c)) {
+			flushBody();
+		}
+	}
+
+	private void rawChar(char c) {
+		if (rawText != null) {
+			rawText.append(c);
+		}
+	}
+
+	private void flushBody() {
+		tokenizer.tokenize(body.chars, 0, body.length, bodyTokens);
+		body.length = 0;
+	}
+
+	private void finishAnchor() {
+		if (inAnchor) {
+			tokenizer.tokenize(anchor.chars, 0, anchor.length, anchorTokens);
+			inAnchor = false;
+		}
+	}
+
+	/**
+	 * Acts on the tag just read into the tag buffer
+	 */
+	private void endTag() {
+		if (tag.length() == 0 || tag.charAt(0) == '!' || tag.charAt(0) == '?') {
+			return;
+		}
+		boolean closing = tag.charAt(0) == '/';
+		int start = closing ? 1 : 0;
+		int end = start;
+		while (end < tag.length() && !isSpace(tag.charAt(end))
+				&& tag.charAt(end) != '/') {
+			end++;
+		}
+		String name = tag.substring(start, end).toLowerCase(Locale.ROOT);
+		boolean selfClosing = tag.charAt(tag.length() - 1) == '/';
+
+		if (BLOCKS.contains(name)) {
+			text(' ');
+		}
+
+		if (name.equals("a")) {
+			finishAnchor();
+			if (!closing) {
+				handler.link(absoluteUrl(attribute(end, "href")));
+				anchor.length = 0;
+				inAnchor = true;
+			}
+		} else if (name.equals("script") || name.equals("style")
+				|| name.equals("title")) {
+			if (closing) {
+				if (rawText == title) {
+					finishTitle();
+				}
+				rawText = null;
+			} else if (!selfClosing) {
+				state = RAW;
+				rawTag = name;
+				rawText = null;
+				if (name.equals("title") && !titleSeen) {
+					title.length = 0;
+					rawText = title;
+				}
+			}
+		}
+	}
+
+	private void finishTitle() {
+		titleSeen = true;
+		StringBuilder sb = new StringBuilder(title.length);
+		boolean space = false;
+		for (int i = 0; i < title.length; i++) {
+			char c = title.chars[i];
+			if (isSpace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				sb.append(c);
+			}
+		}
+		handler.title(sb.toString());
+		tokenizer.tokenize(title.chars, 0, title.length, titleTokens);
+	}
+
+	/**
+	 * Finds an attribute of the tag in the tag buffer
+	 *
+	 * @param from
+	 *            index just after the tag name
+	 * @param wanted
+	 *            lower case attribute name
+	 * @return the attribute value with character references decoded, or null
+	 */
+	private String attribute(int from, String wanted) {
+		int n = tag.length();
+		int i = from;
+		while (i < n) {
+			while (i < n && (isSpace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+				i++;
+			}
+			int nameStart = i;
+			while (i < n && !isSpace(tag.charAt(i)) && tag.charAt(i) != '='
+					&& tag.charAt(i) != '/') {
+				i++;
+			}
+			String name = tag.substring(nameStart, i);
+			while (i < n && isSpace(tag.charAt(i))) {
+				i++;
+			}
+			String value = "";
+			if (i < n && tag.charAt(i) == '=') {
+				i++;
+				while (i < n && isSpace(tag.charAt(i))) {
+					i++;
+				}
+				if (i < n && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+					char q = tag.charAt(i++);
+					int valueStart = i;
+					while (i < n && tag.charAt(i) != q) {
+						i++;
+					}
+					value = tag.substring(valueStart, i);
+					i++;
+				} else {
+					int valueStart = i;
+					while (i < n && !isSpace(tag.charAt(i))) {
+						i++;
+					}
+					value = tag.substring(valueStart, i);
+				}
+			}
+			if (name.equalsIgnoreCase(wanted)) {
+				return decode(value);
+			}
+			if (i == nameStart) {
+				i++;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves an href the way jsoup's absUrl() does for a page without a
+	 * base URI: absolute URLs are normalized, everything else is dropped
+	 */
+	private static String absoluteUrl(String href) {
+		if (href == null) {
+			return "";
+		}
+		try {
+			return new URL(href.trim()).toExternalForm();
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Decodes the character references of an attribute value
+	 */
+	private static String decode(String value) {
+		int amp = value.indexOf('&');
+		if (amp < 0) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length());
+		sb.append(value, 0, amp);
+		int i = amp;
+		while (i < value.length()) {
+			char c = value.charAt(i);
+			int semi = c == '&' ? value.indexOf(';', i) : -1;
+			if (semi > i + 1 && semi - i <= MAX_ENTITY + 1) {
+				int cp = resolve(value.substring(i + 1, semi));
+				if (cp >= 0) {
+					sb.appendCodePoint(cp);
+					i = semi + 1;
+					continue;
+				}
+			}
+			sb.append(c);
+			i++;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param ref
+	 *            character reference without & and ;
+	 * @return the code point it stands for, or -1 if it is not one
+	 */
+	private static int resolve(CharSequence ref) {
+		int n = ref.length();
+		if (n == 0) {
+			return -1;
+		}
+		if (ref.charAt(0) != '#') {
+			String name = ref.toString();
+			if (Entities.isNamedEntity(name)) {
+				return Entities.getCharacterByName(name);
+			}
+			return -1;
+		}
+		boolean hex = n > 1 && (ref.charAt(1) == 'x' || ref.charAt(1) == 'X');
+		int i = hex ? 2 : 1;
+		if (i == n) {
+			return -1;
+		}
+		int cp = 0;
+		for (; i < n; i++) {
+			int d = Character.digit(ref.charAt(i), hex ? 16 : 10);
+			if (d < 0) {
+				return -1;
+			}
+			cp = cp * (hex ? 16 : 10) + d;
+			if (cp > Character.MAX_CODE_POINT) {
+				return 0xfffd;
+			}
+		}
+		return cp == 0 ? 0xfffd : cp;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Growable character buffer that is tokenized in place
+	 */
+	private static class TextBuffer {
+		char[] chars = new char[256];
+		int length;
+
+		void append(char c) {
+			if (length == chars.length) {
+				chars = Arrays.copyOf(chars, length * 2);
+			}
+			chars[length++] = c;
+		}
+	}
+}
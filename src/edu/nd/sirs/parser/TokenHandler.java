@@ -0,0 +1,26 @@
+package edu.nd.sirs.parser;
+
+/**
+ * Receives the tokens found by CaseFoldingTokenizer one at a time, without a
+ * String being created for them.
+ *
+ * @author tweninge
+ *
+ */
+public interface TokenHandler {
+
+	/**
+	 * Called for every token, in text order
+	 *
+	 * @param term
+	 *            case folded characters of the token, in term[0..length).
+	 *            The array is reused for the next token, so it must be
+	 *            copied to be kept.
+	 * @param length
+	 *            number of characters
+	 * @param offset
+	 *            position of the first character of the token in the text
+	 */
+	void token(char[] term, int length, int offset);
+
+}
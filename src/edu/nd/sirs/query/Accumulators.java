@@ -0,0 +1,143 @@
+package edu.nd.sirs.query;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Score accumulators for term-at-a-time matching, one slot per document in
+ * primitive arrays. The documents that were touched are listed, so clearing
+ * only resets those slots instead of the whole arrays.
+ *
+ * Accumulators are pooled per thread; acquire() one for a query and release()
+ * it when done, after which it must not be used.
+ *
+ * @author tweninge
+ *
+ */
+public class Accumulators {
+
+	private static final ThreadLocal<ArrayDeque<Accumulators>> POOL = new ThreadLocal<ArrayDeque<Accumulators>>() {
+		@Override
+		protected ArrayDeque<Accumulators> initialValue() {
+			return new ArrayDeque<Accumulators>();
+		}
+	};
+
+	private float[] scores;
+	private short[] occurrences;
+	private boolean[] seen;
+	private int[] touched;
+	private int size;
+
+	/**
+	 * Constructor, use acquire()
+	 *
+	 * @param numDocs
+	 *            number of documents in the index
+	 */
+	private Accumulators(int numDocs) {
+		scores = new float[numDocs];
+		occurrences = new short[numDocs];
+		seen = new boolean[numDocs];
+		touched = new int[Math.max(16, numDocs / 16)];
+		size = 0;
+	}
+
+	/**
+	 * Takes cleared accumulators from the pool of the calling thread, or
+	 * creates them if the pool is empty.
+	 *
+	 * @param numDocs
+	 *            number of documents in the index
+	 * @return accumulators with no documents
+	 */
+	public static Accumulators acquire(int numDocs) {
+		Accumulators acc = POOL.get().poll();
+		if (acc == null) {
+			return new Accumulators(numDocs);
+		}
+		if (acc.scores.length < numDocs) {
+			acc.grow(numDocs);
+		}
+		return acc;
+	}
+
+	/**
+	 * Clears the accumulators and returns them to the pool of the calling
+	 * thread.
+	 */
+	public void release() {
+		clear();
+		POOL.get().push(this);
+	}
+
+	/**
+	 * Adds a score to a document
+	 *
+	 * @param docid
+	 *            document id
+	 * @param score
+	 *            score to add
+	 * @param occurrence
+	 *            occurrence mask to combine with the one of the document
+	 */
+	public void add(int docid, float score, short occurrence) {
+		if (docid >= scores.length) {
+			grow(Math.max(docid + 1, scores.length * 2));
+		}
+		if (!seen[docid]) {
+			seen[docid] = true;
+			if (size == touched.length) {
+				touched = Arrays.copyOf(touched, size * 2);
+			}
+			touched[size++] = docid;
+		}
+		scores[docid] += score;
+		occurrences[docid] |= occurrence;
+	}
+
+	/**
+	 * @return number of documents with a score
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the documents out in docid order
+	 *
+	 * @return new ResultSet holding every document with a score
+	 */
+	public ResultSet toResultSet() {
+		Arrays.sort(touched, 0, size);
+		int[] d = new int[size];
+		float[] s = new float[size];
+		short[] o = new short[size];
+		for (int i = 0; i < size; i++) {
+			int docid = touched[i];
+			d[i] = docid;
+			s[i] = scores[docid];
+			o[i] = occurrences[docid];
+		}
+		return new ResultSet(d, s, o);
+	}
+
+	/**
+	 * Resets the touched documents
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			int docid = touched[i];
+			scores[docid] = 0f;
+			occurrences[docid] = 0;
+			seen[docid] = false;
+		}
+		size = 0;
+	}
+
+	private void grow(int numDocs) {
+		scores = Arrays.copyOf(scores, numDocs);
+		occurrences = Arrays.copyOf(occurrences, numDocs);
+		seen = Arrays.copyOf(seen, numDocs);
+	}
+}
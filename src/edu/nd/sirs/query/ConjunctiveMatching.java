@@ -0,0 +1,204 @@
+package edu.nd.sirs.query;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.index.InvertedIndex;
+import edu.nd.sirs.index.LiveDocs;
+import edu.nd.sirs.index.PostingIterator;
+import edu.nd.sirs.index.PostingList;
+
+/**
+ * Boolean AND matching. A document matches if it contains every query term,
+ * in any field. The posting lists are intersected shortest first: the
+ * shortest list proposes a document and every other list advances to it,
+ * galloping over the skip blocks, until all lists agree. Lists never score
+ * documents that are not in the intersection.
+ *
+ * The terms do not have to share a field: a document that holds one term in
+ * its title and another in its body matches. There is no limit on the
+ * number of terms.
+ *
+ * Matching documents score the sum of the weights of the fields they contain
+ * each query term in. Deleted documents never match, and neither do
+ * documents without the quoted phrases of the query.
+ *
+ * @author tweninge
+ *
+ */
+public class ConjunctiveMatching {
+	private static Logger logger = LoggerFactory
+			.getLogger(ConjunctiveMatching.class);
+
+	private static final int RETRIEVED_SET_SIZE = 200;
+	private static final String CACHE_KEY = "ConjunctiveMatching";
+
+	private InvertedIndex index;
+	private QueryCache cache;
+
+	/**
+	 * Simple constructor.
+	 */
+	public ConjunctiveMatching() {
+		index = InvertedIndex.getInstance();
+	}
+
+	/**
+	 * Answers queries from a result cache where possible
+	 *
+	 * @param cache
+	 *            cache to look results up in and add them to, or null
+	 */
+	public void setQueryCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Finds the documents that contain every query term and ranks them.
+	 *
+	 * @param query
+	 *            Query with terms
+	 * @return ResultSet of ranked documents; its exact result size is the
+	 *         number of matching documents
+	 */
+	public ResultSet match(Query query) {
+		if (cache == null) {
+			return evaluate(query);
+		}
+		int generation = InvertedIndex.getGeneration();
+		ResultSet rs = cache.get(CACHE_KEY, query);
+		if (rs == null) {
+			rs = evaluate(query);
+			cache.put(CACHE_KEY, query, rs, generation);
+		}
+		return rs;
+	}
+
+	private ResultSet evaluate(Query query) {
+		TermUnion[] terms = openTerms(query);
+		TopKHeap top = new TopKHeap(RETRIEVED_SET_SIZE);
+		if (terms == null) {
+			return top.toResultSet();
+		}
+		short occurrence = (short) ((1 << Math.min(terms.length, 16)) - 1);
+		LiveDocs liveDocs = LiveDocs.getInstance();
+		BitSet phraseDocs = PhraseFilter.match(index, query);
+
+		int matches = 0;
+		int doc = terms[0].nextDoc();
+		while (doc != PostingIterator.NO_MORE_DOCS) {
+			int t = agree(terms, doc);
+			if (t == terms.length
+					&& (!liveDocs.isLive(doc) || phraseDocs != null
+							&& !phraseDocs.get(doc))) {
+				doc = terms[0].nextDoc();
+			} else if (t == terms.length) {
+				float score = 0f;
+				for (TermUnion term : terms) {
+					score += term.weight();
+				}
+				top.insert(doc, score, occurrence);
+				matches++;
+				doc = terms[0].nextDoc();
+			} else {
+				doc = terms[0].advance(terms[t].docId());
+			}
+		}
+
+		ResultSet rs = top.toResultSet();
+		rs.setExactResultSize(matches);
+		return rs;
+	}
+
+	/**
+	 * Counts the documents that contain every query term without scoring or
+	 * collecting them.
+	 *
+	 * @param query
+	 *            Query with terms
+	 * @return exact number of matching documents
+	 */
+	public int count(Query query) {
+		TermUnion[] terms = openTerms(query);
+		if (terms == null) {
+			return 0;
+		}
+		LiveDocs liveDocs = LiveDocs.getInstance();
+		BitSet phraseDocs = PhraseFilter.match(index, query);
+
+		int matches = 0;
+		int doc = terms[0].nextDoc();
+		while (doc != PostingIterator.NO_MORE_DOCS) {
+			int t = agree(terms, doc);
+			if (t == terms.length) {
+				if (liveDocs.isLive(doc)
+						&& (phraseDocs == null || phraseDocs.get(doc))) {
+					matches++;
+				}
+				doc = terms[0].nextDoc();
+			} else {
+				doc = terms[0].advance(terms[t].docId());
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Advances every list after the first to the document proposed by the
+	 * first.
+	 *
+	 * @return number of lists, if they all contain the document, otherwise the
+	 *         index of the first list that went past it
+	 */
+	private static int agree(TermUnion[] terms, int doc) {
+		for (int t = 1; t < terms.length; t++) {
+			int d = terms[t].docId();
+			if (d < doc) {
+				d = terms[t].advance(doc);
+			}
+			if (d != doc) {
+				return t;
+			}
+		}
+		return terms.length;
+	}
+
+	/**
+	 * Opens the postings of every distinct query term, shortest first.
+	 *
+	 * @return the terms, or null if no document can match
+	 */
+	private TermUnion[] openTerms(Query query) {
+		Set<String> distinct = new LinkedHashSet<String>(query.getTerms());
+		if (distinct.isEmpty()) {
+			return null;
+		}
+		Field[] fields = Fields.getInstance().getFields()
+				.toArray(new Field[0]);
+		TermUnion[] terms = new TermUnion[distinct.size()];
+		int i = 0;
+		for (String term : distinct) {
+			PostingList postings = index.getPostings(term);
+			if (postings == null) {
+				logger.debug("Term not found: " + term);
+				return null;
+			}
+			terms[i++] = new TermUnion(postings, fields);
+		}
+		Arrays.sort(terms, new Comparator<TermUnion>() {
+			public int compare(TermUnion a, TermUnion b) {
+				return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0
+						: 1);
+			}
+		});
+		return terms;
+	}
+}
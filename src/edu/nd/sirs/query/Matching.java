@@ -1,21 +1,24 @@
 package edu.nd.sirs.query;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import edu.nd.sirs.docs.Field;
 import edu.nd.sirs.docs.Fields;
 import edu.nd.sirs.docs.TextDocument;
 import edu.nd.sirs.index.DirectIndex;
 import edu.nd.sirs.index.InvertedIndex;
-import edu.nd.sirs.index.Lexicon;
-import edu.nd.sirs.index.Posting;
+import edu.nd.sirs.index.LiveDocs;
+import edu.nd.sirs.index.PostingIterator;
 import edu.nd.sirs.index.PostingList;
 import edu.nd.sirs.retrievalmodel.BooleanRM;
 import edu.nd.sirs.retrievalmodel.BooleanScoreModifier;
+import edu.nd.sirs.retrievalmodel.DocumentScoreModifier;
 import edu.nd.sirs.retrievalmodel.IRetrievalModel;
 import edu.nd.sirs.retrievalmodel.ScoreModifier;
 
@@ -29,13 +32,41 @@ public class Matching {
 
 	private static final int RETRIEVED_SET_SIZE = 200;
 
-	private HashMap<String, Integer> queryTermsToMatchList = null;
+	private HashMap<String, PostingList> queryTermsToMatchList = null;
 	private List<ScoreModifier> scoreModifiers = null;
 
+	/**
+	 * Accumulate every matching document term by term
+	 */
+	public static final int TERM_AT_A_TIME = 0;
+	/**
+	 * Score one document at a time across all terms and fields, keeping only
+	 * the top documents
+	 */
+	public static final int DOCUMENT_AT_A_TIME = 1;
+	/**
+	 * Document at a time, skipping documents that cannot enter the top
+	 * documents (Block-Max WAND)
+	 */
+	public static final int WAND = 2;
+
+	private static Logger logger = LoggerFactory.getLogger(Matching.class);
+
 	private int numRetrievedDocs;
 	private InvertedIndex index;
+	private LiveDocs liveDocs;
+	private BitSet phraseDocs;
 	private ResultSet resultSet;
 	private IRetrievalModel scorer;
+	private int strategy;
+	private QueryCache cache;
+
+	private Field[] fieldOrder;
+	private float[] fieldScores;
+	private short[] fieldOccurrences;
+	private boolean[] fieldHit;
+	private long numScoredPostings;
+	private long numSkippedPostings;
 
 	/**
 	 * Simple constructor.
@@ -44,9 +75,47 @@ public class Matching {
 	 *            Retrieval model object to use to score documents.
 	 */
 	public Matching(IRetrievalModel retrievalModel) {
+		this(retrievalModel, TERM_AT_A_TIME);
+	}
+
+	/**
+	 * Constructor choosing the evaluation strategy.
+	 * 
+	 * @param retrievalModel
+	 *            Retrieval model object to use to score documents.
+	 * @param strategy
+	 *            TERM_AT_A_TIME, DOCUMENT_AT_A_TIME or WAND
+	 */
+	public Matching(IRetrievalModel retrievalModel, int strategy) {
 		scoreModifiers = new ArrayList<ScoreModifier>();
 		scorer = retrievalModel;
-		index = InvertedIndex.getInstance();		
+		index = InvertedIndex.getInstance();
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Answers queries from a result cache where possible
+	 * 
+	 * @param cache
+	 *            cache to look results up in and add them to, or null
+	 */
+	public void setQueryCache(QueryCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return description of everything besides the query and the field
+	 *         weights that the results depend on: the retrieval model, the
+	 *         score modifiers and the strategy
+	 */
+	public String getCacheKey() {
+		StringBuffer sb = new StringBuffer("Matching:");
+		sb.append(scorer.getClass().getName());
+		for (ScoreModifier sm : scoreModifiers) {
+			sb.append(',').append(sm.getClass().getName());
+		}
+		sb.append(':').append(strategy);
+		return sb.toString();
 	}
 
 	/**
@@ -57,104 +126,361 @@ public class Matching {
 	 * @return ResultSet of ranked documents
 	 */
 	public ResultSet match(Query queryTerms) {
+		if (cache == null) {
+			return evaluate(queryTerms);
+		}
+		String key = getCacheKey();
+		int generation = InvertedIndex.getGeneration();
+		ResultSet rs = cache.get(key, queryTerms);
+		if (rs == null) {
+			rs = evaluate(queryTerms);
+			cache.put(key, queryTerms, rs, generation);
+		}
+		return rs;
+	}
+
+	private ResultSet evaluate(Query queryTerms) {
+		liveDocs = LiveDocs.getInstance();
+		phraseDocs = PhraseFilter.match(index, queryTerms);
+		if (strategy != TERM_AT_A_TIME && modifiersScoreDocuments()) {
+			if (strategy == WAND) {
+				return matchWand(queryTerms);
+			}
+			return matchDocumentAtATime(queryTerms);
+		}
 		init(queryTerms);
 
 		numRetrievedDocs = 0;
 
-		final HashMap<Field, ResultSet> results = new HashMap<Field, ResultSet>();
-
 		final int queryLength = queryTermsToMatchList.size();
 
 		// The posting list iterator array (one per term) and initialization
 		List<PostingList> postingListArray = new ArrayList<PostingList>(
 				queryLength);
 		for (String term : queryTermsToMatchList.keySet()) {
-			int termId = queryTermsToMatchList.get(term);
-
-			postingListArray.add(index.getPostings(termId));
+			postingListArray.add(queryTermsToMatchList.get(term));
 
 			// long docid = postingListArray(i).getId();
 			// postingHeap.enqueue((docid << 32) + i);
 		}
 
-		for (Field f : Fields.getInstance().getFields()) {
+		int numDocs = DirectIndex.getInstance().getNumDocs();
+		Accumulators accumulators = Accumulators.acquire(numDocs);
+		Accumulators finalscores = Accumulators.acquire(numDocs);
+		ResultSet rs;
+		try {
+			for (Field f : Fields.getInstance().getFields()) {
+
+				// while not end of all posting lists
+				for (int currentPostingListIndex = 0; currentPostingListIndex < postingListArray
+						.size(); currentPostingListIndex++) {
+
+					PostingList currentPostingList = postingListArray
+							.get(currentPostingListIndex);
+					long df = currentPostingList.getDocumentFrequency();
+					short occurrence = (currentPostingListIndex < 16) ? (short) (1 << currentPostingListIndex)
+							: 0;
+					PostingIterator postings = currentPostingList.iterator(f);
+					while (postings.nextDoc() != PostingIterator.NO_MORE_DOCS) {
+						if (!matches(postings.docId())) {
+							continue;
+						}
+						accumulators.add(postings.docId(),
+								scorer.score(postings.posting(), df),
+								occurrence);
+					}
+				}
 
-			final HashMap<Integer, Hit> accumulators = new HashMap<Integer, Hit>();
+				resultSet = accumulators.toResultSet();
+				accumulators.clear();
+				numRetrievedDocs = resultSet.getScores().length;
+				finalize(queryTerms, f);
 
-			boolean targetResultSetSizeReached = false;
-			PostingList currentPostingList = null;
+				float weight = Fields.getInstance().getWeight(f);
+				for (int i = 0; i < resultSet.getDocids().length; i++) {
+					finalscores.add(resultSet.getDocids()[i],
+							resultSet.getScores()[i] * weight, (short) 1);
+				}
+			}
 
-			// while not end of all posting lists
-			for (int currentPostingListIndex = 0; currentPostingListIndex < postingListArray
-					.size(); currentPostingListIndex++) {
+			rs = finalscores.toResultSet();
+			numRetrievedDocs = finalscores.size();
+		} finally {
+			accumulators.release();
+			finalscores.release();
+		}
+
+		int setSize = Math.min(RETRIEVED_SET_SIZE, numRetrievedDocs);
+		if (setSize == 0)
+			setSize = numRetrievedDocs;
 
-				currentPostingList = postingListArray
-						.get(currentPostingListIndex);
-				for (int currentPosting = 0; currentPosting < currentPostingList
-						.size(f); currentPosting++) {
+		rs.setExactResultSize(numRetrievedDocs);
+		rs.setResultSize(setSize);
+		rs.sort(setSize);
 
-					int currentDocId = postingListArray
-							.get(currentPostingListIndex).getPostings(f)
-							.get(currentPosting).getDocid();
+		return rs;
 
-					// We create a new hit for each new doc id considered
-					Hit currentCandidate = null;
-					if (accumulators.containsKey(currentDocId)) {
-						currentCandidate = accumulators.get(currentDocId);
-					} else {
-						currentCandidate = new Hit(currentDocId);
-					}
-					accumulators.put(currentDocId, currentCandidate);
+	}
 
-					assignScore(currentPostingListIndex, scorer,
-							currentCandidate, currentPostingList.getPostings(f)
-									.get(currentPosting),
-							currentPostingList.getDocumentFrequency(), f);
+	/**
+	 * Document-at-a-time evaluation. Walks the postings of every query term
+	 * in every field in docid order, scores each document once across all
+	 * fields and keeps the best RETRIEVED_SET_SIZE documents in a bounded
+	 * heap. Score modifiers are applied to each document as it is scored.
+	 * 
+	 * @param queryTerms
+	 *            Query with terms
+	 * @return ResultSet of ranked documents
+	 */
+	private ResultSet matchDocumentAtATime(Query queryTerms) {
+		TermCursor[] cursors = openCursors(queryTerms);
+		TopKHeap top = new TopKHeap(RETRIEVED_SET_SIZE);
+		numRetrievedDocs = 0;
+
+		while (true) {
+			int doc = PostingIterator.NO_MORE_DOCS;
+			for (TermCursor c : cursors) {
+				doc = Math.min(doc, c.docId());
+			}
+			if (doc == PostingIterator.NO_MORE_DOCS) {
+				break;
+			}
+			scoreDocument(doc, cursors, queryTerms, top);
+		}
+
+		ResultSet rs = top.toResultSet();
+		rs.setExactResultSize(numRetrievedDocs);
+		return rs;
+	}
+
+	/**
+	 * Block-Max WAND evaluation. Returns the same documents as
+	 * matchDocumentAtATime(), but skips every document whose score cannot
+	 * reach the current top RETRIEVED_SET_SIZE. The cursors are kept sorted by
+	 * docid; adding up their upper bounds in that order gives the first
+	 * (pivot) document that could still enter the heap, and the block maximum
+	 * frequencies of the cursors at the pivot are checked before any posting
+	 * of it is decoded.
+	 * 
+	 * Since documents that cannot enter the heap are never scored, the exact
+	 * result size is only the number of documents that were scored.
+	 * 
+	 * @param queryTerms
+	 *            Query with terms
+	 * @return ResultSet of ranked documents
+	 */
+	private ResultSet matchWand(Query queryTerms) {
+		TermCursor[] termOrder = openCursors(queryTerms);
+		TermCursor[] cursors = termOrder.clone();
+		sortByDocId(cursors, cursors.length);
+		TopKHeap top = new TopKHeap(RETRIEVED_SET_SIZE);
+		numRetrievedDocs = 0;
+
+		while (true) {
+			float threshold = top.minScore();
+
+			// find the pivot
+			float bound = 0f;
+			int pivot = -1;
+			for (int c = 0; c < cursors.length; c++) {
+				if (cursors[c].docId() == PostingIterator.NO_MORE_DOCS) {
+					break;
+				}
+				bound += cursors[c].upperBound();
+				if (bound > threshold) {
+					pivot = c;
+					break;
+				}
+			}
+			if (pivot < 0) {
+				break;
+			}
+			int pivotDoc = cursors[pivot].docId();
+			// include every cursor already at the pivot document
+			while (pivot + 1 < cursors.length
+					&& cursors[pivot + 1].docId() == pivotDoc) {
+				pivot++;
+			}
+
+			// block-max check, and the first document after the blocks
+			float blockBound = 0f;
+			int next = pivot + 1 < cursors.length ? cursors[pivot + 1].docId()
+					: PostingIterator.NO_MORE_DOCS;
+			for (int c = 0; c <= pivot; c++) {
+				PostingIterator it = cursors[c].postings;
+				int block = it.block(pivotDoc);
+				if (block >= 0) {
+					// otherwise the cursor runs out before the pivot
+					blockBound += cursors[c].blockUpperBound(block);
+					next = Math.min(next, it.blockLastDoc(block) + 1);
 				}
+			}
 
-				if ((!targetResultSetSizeReached)) {
-					if (accumulators.size() >= RETRIEVED_SET_SIZE) {
-						targetResultSetSizeReached = true;
+			int moved;
+			if (blockBound <= threshold) {
+				// nothing up to the end of the current blocks can enter
+				for (moved = 0; moved <= pivot; moved++) {
+					if (cursors[moved].docId() < next) {
+						cursors[moved].postings.advance(next);
 					}
 				}
+			} else if (cursors[0].docId() == pivotDoc) {
+				scoreDocument(pivotDoc, termOrder, queryTerms, top);
+				moved = pivot + 1;
+			} else {
+				// move the cursors in front of the pivot onto it
+				for (moved = 0; cursors[moved].docId() < pivotDoc; moved++) {
+					cursors[moved].postings.advance(pivotDoc);
+				}
 			}
+			sortByDocId(cursors, moved);
+		}
 
-			resultSet = new ResultSet(accumulators.values());
-			numRetrievedDocs = resultSet.getScores().length;
-			finalize(queryTerms, f);
-			results.put(f, resultSet);
+		long postings = 0;
+		for (TermCursor c : termOrder) {
+			postings += c.postings.size();
 		}
+		numSkippedPostings = postings - numScoredPostings;
+		logger.debug("WAND skipped " + numSkippedPostings + " of " + postings
+				+ " postings");
 
-		Map<Integer, Hit> finalscores = new TreeMap<Integer, Hit>();
-		for (Field f : Fields.getInstance().getFields()) {
-			for (int i = 0; i < results.get(f).getDocids().length; i++) {
+		ResultSet rs = top.toResultSet();
+		rs.setExactResultSize(numRetrievedDocs);
+		return rs;
+	}
 
-				if (!finalscores.containsKey(results.get(f).getDocids()[i])) {
-					finalscores.put(results.get(f).getDocids()[i], new Hit(
-							results.get(f).getDocids()[i]));
+	/**
+	 * Restores docid order after the first moved cursors have moved forward.
+	 * The rest of the array is still sorted.
+	 */
+	private static void sortByDocId(TermCursor[] cursors, int moved) {
+		for (int i = Math.min(moved, cursors.length) - 1; i >= 0; i--) {
+			TermCursor c = cursors[i];
+			int j = i + 1;
+			while (j < cursors.length && cursors[j].docId() < c.docId()) {
+				cursors[j - 1] = cursors[j];
+				j++;
+			}
+			cursors[j - 1] = c;
+		}
+	}
+
+	/**
+	 * Opens a cursor for every query term in every field it occurs in. The
+	 * cursors are returned in query term order.
+	 */
+	private TermCursor[] openCursors(Query queryTerms) {
+		init(queryTerms);
+		numScoredPostings = 0;
+		numSkippedPostings = 0;
+
+		fieldOrder = Fields.getInstance().getFields().toArray(new Field[0]);
+		fieldScores = new float[fieldOrder.length];
+		fieldOccurrences = new short[fieldOrder.length];
+		fieldHit = new boolean[fieldOrder.length];
+
+		List<TermCursor> cursors = new ArrayList<TermCursor>();
+		int t = 0;
+		for (String term : queryTermsToMatchList.keySet()) {
+			PostingList pl = queryTermsToMatchList.get(term);
+			for (int f = 0; f < fieldOrder.length; f++) {
+				PostingIterator it = pl.iterator(fieldOrder[f]);
+				if (it.nextDoc() != PostingIterator.NO_MORE_DOCS) {
+					cursors.add(new TermCursor(it, t, f, fieldOrder[f], pl
+							.getDocumentFrequency(), scorer, Fields
+							.getInstance().getWeight(fieldOrder[f])));
 				}
-				float wghtdScore = results.get(f).getScores()[i]
-						* Fields.getInstance().getWeight(f);
-				finalscores.get(results.get(f).getDocids()[i]).updateScore(
-						wghtdScore);
-				finalscores.get(results.get(f).getDocids()[i])
-						.updateOccurrence((short) 1);
 			}
+			t++;
 		}
+		return cursors.toArray(new TermCursor[cursors.size()]);
+	}
 
-		ResultSet rs = new ResultSet(finalscores.values());
-		numRetrievedDocs = finalscores.values().size();
+	/**
+	 * Scores a document across all fields, offers it to the heap and moves
+	 * the cursors on the document past it. Deleted documents, and documents
+	 * without the phrases of the query, are only skipped.
+	 * 
+	 * @param doc
+	 *            document id
+	 * @param termOrder
+	 *            cursors in query term order, so field scores add up in the
+	 *            same order as they do term-at-a-time
+	 */
+	private void scoreDocument(int doc, TermCursor[] termOrder,
+			Query queryTerms, TopKHeap top) {
+		if (!matches(doc)) {
+			for (TermCursor c : termOrder) {
+				if (c.docId() == doc) {
+					c.postings.nextDoc();
+				}
+			}
+			return;
+		}
+		for (TermCursor c : termOrder) {
+			if (c.docId() != doc) {
+				continue;
+			}
+			int f = c.field;
+			fieldScores[f] += scorer.score(c.postings.posting(), c.df);
+			fieldOccurrences[f] |= (c.term < 16) ? (short) (1 << c.term) : 0;
+			fieldHit[f] = true;
+			c.postings.nextDoc();
+			numScoredPostings++;
+		}
 
-		int setSize = Math.min(RETRIEVED_SET_SIZE, numRetrievedDocs);
-		if (setSize == 0)
-			setSize = numRetrievedDocs;
+		float score = 0f;
+		short occurrence = 0;
+		for (int f = 0; f < fieldOrder.length; f++) {
+			if (!fieldHit[f]) {
+				continue;
+			}
+			float fieldScore = fieldScores[f];
+			for (ScoreModifier sm : scoreModifiers) {
+				fieldScore = ((DocumentScoreModifier) sm).modifyScore(doc,
+						fieldOrder[f], fieldScore, fieldOccurrences[f],
+						queryTerms);
+			}
+			score += fieldScore * Fields.getInstance().getWeight(fieldOrder[f]);
+			occurrence |= fieldOccurrences[f];
 
-		rs.setExactResultSize(numRetrievedDocs);
-		rs.setResultSize(setSize);
-		rs.sort(setSize);
+			fieldScores[f] = 0f;
+			fieldOccurrences[f] = 0;
+			fieldHit[f] = false;
+		}
 
-		return rs;
+		if (score > Float.NEGATIVE_INFINITY) {
+			numRetrievedDocs++;
+			top.insert(doc, score, occurrence);
+		}
+	}
 
+	/**
+	 * @return false if the document was deleted or does not contain the
+	 *         phrases of the query
+	 */
+	private boolean matches(int doc) {
+		return liveDocs.isLive(doc)
+				&& (phraseDocs == null || phraseDocs.get(doc));
+	}
+
+	/**
+	 * @return number of postings the last WAND evaluation never scored
+	 */
+	public long getNumSkippedPostings() {
+		return numSkippedPostings;
+	}
+
+	/**
+	 * @return true if every score modifier can modify single documents
+	 */
+	private boolean modifiersScoreDocuments() {
+		for (ScoreModifier sm : scoreModifiers) {
+			if (!(sm instanceof DocumentScoreModifier)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public int getNumResults() {
@@ -171,17 +497,18 @@ public class Matching {
 	}
 
 	/**
-	 * Turns Query of terms into a list of termIds by using the Lexicon Index
+	 * Turns Query of terms into their posting lists, looking them up in the
+	 * lexicon of every segment
 	 * 
 	 * @param queryTerms
 	 */
 	private void init(Query queryTerms) {
 		List<String> queryTermStrings = queryTerms.getTerms();
-		queryTermsToMatchList = new HashMap<String, Integer>(
+		queryTermsToMatchList = new HashMap<String, PostingList>(
 				queryTermStrings.size());
 		for (String queryTerm : queryTermStrings) {
-			Integer t = Lexicon.getInstance().getTermId(queryTerm);
-			if (t != -1) {
+			PostingList t = index.getPostings(queryTerm);
+			if (t != null) {
 				queryTermsToMatchList.put(queryTerm, t);
 			} else {
 				System.err.println("Term not found");
@@ -210,24 +537,6 @@ public class Matching {
 		}
 	}
 
-	/**
-	 * Interface to the retrieval model.
-	 * 
-	 * @param i
-	 *            posting list position
-	 * @param wModels
-	 *            retrieval model
-	 * @param h
-	 *            hit (aka result)
-	 * @param posting
-	 *            posting matching term form query
-	 */
-	private void assignScore(int i, final IRetrievalModel wModels, Hit h,
-			final Posting posting, final long df, final Field field) {
-		h.updateScore(wModels.score(posting, df));
-		h.updateOccurrence((i < 16) ? (short) (1 << i) : 0);
-	}
-
 	/**
 	 * Simple testing main method
 	 * 
@@ -0,0 +1,78 @@
+package edu.nd.sirs.query;
+
+import java.util.List;
+
+/**
+ * A quoted part of a query. Without a slop its terms must occur one right
+ * after the other, in query order, in a field of a document. With a slop of
+ * N ("notre dame"~N) they may occur in any order, as long as one occurrence
+ * of every distinct term fits in a window of N positions more than the
+ * phrase is long.
+ *
+ * @author tweninge
+ *
+ */
+public class Phrase {
+
+	/**
+	 * Slop of a phrase whose terms must be adjacent and in order
+	 */
+	public static final int EXACT = -1;
+
+	/**
+	 * Highest slop of a phrase, a higher one is taken as this. It only asks
+	 * for the terms in the same field, and keeps the window of the terms
+	 * within an int.
+	 */
+	public static final int MAX_SLOP = Integer.MAX_VALUE / 2;
+
+	private final List<String> terms;
+	private final int slop;
+
+	/**
+	 * Simple Constructor
+	 *
+	 * @param terms
+	 *            terms of the phrase, in query order
+	 * @param slop
+	 *            positions the terms may be apart, EXACT for adjacent terms
+	 */
+	public Phrase(List<String> terms, int slop) {
+		this.terms = terms;
+		this.slop = slop;
+	}
+
+	public List<String> getTerms() {
+		return terms;
+	}
+
+	/**
+	 * @return positions the terms may be apart, EXACT for adjacent terms
+	 */
+	public int getSlop() {
+		return slop;
+	}
+
+	/**
+	 * @return true if the terms must be adjacent and in order
+	 */
+	public boolean isExact() {
+		return slop == EXACT;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer("\"");
+		for (int i = 0; i < terms.size(); i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(terms.get(i));
+		}
+		sb.append('"');
+		if (!isExact()) {
+			sb.append('~').append(slop);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,254 @@
+package edu.nd.sirs.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.index.InvertedIndex;
+import edu.nd.sirs.index.PositionIterator;
+import edu.nd.sirs.index.PositionList;
+import edu.nd.sirs.index.PostingIterator;
+import edu.nd.sirs.index.PostingList;
+
+/**
+ * Finds the documents that contain the phrases of a query. The postings of
+ * the terms of a phrase are intersected the same way ConjunctiveMatching
+ * intersects them, and only the positions of the documents that contain
+ * every term are read. They are grouped by the field they occur in, from
+ * every posting of the term in the document, and a phrase must occur within
+ * a single field.
+ *
+ * Queries without phrases never get here, so they do not read positions.
+ *
+ * @author tweninge
+ *
+ */
+class PhraseFilter {
+	private static Logger logger = LoggerFactory.getLogger(PhraseFilter.class);
+
+	private PhraseFilter() {
+	}
+
+	/**
+	 * @param index
+	 *            index to search
+	 * @param query
+	 *            Query with phrases
+	 * @return documents that contain every phrase of the query, in any
+	 *         field, or null if the query has no phrases or the index stores
+	 *         no positions to match them with
+	 */
+	static BitSet match(InvertedIndex index, Query query) {
+		List<Phrase> phrases = query.getPhrases();
+		if (phrases.isEmpty()) {
+			return null;
+		}
+		if (!index.hasPositions()) {
+			logger.warn("The index stores no positions, " + phrases
+					+ " are matched as terms");
+			return null;
+		}
+		Field[] fields = Fields.getInstance().getFields()
+				.toArray(new Field[0]);
+		BitSet docs = null;
+		for (Phrase phrase : phrases) {
+			BitSet d = match(index, phrase, fields);
+			if (docs == null) {
+				docs = d;
+			} else {
+				docs.and(d);
+			}
+			if (docs.isEmpty()) {
+				break;
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * @return documents that contain the phrase in a field
+	 */
+	private static BitSet match(InvertedIndex index, Phrase phrase,
+			Field[] fields) {
+		BitSet docs = new BitSet();
+		List<String> terms = phrase.isExact() ? phrase.getTerms()
+				: new ArrayList<String>(new LinkedHashSet<String>(
+						phrase.getTerms()));
+		int n = terms.size();
+		TermUnion[] postings = new TermUnion[n];
+		PositionIterator[][] positions = new PositionIterator[n][fields.length];
+		for (int t = 0; t < n; t++) {
+			PostingList pl = index.getPostings(terms.get(t));
+			PositionList p = index.getPositions(terms.get(t));
+			if (pl == null || p == null) {
+				return docs;
+			}
+			postings[t] = new TermUnion(pl, fields);
+			for (int f = 0; f < fields.length; f++) {
+				positions[t][f] = p.iterator(fields[f]);
+			}
+		}
+
+		int maxField = 0;
+		for (Field f : fields) {
+			maxField = Math.max(maxField, f.field);
+		}
+		// positions of every term by the field they occur in
+		int[][][] pos = new int[maxField + 1][n][16];
+		int[][] count = new int[maxField + 1][n];
+		int doc = postings[0].nextDoc();
+		while (doc != PostingIterator.NO_MORE_DOCS) {
+			int t = agree(postings, doc);
+			if (t < n) {
+				doc = postings[0].advance(postings[t].docId());
+				continue;
+			}
+			for (int[] c : count) {
+				Arrays.fill(c, 0);
+			}
+			for (t = 0; t < n; t++) {
+				readPositions(postings[t], positions[t], doc, t, pos, count);
+			}
+			for (int a = 0; a <= maxField; a++) {
+				if (contains(phrase, pos[a], count[a], n)) {
+					docs.set(doc);
+					break;
+				}
+			}
+			doc = postings[0].nextDoc();
+		}
+		return docs;
+	}
+
+	/**
+	 * Advances every term after the first to the document proposed by the
+	 * first.
+	 *
+	 * @return number of terms, if they all occur in the document, otherwise
+	 *         the index of the first term that went past it
+	 */
+	private static int agree(TermUnion[] terms, int doc) {
+		for (int t = 1; t < terms.length; t++) {
+			int d = terms[t].docId();
+			if (d < doc) {
+				d = terms[t].advance(doc);
+			}
+			if (d != doc) {
+				return t;
+			}
+		}
+		return terms.length;
+	}
+
+	/**
+	 * Reads the positions of the t-th term of a phrase in a document, from
+	 * every field that holds a posting of the document, into the positions
+	 * of the fields they occur in
+	 */
+	private static void readPositions(TermUnion term,
+			PositionIterator[] positions, int doc, int t, int[][][] pos,
+			int[][] count) {
+		for (int f = 0; f < positions.length; f++) {
+			PostingIterator it = term.iterator(f);
+			if (it.docId() != doc) {
+				continue;
+			}
+			for (int g = positions[f].seek(it.index()); g > 0; g--) {
+				int a = positions[f].nextField();
+				if (a >= pos.length) {
+					continue;
+				}
+				int c = count[a][t];
+				int m = positions[f].numPositions();
+				if (c + m > pos[a][t].length) {
+					pos[a][t] = Arrays.copyOf(pos[a][t],
+							Math.max(c + m, 2 * pos[a][t].length));
+				}
+				for (int i = 0; i < m; i++) {
+					pos[a][t][c + i] = positions[f].nextPosition();
+				}
+				if (c > 0) {
+					// the field has positions in another posting as well
+					Arrays.sort(pos[a][t], 0, c + m);
+				}
+				count[a][t] = c + m;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the positions of the terms in a field contain the
+	 *         phrase
+	 */
+	private static boolean contains(Phrase phrase, int[][] pos, int[] count,
+			int n) {
+		for (int t = 0; t < n; t++) {
+			if (count[t] == 0) {
+				return false;
+			}
+		}
+		return phrase.isExact() ? adjacent(pos, count, n) : within(pos,
+				count, n, phrase.getSlop() + n - 1);
+	}
+
+	/**
+	 * @return true if some position p of the first term has the term t at
+	 *         p + t for every t
+	 */
+	private static boolean adjacent(int[][] pos, int[] count, int n) {
+		int[] next = new int[n];
+		for (int i = 0; i < count[0]; i++) {
+			int p = pos[0][i];
+			int t = 1;
+			for (; t < n; t++) {
+				while (next[t] < count[t] && pos[t][next[t]] < p + t) {
+					next[t]++;
+				}
+				if (next[t] == count[t]) {
+					return false;
+				}
+				if (pos[t][next[t]] != p + t) {
+					break;
+				}
+			}
+			if (t == n) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks the positions of all terms together, moving on from the lowest
+	 * one, so the positions in hand are always the closest set up to there
+	 *
+	 * @return true if a position of every term fits between some p and p +
+	 *         window
+	 */
+	private static boolean within(int[][] pos, int[] count, int n, int window) {
+		int[] next = new int[n];
+		while (true) {
+			int min = 0;
+			int max = pos[0][next[0]];
+			for (int t = 1; t < n; t++) {
+				if (pos[t][next[t]] < pos[min][next[min]]) {
+					min = t;
+				}
+				max = Math.max(max, pos[t][next[t]]);
+			}
+			if (max - pos[min][next[min]] <= window) {
+				return true;
+			}
+			if (++next[min] == count[min]) {
+				return false;
+			}
+		}
+	}
+}
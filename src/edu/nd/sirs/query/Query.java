@@ -2,13 +2,20 @@ package edu.nd.sirs.query;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import edu.nd.sirs.parser.CaseFoldingTokenizer;
 import edu.nd.sirs.parser.ITokenizer;
-import edu.nd.sirs.parser.WhitespaceTextTokenizer;
 
 /**
  * Query class keeps a list of terms as a query.
  * 
+ * Quoted parts of the query string are also kept as phrases: "notre dame"
+ * asks for the terms next to each other and "notre dame"~5 for the terms
+ * within 5 positions of each other, see Phrase. The terms of a phrase are
+ * terms of the query as well.
+ * 
  * @author tweninge
  *
  */
@@ -17,6 +24,13 @@ public class Query {
 	private String queryString;
 	private ITokenizer tokenizer;
 	private List<String> terms;
+	private List<Phrase> phrases;
+
+	/**
+	 * a quoted phrase, with an optional slop
+	 */
+	private static final Pattern PHRASE = Pattern
+			.compile("\"([^\"]*)\"(?:~(\\d+))?");
 
 	/**
 	 * Simple Constructor
@@ -24,23 +38,35 @@ public class Query {
 	 * @param queryString
 	 */
 	public Query(String queryString) {
-		this(new WhitespaceTextTokenizer(), queryString);
+		this(new CaseFoldingTokenizer(), queryString);
 	}
 
 	/**
 	 * Tokenizer Constructor
 	 * 
 	 * @param tok
-	 *            Tokenizer object
+	 *            Tokenizer object, its tokens must be case folded as the
+	 *            indexed terms are
 	 * @param queryString
 	 */
 	public Query(ITokenizer tok, String queryString) {
 		this.tokenizer = tok;
 		this.queryString = queryString;
 		this.terms = new ArrayList<String>();
-		for (String s : parse()) {
-			terms.add(s);
+		this.phrases = new ArrayList<Phrase>();
+		Matcher m = PHRASE.matcher(queryString);
+		int end = 0;
+		while (m.find()) {
+			terms.addAll(parse(queryString.substring(end, m.start())));
+			List<String> phrase = parse(m.group(1));
+			if (!phrase.isEmpty()) {
+				phrases.add(new Phrase(phrase, m.group(2) == null ? Phrase.EXACT
+						: slop(m.group(2))));
+				terms.addAll(phrase);
+			}
+			end = m.end();
 		}
+		terms.addAll(parse(queryString.substring(end)));
 	}
 
 	public List<String> getTerms() {
@@ -48,12 +74,39 @@ public class Query {
 	}
 
 	/**
-	 * Parse the Query
+	 * @return quoted phrases of the query, in query order
+	 */
+	public List<Phrase> getPhrases() {
+		return phrases;
+	}
+
+	/**
+	 * @param digits
+	 *            slop of a phrase in the query string
+	 * @return the slop, at most Phrase.MAX_SLOP
+	 */
+	private static int slop(String digits) {
+		try {
+			return Math.min(Integer.parseInt(digits), Phrase.MAX_SLOP);
+		} catch (NumberFormatException e) {
+			// more digits than an int holds
+			return Phrase.MAX_SLOP;
+		}
+	}
+
+	/**
+	 * Parse part of the Query
 	 * 
+	 * @param text
+	 *            part of the query string
 	 * @return list of tokens
 	 */
-	private Iterable<String> parse() {
-		return tokenizer.tokenize(queryString);
+	private List<String> parse(String text) {
+		List<String> tokens = new ArrayList<String>();
+		for (String s : tokenizer.tokenize(text)) {
+			tokens.add(s);
+		}
+		return tokens;
 	}
 
 }
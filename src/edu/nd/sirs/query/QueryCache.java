@@ -0,0 +1,247 @@
+package edu.nd.sirs.query;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.index.InvertedIndex;
+
+/**
+ * Bounded cache of ranked results. Entries are keyed on the evaluator (the
+ * matching class with its retrieval model, score modifiers and strategy), the
+ * normalized query terms and the current field weights, and are evicted least
+ * recently used first once the cached results exceed a byte budget. Entries
+ * can also expire after a fixed time. The whole cache is dropped when the
+ * index is reopened, and results evaluated on the index before a reopen are
+ * not cached after it.
+ *
+ * Only the top ranked part of a ResultSet is kept, and every lookup returns a
+ * copy, so callers are free to modify what they get.
+ *
+ * @author tweninge
+ *
+ */
+public class QueryCache {
+	private static Logger logger = LoggerFactory.getLogger(QueryCache.class);
+
+	private static final long DEFAULT_MAX_BYTES = 32L << 20;
+	private static final long ENTRY_OVERHEAD = 96;
+
+	private static QueryCache me = null;
+
+	private final long maxBytes;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, CachedResult> entries;
+	private long bytes;
+	private int generation;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            approximate memory the cached results may take
+	 * @param ttlMillis
+	 *            time after which an entry expires, 0 to keep entries until
+	 *            they are evicted
+	 */
+	public QueryCache(long maxBytes, long ttlMillis) {
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttlMillis;
+		entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+		bytes = 0;
+		generation = InvertedIndex.getGeneration();
+	}
+
+	/**
+	 * Shared cache instance getter, DEFAULT_MAX_BYTES without expiry.
+	 *
+	 * @return QueryCache object
+	 */
+	public static synchronized QueryCache getInstance() {
+		if (me == null) {
+			me = new QueryCache(DEFAULT_MAX_BYTES, 0);
+		}
+		return me;
+	}
+
+	/**
+	 * Looks up the results of a query
+	 *
+	 * @param evaluator
+	 *            description of the evaluator, see Matching.getCacheKey()
+	 * @param query
+	 *            query
+	 * @return a copy of the cached results or null
+	 */
+	public synchronized ResultSet get(String evaluator, Query query) {
+		checkGeneration();
+		String key = key(evaluator, query);
+		CachedResult c = entries.get(key);
+		if (c != null && ttlMillis > 0
+				&& System.currentTimeMillis() - c.created > ttlMillis) {
+			remove(key);
+			c = null;
+		}
+		if (c == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return c.copy();
+	}
+
+	/**
+	 * Caches the results of a query
+	 *
+	 * @param evaluator
+	 *            description of the evaluator, see Matching.getCacheKey()
+	 * @param query
+	 *            query
+	 * @param rs
+	 *            results, sorted up to their result size
+	 * @param generation
+	 *            index generation read before the results were evaluated,
+	 *            see InvertedIndex.getGeneration()
+	 */
+	public synchronized void put(String evaluator, Query query, ResultSet rs,
+			int generation) {
+		checkGeneration();
+		if (generation != this.generation) {
+			// the index was reopened while the query was evaluated
+			return;
+		}
+		String key = key(evaluator, query);
+		CachedResult c = new CachedResult(rs);
+		long size = ENTRY_OVERHEAD + 2L * key.length() + 10L * c.docids.length;
+		if (size > maxBytes) {
+			return;
+		}
+		remove(key);
+		c.bytes = size;
+		entries.put(key, c);
+		bytes += size;
+
+		Iterator<CachedResult> lru = entries.values().iterator();
+		while (bytes > maxBytes && lru.hasNext()) {
+			bytes -= lru.next().bytes;
+			lru.remove();
+			evictions++;
+		}
+	}
+
+	private void remove(String key) {
+		CachedResult old = entries.remove(key);
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+	}
+
+	/**
+	 * Drops every entry
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	private void checkGeneration() {
+		int g = InvertedIndex.getGeneration();
+		if (g != generation) {
+			logger.info("Index reopened, clearing " + entries.size()
+					+ " cached queries");
+			clear();
+			generation = g;
+		}
+	}
+
+	private static String key(String evaluator, Query query) {
+		StringBuffer sb = new StringBuffer(evaluator);
+		sb.append('|');
+		for (String t : query.getTerms()) {
+			sb.append(t).append(' ');
+		}
+		for (Phrase p : query.getPhrases()) {
+			sb.append(p).append(' ');
+		}
+		sb.append('|');
+		Map<String, Float> weights = new TreeMap<String, Float>();
+		for (Entry<String, Field> f : Fields.getInstance().getEntries()) {
+			weights.put(f.getKey(),
+					Fields.getInstance().getWeight(f.getValue()));
+		}
+		for (Entry<String, Float> w : weights.entrySet()) {
+			sb.append(w.getKey()).append('=').append(w.getValue()).append(';');
+		}
+		return sb.toString();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return approximate memory taken by the cached results
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryCache " + entries.size() + " queries, " + bytes
+				+ " bytes, " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+
+	/**
+	 * Top ranked part of a ResultSet
+	 */
+	private static class CachedResult {
+		final int[] docids;
+		final float[] scores;
+		final short[] occurrences;
+		final int exactResultSize;
+		final long created;
+		long bytes;
+
+		CachedResult(ResultSet rs) {
+			int n = rs.getResultSize();
+			docids = Arrays.copyOf(rs.getDocids(), n);
+			scores = Arrays.copyOf(rs.getScores(), n);
+			occurrences = Arrays.copyOf(rs.getOccurrences(), n);
+			exactResultSize = rs.getExactResultSize();
+			created = System.currentTimeMillis();
+		}
+
+		ResultSet copy() {
+			ResultSet rs = new ResultSet(docids.clone(), scores.clone(),
+					occurrences.clone());
+			rs.setExactResultSize(exactResultSize);
+			return rs;
+		}
+	}
+}
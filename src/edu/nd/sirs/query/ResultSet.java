@@ -42,6 +42,24 @@ public class ResultSet {
 		}
 	}
 
+	/**
+	 * Array Constructor, the arrays are used as they are
+	 * 
+	 * @param docids
+	 *            document ids
+	 * @param scores
+	 *            document scores
+	 * @param occurrences
+	 *            occurrence masks
+	 */
+	public ResultSet(int[] docids, float[] scores, short[] occurrences) {
+		resultSize = docids.length;
+		exactResultSize = resultSize;
+		this.docids = docids;
+		this.scores = scores;
+		this.occurrences = occurrences;
+	}
+
 	public float[] getScores() {
 		return scores;
 	}
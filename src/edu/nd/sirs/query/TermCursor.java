@@ -0,0 +1,103 @@
+package edu.nd.sirs.query;
+
+import java.util.Arrays;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.index.Posting;
+import edu.nd.sirs.index.PostingIterator;
+import edu.nd.sirs.retrievalmodel.IRetrievalModel;
+
+/**
+ * Postings of one query term in one field, as walked by the document at a
+ * time strategies of Matching, together with the upper bounds of the
+ * weighted score they can contribute to a document.
+ *
+ * @author tweninge
+ *
+ */
+class TermCursor {
+
+	final PostingIterator postings;
+	final int term;
+	final int field;
+	final Field f;
+	final long df;
+
+	private final IRetrievalModel scorer;
+	private final float weight;
+	private final float upperBound;
+	private float[] blockBounds;
+
+	/**
+	 * Simple Constructor
+	 *
+	 * @param postings
+	 *            postings of the term in the field
+	 * @param term
+	 *            position of the term in the query
+	 * @param field
+	 *            position of the field in the field order
+	 * @param f
+	 *            the field
+	 * @param df
+	 *            document frequency of the term
+	 * @param scorer
+	 *            retrieval model
+	 * @param weight
+	 *            field weight
+	 */
+	TermCursor(PostingIterator postings, int term, int field, Field f,
+			long df, IRetrievalModel scorer, float weight) {
+		this.postings = postings;
+		this.term = term;
+		this.field = field;
+		this.f = f;
+		this.df = df;
+		this.scorer = scorer;
+		this.weight = weight;
+		upperBound = bound(postings.maxFreq());
+	}
+
+	int docId() {
+		return postings.docId();
+	}
+
+	/**
+	 * @return highest weighted score any document can get from this cursor
+	 */
+	float upperBound() {
+		return upperBound;
+	}
+
+	/**
+	 * @param block
+	 *            block number
+	 * @return highest weighted score any document of the block can get from
+	 *         this cursor
+	 */
+	float blockUpperBound(int block) {
+		if (blockBounds == null || block >= blockBounds.length) {
+			int old = blockBounds == null ? 0 : blockBounds.length;
+			float[] grown = new float[Math.max(block + 1, old * 2)];
+			Arrays.fill(grown, Float.NaN);
+			if (blockBounds != null) {
+				System.arraycopy(blockBounds, 0, grown, 0, old);
+			}
+			blockBounds = grown;
+		}
+		if (Float.isNaN(blockBounds[block])) {
+			blockBounds[block] = bound(postings.blockMaxFreq(block));
+		}
+		return blockBounds[block];
+	}
+
+	/**
+	 * Retrieval models score higher frequencies no lower, and score modifiers
+	 * never raise a score above its unmodified value or a negative score
+	 * above zero, so scoring the highest frequency bounds every document.
+	 */
+	private float bound(int maxFreq) {
+		float s = scorer.score(new Posting(-1, maxFreq), df);
+		return Math.max(0f, s) * weight;
+	}
+}
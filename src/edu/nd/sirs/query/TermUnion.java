@@ -0,0 +1,106 @@
+package edu.nd.sirs.query;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.docs.Fields;
+import edu.nd.sirs.index.PostingIterator;
+import edu.nd.sirs.index.PostingList;
+
+/**
+ * All documents that contain one query term in any field, walked in docid
+ * order by merging the postings of the term in every field.
+ *
+ * @author tweninge
+ *
+ */
+class TermUnion {
+
+	private final PostingIterator[] postings;
+	private final float[] weights;
+	private final int size;
+	private int doc;
+
+	/**
+	 * Simple Constructor
+	 *
+	 * @param pl
+	 *            postings of the term
+	 * @param fields
+	 *            fields to search
+	 */
+	TermUnion(PostingList pl, Field[] fields) {
+		postings = new PostingIterator[fields.length];
+		weights = new float[fields.length];
+		int n = 0;
+		for (int f = 0; f < fields.length; f++) {
+			postings[f] = pl.iterator(fields[f]);
+			weights[f] = Fields.getInstance().getWeight(fields[f]);
+			n += postings[f].size();
+		}
+		size = n;
+		doc = -1;
+	}
+
+	/**
+	 * @return number of postings in all fields, an upper bound of the number
+	 *         of documents
+	 */
+	int size() {
+		return size;
+	}
+
+	int docId() {
+		return doc;
+	}
+
+	int nextDoc() {
+		if (doc == PostingIterator.NO_MORE_DOCS) {
+			return doc;
+		}
+		return advance(doc + 1);
+	}
+
+	/**
+	 * Moves to the first document at or after target that contains the term
+	 * in any field
+	 *
+	 * @param target
+	 *            docid to advance to, greater than the current docid
+	 * @return docid or NO_MORE_DOCS
+	 */
+	int advance(int target) {
+		int min = PostingIterator.NO_MORE_DOCS;
+		for (PostingIterator it : postings) {
+			int d = it.docId();
+			if (d < target) {
+				d = it.advance(target);
+			}
+			min = Math.min(min, d);
+		}
+		doc = min;
+		return doc;
+	}
+
+	/**
+	 * @param f
+	 *            number of the field in the fields of the constructor
+	 * @return postings of the term in the field, at the current document if
+	 *         the field contains the term there
+	 */
+	PostingIterator iterator(int f) {
+		return postings[f];
+	}
+
+	/**
+	 * @return sum of the weights of the fields the current document contains
+	 *         the term in
+	 */
+	float weight() {
+		float w = 0f;
+		for (int f = 0; f < postings.length; f++) {
+			if (postings[f].docId() == doc) {
+				w += weights[f];
+			}
+		}
+		return w;
+	}
+}
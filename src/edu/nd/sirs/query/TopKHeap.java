@@ -0,0 +1,142 @@
+package edu.nd.sirs.query;
+
+/**
+ * Bounded min-heap that keeps the k highest scoring documents seen so far in
+ * primitive arrays. The lowest score of the kept documents sits at the root,
+ * so a new document only has to beat the root to get in.
+ * 
+ * @author tweninge
+ *
+ */
+public class TopKHeap {
+
+	private final int k;
+	private int size;
+	private final int[] docids;
+	private final float[] scores;
+	private final short[] occurrences;
+
+	/**
+	 * Simple Constructor
+	 * 
+	 * @param k
+	 *            number of documents to keep
+	 */
+	public TopKHeap(int k) {
+		this.k = k;
+		docids = new int[k];
+		scores = new float[k];
+		occurrences = new short[k];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true once k documents are kept
+	 */
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * @return the score a document has to beat to enter a full heap
+	 */
+	public float minScore() {
+		return size == k ? scores[0] : Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Offers a document to the heap
+	 * 
+	 * @param docid
+	 *            document id
+	 * @param score
+	 *            document score
+	 * @param occurrence
+	 *            occurrence mask
+	 * @return true if the document was kept
+	 */
+	public boolean insert(int docid, float score, short occurrence) {
+		if (size < k) {
+			int i = size++;
+			set(i, docid, score, occurrence);
+			siftUp(i);
+			return true;
+		}
+		if (k == 0 || score <= scores[0]) {
+			return false;
+		}
+		set(0, docid, score, occurrence);
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Empties the heap into a ResultSet ranked by descending score
+	 * 
+	 * @return ResultSet of the kept documents
+	 */
+	public ResultSet toResultSet() {
+		int n = size;
+		int[] d = new int[n];
+		float[] s = new float[n];
+		short[] o = new short[n];
+		for (int i = n - 1; i >= 0; i--) {
+			d[i] = docids[0];
+			s[i] = scores[0];
+			o[i] = occurrences[0];
+			size--;
+			if (size > 0) {
+				set(0, docids[size], scores[size], occurrences[size]);
+				siftDown(0);
+			}
+		}
+		return new ResultSet(d, s, o);
+	}
+
+	private void set(int i, int docid, float score, short occurrence) {
+		docids[i] = docid;
+		scores[i] = score;
+		occurrences[i] = occurrence;
+	}
+
+	private void swap(int i, int j) {
+		int d = docids[i];
+		float s = scores[i];
+		short o = occurrences[i];
+		set(i, docids[j], scores[j], occurrences[j]);
+		set(j, d, s, o);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (scores[i] >= scores[parent]) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int l = 2 * i + 1;
+			int r = l + 1;
+			int smallest = i;
+			if (l < size && scores[l] < scores[smallest]) {
+				smallest = l;
+			}
+			if (r < size && scores[r] < scores[smallest]) {
+				smallest = r;
+			}
+			if (smallest == i) {
+				return;
+			}
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+}
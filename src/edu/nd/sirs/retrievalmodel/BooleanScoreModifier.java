@@ -1,5 +1,7 @@
 package edu.nd.sirs.retrievalmodel;
 
+import java.util.HashSet;
+
 import edu.nd.sirs.docs.Field;
 import edu.nd.sirs.index.InvertedIndex;
 import edu.nd.sirs.query.Query;
@@ -11,7 +13,8 @@ import edu.nd.sirs.query.ResultSet;
  * @author tweninge
  *
  */
-public class BooleanScoreModifier implements ScoreModifier {
+public class BooleanScoreModifier implements ScoreModifier,
+		DocumentScoreModifier {
 
 	/**
 	 * Intersection
@@ -24,11 +27,7 @@ public class BooleanScoreModifier implements ScoreModifier {
 		int start = 0;
 		int end = size;
 		int numOfModifiedDocumentScores = 0;
-		short queryLengthMask = 0;
-
-		for (int i = 0; i < query.getTerms().size(); i++) {
-			queryLengthMask = (short) ((queryLengthMask << 1) + 1);
-		}
+		short queryLengthMask = queryLengthMask(query);
 
 		// modify the scores
 		for (int i = start; i < end; i++) {
@@ -47,4 +46,27 @@ public class BooleanScoreModifier implements ScoreModifier {
 		return true;
 	}
 
+	/**
+	 * Intersection for a single document
+	 */
+	public float modifyScore(int docid, Field f, float score,
+			short occurrence, Query query) {
+		short queryLengthMask = queryLengthMask(query);
+		if ((occurrence & queryLengthMask) != queryLengthMask) {
+			return Float.NEGATIVE_INFINITY;
+		}
+		return score;
+	}
+
+	private static short queryLengthMask(Query query) {
+		// Matching gives every distinct term one bit, and a term may be
+		// repeated, e.g. by a phrase
+		int distinct = new HashSet<String>(query.getTerms()).size();
+		short queryLengthMask = 0;
+		for (int i = 0; i < distinct; i++) {
+			queryLengthMask = (short) ((queryLengthMask << 1) + 1);
+		}
+		return queryLengthMask;
+	}
+
 }
@@ -1,9 +1,7 @@
 package edu.nd.sirs.retrievalmodel;
 
 import edu.nd.sirs.docs.Field;
-import edu.nd.sirs.docs.Fields;
-import edu.nd.sirs.docs.HTMLDocument;
-import edu.nd.sirs.index.DirectIndex;
+import edu.nd.sirs.index.DocumentNorms;
 import edu.nd.sirs.index.InvertedIndex;
 import edu.nd.sirs.query.Query;
 import edu.nd.sirs.query.ResultSet;
@@ -14,7 +12,8 @@ import edu.nd.sirs.query.ResultSet;
  * @author tweninge
  *
  */
-public class CosineScoreModifier implements ScoreModifier {
+public class CosineScoreModifier implements ScoreModifier,
+		DocumentScoreModifier {
 
 	/**
 	 * Intersection
@@ -23,15 +22,21 @@ public class CosineScoreModifier implements ScoreModifier {
 			ResultSet resultSet, Field f) {
 		float[] scores = resultSet.getScores();
 
+		DocumentNorms norms = DocumentNorms.getInstance();
 		for (int i = 0; i < resultSet.getDocids().length; i++) {
 			scores[i] = scores[i]
-					/ DirectIndex
-							.getInstance()
-							.getDoc(resultSet.getDocids()[i],
-									HTMLDocument.class).getNumTokens(f);
+					/ norms.getNumTokens(resultSet.getDocids()[i], f);
 		}
 
 		return true;
 	}
 
+	/**
+	 * Length normalization for a single document
+	 */
+	public float modifyScore(int docid, Field f, float score,
+			short occurrence, Query query) {
+		return score / DocumentNorms.getInstance().getNumTokens(docid, f);
+	}
+
 }
@@ -0,0 +1,31 @@
+package edu.nd.sirs.retrievalmodel;
+
+import edu.nd.sirs.docs.Field;
+import edu.nd.sirs.query.Query;
+
+/**
+ * Score Modifier that works on one document at a time, so it can be applied
+ * while documents are scored instead of after all accumulators are complete.
+ * 
+ * @author tweninge
+ *
+ */
+public interface DocumentScoreModifier {
+	/**
+	 * Modifies the score of a single document in a single field
+	 * 
+	 * @param docid
+	 *            document id
+	 * @param f
+	 *            field the score was accumulated in
+	 * @param score
+	 *            accumulated score
+	 * @param occurrence
+	 *            bit mask of the query terms found in the field
+	 * @param query
+	 *            Query
+	 * @return modified score
+	 */
+	float modifyScore(int docid, Field f, float score, short occurrence,
+			Query query);
+}
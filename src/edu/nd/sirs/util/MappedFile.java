@@ -0,0 +1,94 @@
+package edu.nd.sirs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file.
+ *
+ * Files larger than a single MappedByteBuffer can address are mapped in
+ * chunks. The mapped buffers are never repositioned after construction, so
+ * slice() can be called from any number of threads without locking; every
+ * caller gets its own view of the bytes.
+ *
+ * @author tweninge
+ *
+ */
+public class MappedFile {
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	private final MappedByteBuffer[] chunks;
+	private final long length;
+
+	/**
+	 * Maps the file into memory
+	 *
+	 * @param file
+	 *            file to map
+	 * @throws IOException
+	 */
+	public MappedFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			length = channel.size();
+			int n = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			chunks = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				long start = i * CHUNK_SIZE;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(CHUNK_SIZE, length - start));
+			}
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return file length in bytes
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns a view of a region of the file positioned at its first byte. The
+	 * view shares the mapped memory unless the region spans two chunks, in
+	 * which case it is copied.
+	 *
+	 * @param offset
+	 *            file offset of the region
+	 * @param size
+	 *            number of bytes in the region
+	 * @return buffer over the region
+	 */
+	public ByteBuffer slice(long offset, int size) {
+		int chunk = (int) (offset >>> CHUNK_BITS);
+		int pos = (int) (offset & (CHUNK_SIZE - 1));
+		if (pos + (long) size <= chunks[chunk].capacity()) {
+			ByteBuffer b = chunks[chunk].duplicate();
+			b.position(pos);
+			b.limit(pos + size);
+			return b.slice();
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(size);
+		while (copy.hasRemaining()) {
+			ByteBuffer b = chunks[chunk].duplicate();
+			b.position(pos);
+			b.limit(Math.min(b.capacity(), pos + copy.remaining()));
+			copy.put(b);
+			chunk++;
+			pos = 0;
+		}
+		copy.flip();
+		return copy;
+	}
+}
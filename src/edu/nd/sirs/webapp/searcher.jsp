@@ -36,15 +36,18 @@
 <%
 	switch (model) {
 	case "Boolean":
-		m = new Matching(new BooleanRM());
+		// AND of the query terms: every term in some field of the
+		// document, not necessarily all in the same field
 		Fields.getInstance().assignWeights(wgts);
-		m.addScoreModifier(new BooleanScoreModifier());
-		rs = m.match(new Query(query));
+		ConjunctiveMatching cm = new ConjunctiveMatching();
+		cm.setQueryCache(QueryCache.getInstance());
+		rs = cm.match(new Query(query));
 		break;
 	case "Cosine":
-		m = new Matching(new CosineRM());
+		m = new Matching(new CosineRM(), Matching.WAND);
 		Fields.getInstance().assignWeights(wgts);
 		m.addScoreModifier(new CosineScoreModifier());
+		m.setQueryCache(QueryCache.getInstance());
 		rs = m.match(new Query(query));
 		break;
 	}
@@ -0,0 +1,278 @@
+package edu.nd.sirs.websitesearch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a synthetic crawl in the same layout as a real one: a zip file with
+ * one HTML page per entry, named crawl/ followed by the URL encoded address
+ * of the page, as the Indexer expects.
+ *
+ * Every page has a title, a body and a number of links to other pages of the
+ * crawl with anchor text. Words are drawn from a Zipf distribution over the
+ * vocabulary, so the index gets the usual mix of a few huge posting lists and
+ * a long tail of short ones. Link targets are Zipf distributed over the pages
+ * as well, which gives some pages many incoming links, and so a lot of anchor
+ * text, while most have few or none. The same seed always produces the same
+ * crawl.
+ *
+ * @author tweninge
+ *
+ */
+public class SyntheticCrawlGenerator {
+
+	private static Logger logger = LoggerFactory
+			.getLogger(SyntheticCrawlGenerator.class);
+
+	private static final String SITE = "http://www.example.edu/page/";
+	private static final String CONSONANTS = "bcdfghjklmnprstvz";
+	private static final String VOWELS = "aeiou";
+
+	private int numDocs;
+	private int vocabulary;
+	private long seed;
+	private double wordExponent = 1.0;
+	private double linkExponent = 0.8;
+	private int minBodyWords = 50;
+	private int maxBodyWords = 500;
+	private int minTitleWords = 2;
+	private int maxTitleWords = 8;
+	private int maxLinks = 10;
+	private int maxAnchorWords = 4;
+
+	/**
+	 * Constructor
+	 *
+	 * @param numDocs
+	 *            number of pages
+	 * @param vocabulary
+	 *            number of distinct words
+	 * @param seed
+	 *            random seed
+	 */
+	public SyntheticCrawlGenerator(int numDocs, int vocabulary, long seed) {
+		this.numDocs = numDocs;
+		this.vocabulary = vocabulary;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param exponent
+	 *            Zipf exponent of the word frequencies, 1 by default
+	 */
+	public void setWordExponent(double exponent) {
+		wordExponent = exponent;
+	}
+
+	/**
+	 * @param exponent
+	 *            Zipf exponent of the number of links pointing to a page, 0.8
+	 *            by default
+	 */
+	public void setLinkExponent(double exponent) {
+		linkExponent = exponent;
+	}
+
+	/**
+	 * Body lengths are uniform between min and max words
+	 */
+	public void setBodyWords(int min, int max) {
+		minBodyWords = min;
+		maxBodyWords = max;
+	}
+
+	/**
+	 * Title lengths are uniform between min and max words
+	 */
+	public void setTitleWords(int min, int max) {
+		minTitleWords = min;
+		maxTitleWords = max;
+	}
+
+	/**
+	 * @param maxLinks
+	 *            pages get between 0 and maxLinks links
+	 * @param maxAnchorWords
+	 *            anchors get between 1 and maxAnchorWords words
+	 */
+	public void setLinks(int maxLinks, int maxAnchorWords) {
+		this.maxLinks = maxLinks;
+		this.maxAnchorWords = maxAnchorWords;
+	}
+
+	/**
+	 * The word of a vocabulary rank, made of consonant-vowel syllables so the
+	 * tokenizer keeps it in one piece. Ranks map to distinct words.
+	 *
+	 * @param rank
+	 *            rank in the vocabulary, 0 is the most frequent word
+	 * @return word
+	 */
+	public static String word(int rank) {
+		int syllables = CONSONANTS.length() * VOWELS.length();
+		StringBuffer sb = new StringBuffer();
+		int r = rank;
+		do {
+			int s = r % syllables;
+			sb.append(CONSONANTS.charAt(s / VOWELS.length())).append(
+					VOWELS.charAt(s % VOWELS.length()));
+			r = r / syllables - 1;
+		} while (r >= 0);
+		return sb.toString();
+	}
+
+	/**
+	 * @param page
+	 *            page number
+	 * @return URL of the page
+	 */
+	public static String url(int page) {
+		return SITE + page;
+	}
+
+	/**
+	 * Writes the crawl
+	 *
+	 * @param crawl
+	 *            zip file to write
+	 * @throws IOException
+	 */
+	public void write(File crawl) throws IOException {
+		Random r = new Random(seed);
+		ZipfSampler words = new ZipfSampler(vocabulary, wordExponent);
+		ZipfSampler pages = new ZipfSampler(numDocs, linkExponent);
+		// popular link targets are spread over the crawl, not the first pages
+		int[] pageOrder = shuffledPages(r);
+
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+				new FileOutputStream(crawl), 1 << 16));
+		StringBuffer html = new StringBuffer();
+		for (int d = 0; d < numDocs; d++) {
+			html.setLength(0);
+			html.append("<html><head><title>");
+			appendWords(html, words, r, between(r, minTitleWords,
+					maxTitleWords));
+			html.append("</title></head><body><p>");
+			appendWords(html, words, r, between(r, minBodyWords,
+					maxBodyWords));
+			html.append("</p>");
+			int links = between(r, 0, maxLinks);
+			for (int l = 0; l < links; l++) {
+				html.append("\n<a href=\"")
+						.append(url(pageOrder[pages.next(r)])).append("\">");
+				appendWords(html, words, r, between(r, 1, maxAnchorWords));
+				html.append("</a>");
+			}
+			html.append("</body></html>\n");
+
+			zip.putNextEntry(new ZipEntry(entryName(d)));
+			zip.write(html.toString().getBytes("UTF-8"));
+			zip.closeEntry();
+
+			if ((d + 1) % 10000 == 0) {
+				logger.info("Generated " + (d + 1) + " of " + numDocs
+						+ " pages");
+			}
+		}
+		zip.close();
+	}
+
+	private static String entryName(int page)
+			throws UnsupportedEncodingException {
+		return "crawl/" + URLEncoder.encode(url(page), "UTF-8");
+	}
+
+	private int[] shuffledPages(Random r) {
+		int[] order = new int[numDocs];
+		for (int i = 0; i < numDocs; i++) {
+			order[i] = i;
+		}
+		for (int i = numDocs - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+
+	private static void appendWords(StringBuffer sb, ZipfSampler words,
+			Random r, int n) {
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(word(words.next(r)));
+		}
+	}
+
+	private static int between(Random r, int min, int max) {
+		return min + r.nextInt(Math.max(1, max - min + 1));
+	}
+
+	/**
+	 * Draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^s
+	 * by binary search over the cumulative distribution.
+	 */
+	private static class ZipfSampler {
+		private final double[] cdf;
+
+		ZipfSampler(int n, double s) {
+			cdf = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1.0 / Math.pow(i + 1, s);
+				cdf[i] = sum;
+			}
+			for (int i = 0; i < n; i++) {
+				cdf[i] /= sum;
+			}
+		}
+
+		int next(Random r) {
+			int i = Arrays.binarySearch(cdf, r.nextDouble());
+			return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			printUsage();
+			return;
+		}
+		try {
+			File crawl = new File(args[0]);
+			int docs = Integer.parseInt(args[1]);
+			int vocabulary = args.length > 2 ? Integer.parseInt(args[2])
+					: 100000;
+			long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+			SyntheticCrawlGenerator g = new SyntheticCrawlGenerator(docs,
+					vocabulary, seed);
+			if (args.length > 4) {
+				g.setWordExponent(Double.parseDouble(args[4]));
+			}
+			g.write(crawl);
+			logger.info("Wrote " + docs + " pages to " + crawl);
+		} catch (NumberFormatException e) {
+			printUsage();
+		} catch (IOException e) {
+			logger.error("Cannot write crawl", e);
+		}
+	}
+
+	private static void printUsage() {
+		logger.error("Usage: SyntheticCrawlGenerator <crawl.zip> <numDocs> "
+				+ "[vocabulary] [seed] [wordExponent]");
+	}
+}